@@ -0,0 +1,72 @@
+package com.miskevich.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Generated tables of the benchmarks. {@link DataBaseService} reads its data directory, storage engine and log
+ * settings from system properties when the class is initialized, so {@link #configure} has to run before the
+ * class is used. JMH runs every combination of parameters in its own JVM, which makes that possible.
+ */
+final class Fixtures {
+
+    static final String PERSONS = "persons";
+
+    private Fixtures() {
+    }
+
+    /**
+     * Writes a {@code persons} table with ids from 1 to the given number of rows, unless it exists from an
+     * earlier run, and points the server at it with an empty write-ahead log. The server builds the catalog
+     * of the directory from the table file on its first start.
+     */
+    static void configure(int rows, String storage, String fsync) throws IOException {
+        File dir = new File(System.getProperty("rmdb.bench.dir", "target" + File.separator + "fixtures"),
+                storage + File.separator + rows);
+        String path = dir.getPath() + File.separator;
+        File walDir = new File(dir, "wal");
+        // before anything touches DataBaseService, the binary engine does when it writes the fixture
+        System.setProperty(DataBaseService.DATA_DIR_PROPERTY, path);
+        System.setProperty(StorageEngine.STORAGE_PROPERTY, storage);
+        System.setProperty("rmdb.wal.dir", walDir.getPath());
+        System.setProperty("rmdb.wal.fsync", fsync);
+        StorageEngine storageEngine = StorageEngine.forName(storage);
+        if (!storageEngine.getFile(PERSONS, path).exists()) {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            storageEngine.write(createPersons(rows), path);
+        }
+
+        File[] segments = walDir.listFiles();
+        if (segments != null) {
+            for (File segment : segments) {
+                if (!segment.delete()) {
+                    throw new IOException("Cannot delete " + segment);
+                }
+            }
+        }
+        // the server prints a line per query, which would bury the results
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    static Table createPersons(int rows) {
+        Table table = new Table(new TableSchema(PERSONS, Arrays.asList("p_id", "p_name", "age"),
+                Arrays.asList(TableSchema.ColumnType.INT, TableSchema.ColumnType.STRING, TableSchema.ColumnType.INT), "p_id"));
+        for (int id = 1; id <= rows; id++) {
+            table.addRow(new String[]{String.valueOf(id), "name_" + id, String.valueOf(18 + id % 60)});
+        }
+        return table;
+    }
+}
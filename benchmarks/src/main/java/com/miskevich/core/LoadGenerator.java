@@ -0,0 +1,496 @@
+package com.miskevich.core;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a server with many concurrent clients over the line protocol and reports throughput and latency
+ * percentiles as {@code name=value} lines. Unless {@code --connect} names a running server, it writes a fresh
+ * {@code persons} table, starts {@link Session} in a separate JVM on it and stops it at the end.
+ * <p>
+ * In the closed loop every client sends its next query as soon as the previous one is answered. In the open loop
+ * queries are due at a fixed rate whether or not the server keeps up, and the latency of a query is measured from
+ * the moment it was due, so time spent waiting for a busy client is counted too.
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.miskevich.core.LoadGenerator --clients=64 --mode=open --rate=2000
+ *     --mix=insert:10,point:80,full:10 --server.frontend=nio
+ * </pre>
+ * Options of the server are passed as {@code --server.name=value}.
+ */
+public class LoadGenerator {
+
+    enum Mode {
+        CLOSED, OPEN
+    }
+
+    enum QueryType {
+        INSERT, POINT, FULL
+    }
+
+    private static final String PERSONS = "persons";
+    private static final int SOCKET_TIMEOUT_MILLIS = 30000;
+    private static final long SERVER_START_TIMEOUT_MILLIS = 60000;
+
+    private Mode mode = Mode.CLOSED;
+    private int clients = 16;
+    private int rate = 1000;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private int rows = 10000;
+    private int[] weights = {10, 80, 10};
+    private boolean keepAlive = true;
+    private String host = "localhost";
+    private int port = 3100;
+    private boolean startServer = true;
+    private String storage = "xlsx";
+    private String fsync = "always";
+    private File dir = new File("target" + File.separator + "load");
+    private File output;
+    private final List<String> serverArgs = new ArrayList<>();
+
+    private AtomicInteger nextId;
+    private final AtomicLong nextTicket = new AtomicLong();
+    private long startNanos;
+    private long measureFromNanos;
+    private long endNanos;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator loadGenerator = fromArgs(args);
+        Process server = loadGenerator.startServer ? loadGenerator.startServer() : null;
+        try {
+            Map<String, String> results = loadGenerator.run();
+            for (Map.Entry<String, String> entry : results.entrySet()) {
+                System.out.println(entry.getKey() + "=" + entry.getValue());
+            }
+            if (loadGenerator.output != null) {
+                Metrics.dump(loadGenerator.output, results);
+            }
+        } finally {
+            if (server != null) {
+                server.destroy();
+                server.waitFor(SERVER_START_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    static LoadGenerator fromArgs(String[] args) {
+        LoadGenerator loadGenerator = new LoadGenerator();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Unknown argument " + arg + ", expected --name=value");
+            }
+            String name = arg.substring(2, arg.indexOf("="));
+            String value = arg.substring(arg.indexOf("=") + 1);
+            loadGenerator.set(name, value);
+        }
+        return loadGenerator;
+    }
+
+    private void set(String name, String value) {
+        if (name.startsWith("server.")) {
+            serverArgs.add("--" + name.substring("server.".length()) + "=" + value);
+            return;
+        }
+        switch (name) {
+            case "mode":
+                mode = Mode.valueOf(value.toUpperCase());
+                break;
+            case "clients":
+                clients = Integer.parseInt(value);
+                break;
+            case "rate":
+                rate = Integer.parseInt(value);
+                break;
+            case "duration":
+                durationSeconds = Integer.parseInt(value);
+                break;
+            case "warmup":
+                warmupSeconds = Integer.parseInt(value);
+                break;
+            case "rows":
+                rows = Integer.parseInt(value);
+                break;
+            case "mix":
+                weights = parseMix(value);
+                break;
+            case "keepAlive":
+                keepAlive = Boolean.parseBoolean(value);
+                break;
+            case "port":
+                port = Integer.parseInt(value);
+                break;
+            case "connect":
+                host = value.substring(0, value.lastIndexOf(':'));
+                port = Integer.parseInt(value.substring(value.lastIndexOf(':') + 1));
+                startServer = false;
+                break;
+            case "storage":
+                storage = value;
+                break;
+            case "fsync":
+                fsync = value;
+                break;
+            case "dir":
+                dir = new File(value);
+                break;
+            case "output":
+                output = new File(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option --" + name);
+        }
+    }
+
+    /**
+     * @param mix weights of the query types, e.g. {@code insert:10,point:80,full:10}; missing types get 0
+     */
+    static int[] parseMix(String mix) {
+        int[] weights = new int[QueryType.values().length];
+        for (String part : mix.split(",")) {
+            String[] typeAndWeight = part.trim().split(":");
+            if (typeAndWeight.length != 2) {
+                throw new IllegalArgumentException("Expected type:weight in the mix, got " + part);
+            }
+            weights[QueryType.valueOf(typeAndWeight[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(typeAndWeight[1].trim());
+        }
+        if (Arrays.stream(weights).sum() <= 0) {
+            throw new IllegalArgumentException("Mix " + mix + " has no queries");
+        }
+        return weights;
+    }
+
+    /**
+     * Writes the table into a new data directory and starts the server on it, with the classpath of this JVM.
+     */
+    private Process startServer() throws IOException, InterruptedException {
+        File dataDir = new File(dir, "data");
+        File walDir = new File(dir, "wal");
+        deleteRecursively(dataDir);
+        deleteRecursively(walDir);
+        if (!dataDir.mkdirs()) {
+            throw new IOException("Cannot create " + dataDir);
+        }
+        StorageEngine.forName(storage).write(Fixtures.createPersons(rows), dataDir.getPath() + File.separator);
+
+        List<String> command = new ArrayList<>(Arrays.asList(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"),
+                "-D" + DataBaseService.DATA_DIR_PROPERTY + "=" + dataDir.getPath(),
+                "-D" + StorageEngine.STORAGE_PROPERTY + "=" + storage,
+                "-Drmdb.wal.dir=" + walDir.getPath(),
+                "-Drmdb.wal.fsync=" + fsync,
+                "-Drmdb.metrics.intervalMillis=0",
+                Session.class.getName(),
+                "--port=" + port));
+        command.addAll(serverArgs);
+        File log = new File(dir, "server.log");
+        Process server = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+
+        long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT_MILLIS;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), 1000);
+                return server;
+            } catch (IOException e) {
+                if (!server.isAlive() || System.currentTimeMillis() > deadline) {
+                    server.destroy();
+                    throw new IOException("Server did not start, see " + log, e);
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot delete " + file);
+        }
+    }
+
+    Map<String, String> run() throws InterruptedException, IOException {
+        nextId = new AtomicInteger(rows + 1);
+        startNanos = System.nanoTime();
+        measureFromNanos = startNanos + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        endNanos = measureFromNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        Client[] clientList = new Client[clients];
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            clientList[i] = new Client();
+            threads[i] = new Thread(clientList[i], "load-client-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Map<String, String> results = new LinkedHashMap<>();
+        results.put("mode", mode.name().toLowerCase());
+        results.put("clients", String.valueOf(clients));
+        results.put("keepAlive", String.valueOf(keepAlive));
+        if (mode == Mode.OPEN) {
+            results.put("targetRate", String.valueOf(rate));
+        }
+        results.put("rows", String.valueOf(rows));
+        results.put("durationSeconds", String.valueOf(durationSeconds));
+
+        Recorder total = new Recorder();
+        Recorder[] byType = new Recorder[QueryType.values().length];
+        for (QueryType type : QueryType.values()) {
+            byType[type.ordinal()] = new Recorder();
+            for (Client client : clientList) {
+                byType[type.ordinal()].addAll(client.recorders[type.ordinal()]);
+            }
+            total.addAll(byType[type.ordinal()]);
+        }
+        total.describe("all", durationSeconds, results);
+        for (QueryType type : QueryType.values()) {
+            if (weights[type.ordinal()] > 0) {
+                byType[type.ordinal()].describe(type.name().toLowerCase(), durationSeconds, results);
+            }
+        }
+        for (Map.Entry<String, String> entry : readServerStats().entrySet()) {
+            results.put("server." + entry.getKey(), entry.getValue());
+        }
+        return results;
+    }
+
+    private QueryType nextType(Random random) {
+        int choice = random.nextInt(Arrays.stream(weights).sum());
+        for (QueryType type : QueryType.values()) {
+            choice -= weights[type.ordinal()];
+            if (choice < 0) {
+                return type;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private String createQuery(QueryType type, Random random) {
+        switch (type) {
+            case INSERT:
+                int id = nextId.getAndIncrement();
+                return "INSERT INTO persons (p_id, p_name, age) VALUES (" + id + ", name_" + id + ", " + (18 + id % 60) + ")";
+            case POINT:
+                return "SELECT * FROM persons WHERE p_id = " + (random.nextInt(rows) + 1);
+            default:
+                return "SELECT * FROM " + PERSONS;
+        }
+    }
+
+    /**
+     * @return metrics of the server from its STATS query, empty if it cannot be read
+     */
+    private Map<String, String> readServerStats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        try (Connection connection = new Connection(false)) {
+            for (String line : connection.query("STATS").lines) {
+                int separator = line.indexOf('=');
+                if (separator > 0) {
+                    stats.put(line.substring(0, separator), line.substring(separator + 1));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot read the server metrics: " + e);
+        }
+        return stats;
+    }
+
+    private class Client implements Runnable {
+        private final Recorder[] recorders = new Recorder[QueryType.values().length];
+        private Connection connection;
+
+        Client() {
+            for (int i = 0; i < recorders.length; i++) {
+                recorders[i] = new Recorder();
+            }
+        }
+
+        @Override
+        public void run() {
+            Random random = ThreadLocalRandom.current();
+            long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate);
+            try {
+                while (true) {
+                    long dueNanos;
+                    if (mode == Mode.OPEN) {
+                        dueNanos = startNanos + nextTicket.getAndIncrement() * intervalNanos;
+                        if (dueNanos >= endNanos) {
+                            return;
+                        }
+                        long waitNanos = dueNanos - System.nanoTime();
+                        if (waitNanos > 0) {
+                            LockSupport.parkNanos(waitNanos);
+                        }
+                    } else {
+                        dueNanos = System.nanoTime();
+                        if (dueNanos >= endNanos) {
+                            return;
+                        }
+                    }
+                    QueryType type = nextType(random);
+                    boolean failed = !send(createQuery(type, random));
+                    if (dueNanos >= measureFromNanos) {
+                        recorders[type.ordinal()].record(System.nanoTime() - dueNanos, failed);
+                    }
+                }
+            } finally {
+                closeConnection();
+            }
+        }
+
+        /**
+         * @return false if the query failed or was rejected
+         */
+        private boolean send(String query) {
+            try {
+                if (connection == null) {
+                    connection = new Connection(keepAlive);
+                }
+                boolean succeeded = connection.query(query).succeeded;
+                if (!keepAlive) {
+                    closeConnection();
+                }
+                return succeeded;
+            } catch (IOException e) {
+                closeConnection();
+                return false;
+            }
+        }
+
+        private void closeConnection() {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    // the server is gone already
+                }
+                connection = null;
+            }
+        }
+    }
+
+    /**
+     * One connection of the line protocol; without keep-alive it serves a single query.
+     */
+    private class Connection implements Closeable {
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final Writer writer;
+        private final boolean keepAlive;
+
+        Connection(boolean keepAlive) throws IOException {
+            this.keepAlive = keepAlive;
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            if (keepAlive) {
+                Response response = query(Protocol.KEEP_ALIVE);
+                if (!response.succeeded) {
+                    socket.close();
+                    throw new IOException("Server refused the connection: " + response.lines);
+                }
+            }
+        }
+
+        Response query(String query) throws IOException {
+            writer.write(query);
+            writer.write('\n');
+            writer.flush();
+            Response response = new Response();
+            String line;
+            while ((line = reader.readLine()) != null && !(keepAlive && line.isEmpty())) {
+                if (line.startsWith("Exception: ")) {
+                    response.succeeded = false;
+                }
+                response.lines.add(line);
+            }
+            if (line == null && keepAlive) {
+                throw new EOFException("Server closed the connection");
+            }
+            return response;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static class Response {
+        private final List<String> lines = new ArrayList<>();
+        private boolean succeeded = true;
+    }
+
+    /**
+     * Latencies of one client and query type, kept whole so that the percentiles are exact.
+     */
+    static class Recorder {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+
+        void record(long nanos, boolean failed) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count << 1);
+            }
+            latencies[count++] = nanos;
+            if (failed) {
+                errors++;
+            }
+        }
+
+        void addAll(Recorder other) {
+            if (count + other.count > latencies.length) {
+                latencies = Arrays.copyOf(latencies, Math.max(count + other.count, count << 1));
+            }
+            System.arraycopy(other.latencies, 0, latencies, count, other.count);
+            count += other.count;
+            errors += other.errors;
+        }
+
+        /**
+         * @return latency in microseconds below which the given fraction of the queries finished
+         */
+        long percentileMicros(long[] sorted, double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(count * fraction);
+            return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, rank - 1)]);
+        }
+
+        void describe(String prefix, int durationSeconds, Map<String, String> results) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            long sum = 0;
+            for (long latency : sorted) {
+                sum += latency;
+            }
+            results.put(prefix + ".count", String.valueOf(count));
+            results.put(prefix + ".errors", String.valueOf(errors));
+            results.put(prefix + ".perSecond", String.format(Locale.ROOT, "%.1f", count / (double) durationSeconds));
+            results.put(prefix + ".latency.meanMicros", String.valueOf(count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(sum / count)));
+            results.put(prefix + ".latency.p50Micros", String.valueOf(percentileMicros(sorted, 0.5)));
+            results.put(prefix + ".latency.p99Micros", String.valueOf(percentileMicros(sorted, 0.99)));
+            results.put(prefix + ".latency.p999Micros", String.valueOf(percentileMicros(sorted, 0.999)));
+            results.put(prefix + ".latency.maxMicros", String.valueOf(percentileMicros(sorted, 1.0)));
+        }
+    }
+}
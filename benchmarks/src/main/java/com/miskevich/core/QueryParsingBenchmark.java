@@ -0,0 +1,48 @@
+package com.miskevich.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing through the statement cache. The queries differ in their literals, as they do from a client that
+ * sends its values inline, so most of them are answered from a cached template rather than by the same string.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryParsingBenchmark {
+
+    private static final int QUERY_COUNT = 4096;
+
+    private final String[] selects = new String[QUERY_COUNT];
+    private final String[] inserts = new String[QUERY_COUNT];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            selects[i] = "SELECT p_name, age FROM persons WHERE p_id = " + i;
+            inserts[i] = "INSERT INTO persons (p_id, p_name, age) VALUES (" + i + ", name_" + i + ", " + (i % 90) + ")";
+        }
+    }
+
+    @Benchmark
+    public String getTableNameSelect() {
+        return DataBaseService.getTableNameSelect(selects[nextQuery()]);
+    }
+
+    @Benchmark
+    public List<String> getColumnNamesFromInsertQuery() {
+        return DataBaseService.getColumnNamesFromInsertQuery(inserts[nextQuery()]);
+    }
+
+    private int nextQuery() {
+        next = (next + 1) & (QUERY_COUNT - 1);
+        return next;
+    }
+}
@@ -0,0 +1,84 @@
+package com.miskevich.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads and inserts on a cached {@code persons} table of {@link #rows} rows. The insert benchmark goes through
+ * {@link DataBaseService#save} like a query of a client, write-ahead log included, and grows the table by one row
+ * per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    private int rows;
+
+    @Param({"xlsx"})
+    private String storage;
+
+    @Param({"always"})
+    private String fsync;
+
+    private Map<String, String> newRow;
+    private AtomicInteger nextId;
+
+    @Setup
+    public void setUp() throws IOException {
+        Fixtures.configure(rows, storage, fsync);
+        DataBaseService.readAllDataFromTable(Fixtures.PERSONS, DataBaseService.PATH);
+        newRow = Collections.singletonMap("p_id", String.valueOf(rows + 1));
+        nextId = new AtomicInteger(rows + 1);
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private final ResponseWriter responseWriter = new TextResponseWriter(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }, true);
+        private final DataBaseService dataBaseService = new DataBaseService(responseWriter);
+    }
+
+    @Benchmark
+    public List<Map<String, String>> readAllDataFromTable() {
+        return DataBaseService.readAllDataFromTable(Fixtures.PERSONS, DataBaseService.PATH);
+    }
+
+    @Benchmark
+    public Map<String, String> readDataFromTableById() {
+        int id = ThreadLocalRandom.current().nextInt(rows) + 1;
+        return DataBaseService.readDataFromTableById(Fixtures.PERSONS, DataBaseService.PATH, id, "p_id");
+    }
+
+    @Benchmark
+    public void uniqueConstraintCheck() {
+        DataBaseService.uniqueConstraintCheck(Fixtures.PERSONS, newRow);
+    }
+
+    @Benchmark
+    public void insert(Client client) throws IOException {
+        int id = nextId.getAndIncrement();
+        client.dataBaseService.save(DataBaseService.parseInsert(
+                "INSERT INTO persons (p_id, p_name, age) VALUES (" + id + ", name_" + id + ", 30)"));
+        client.responseWriter.endResponse();
+    }
+}
@@ -0,0 +1,55 @@
+package com.miskevich.core;
+
+/**
+ * One aggregate function of a select, {@code COUNT(*)} or {@code function(column)}. COUNT counts the rows,
+ * or the values of its column that are not null; SUM, AVG, MIN and MAX take an INT column.
+ */
+public class Aggregate {
+
+    public enum Function {
+        COUNT, SUM, AVG, MIN, MAX;
+
+        /**
+         * @return function of the name, or null if the name is not an aggregate function
+         */
+        static Function forName(String name) {
+            for (Function function : values()) {
+                if (function.name().equalsIgnoreCase(name)) {
+                    return function;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Function function;
+    private final String column;
+
+    Aggregate(Function function, String column) {
+        this.function = function;
+        this.column = column;
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * @return column of the function, null for {@code COUNT(*)}
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * @return name of the result column, e.g. {@code AVG(age)}
+     */
+    public String getName() {
+        return function + "(" + (column == null ? "*" : column) + ")";
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
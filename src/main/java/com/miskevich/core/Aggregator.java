@@ -0,0 +1,307 @@
+package com.miskevich.core;
+
+import java.util.*;
+
+/**
+ * Computes the aggregates of a select over the rows passed to it, one result row per group. The state of all
+ * groups is kept in primitive arrays, a slot per group and aggregate, and rows of a cached table are read from
+ * its parsed INT columns, so a row costs a few array accesses. Groups of a single INT column are found
+ * through an {@link IntHashIndex}, other groups through a map of their values. Parts of a table may be aggregated
+ * separately and {@link #merge merged} afterwards.
+ */
+final class Aggregator {
+
+    private static final int INITIAL_GROUP_CAPACITY = 16;
+
+    private final List<String> columns;
+    private final List<Aggregate> aggregates;
+    private final int[] aggregateColumns;
+    private final boolean[] numeric;
+    private final List<String> groupBy;
+    private final int[] groupColumns;
+    private final boolean intGroup;
+
+    private IntHashIndex intGroups;
+    private int nullGroup = -1;
+    private Map<List<String>, Integer> groups;
+    private final List<String[]> groupValues = new ArrayList<>();
+    private int groupCount;
+    private long[] counts;
+    private long[] sums;
+    private int[] mins;
+    private int[] maxs;
+
+    /**
+     * @param columnTypes types of the columns, SUM, AVG, MIN and MAX need INT columns
+     */
+    Aggregator(SelectStatement statement, List<String> columnNames, List<TableSchema.ColumnType> columnTypes) {
+        if (statement.getColumns() == null) {
+            throw new ServerException("SELECT * cannot be grouped, select the GROUP BY columns and aggregates");
+        }
+        this.columns = statement.getColumns();
+        this.aggregates = statement.getAggregates();
+        this.aggregateColumns = new int[aggregates.size()];
+        this.numeric = new boolean[aggregates.size()];
+        for (int i = 0; i < aggregateColumns.length; i++) {
+            Aggregate aggregate = aggregates.get(i);
+            aggregateColumns[i] = aggregate.getColumn() == null ? -1 : findColumn(columnNames, aggregate.getColumn(), statement);
+            numeric[i] = aggregateColumns[i] >= 0 && columnTypes.get(aggregateColumns[i]) == TableSchema.ColumnType.INT;
+            if (!numeric[i] && aggregate.getFunction() != Aggregate.Function.COUNT) {
+                throw new ServerException(aggregate.getFunction() + " needs an INT column, '" + aggregate.getColumn() + "' is not");
+            }
+        }
+        this.groupBy = statement.getGroupBy();
+        this.groupColumns = new int[groupBy.size()];
+        for (int i = 0; i < groupColumns.length; i++) {
+            groupColumns[i] = findColumn(columnNames, groupBy.get(i), statement);
+        }
+        for (String column : columns) {
+            if (statement.getAggregate(column) == null && !isGrouped(column, groupBy)) {
+                throw new ServerException("Column '" + column + "' must be in GROUP BY or in an aggregate");
+            }
+        }
+        this.intGroup = groupColumns.length == 1 && columnTypes.get(groupColumns[0]) == TableSchema.ColumnType.INT;
+        if (intGroup) {
+            intGroups = new IntHashIndex();
+        } else if (groupColumns.length > 0) {
+            groups = new HashMap<>();
+        }
+        int capacity = INITIAL_GROUP_CAPACITY * Math.max(1, aggregates.size());
+        counts = new long[capacity];
+        sums = new long[capacity];
+        mins = new int[capacity];
+        maxs = new int[capacity];
+        if (groupColumns.length == 0) {
+            // without GROUP BY there is exactly one result row, also for no rows at all
+            newGroup(new String[0]);
+        }
+    }
+
+    private static int findColumn(List<String> columnNames, String column, SelectStatement statement) {
+        int index = Table.getColumnIndexes(columnNames, Collections.singletonList(column))[0];
+        if (index < 0) {
+            throw new ServerException("No such column '" + column + "' in the table " + statement.getTable());
+        }
+        return index;
+    }
+
+    private static boolean isGrouped(String column, List<String> groupBy) {
+        for (String groupColumn : groupBy) {
+            if (groupColumn.equalsIgnoreCase(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the row at the position of a cached table.
+     */
+    void add(Table table, int position) {
+        int base = findGroup(table, position) * aggregates.size();
+        for (int i = 0; i < aggregateColumns.length; i++) {
+            int column = aggregateColumns[i];
+            if (column < 0) {
+                counts[base + i]++;
+            } else if (!table.isNull(column, position)) {
+                if (numeric[i]) {
+                    accumulate(base + i, table.getInt(column, position));
+                } else {
+                    counts[base + i]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a row read from a table file.
+     */
+    void add(String[] row) {
+        int base = findGroup(row) * aggregates.size();
+        for (int i = 0; i < aggregateColumns.length; i++) {
+            int column = aggregateColumns[i];
+            if (column < 0) {
+                counts[base + i]++;
+            } else if (row[column] != null) {
+                if (numeric[i]) {
+                    accumulate(base + i, Table.toInt(row[column]));
+                } else {
+                    counts[base + i]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the state of an aggregator of the same select, which read rows after the rows of this one; groups
+     * that are new to this aggregator come after its own, as if it had read all of the rows itself.
+     */
+    void merge(Aggregator other) {
+        for (int group = 0; group < other.groupCount; group++) {
+            int base = findGroupOfValues(other.groupValues.get(group)) * aggregates.size();
+            int otherBase = group * aggregates.size();
+            for (int i = 0; i < aggregateColumns.length; i++) {
+                int slot = base + i;
+                int otherSlot = otherBase + i;
+                if (other.counts[otherSlot] == 0) {
+                    continue;
+                }
+                if (counts[slot] == 0 || other.mins[otherSlot] < mins[slot]) {
+                    mins[slot] = other.mins[otherSlot];
+                }
+                if (counts[slot] == 0 || other.maxs[otherSlot] > maxs[slot]) {
+                    maxs[slot] = other.maxs[otherSlot];
+                }
+                counts[slot] += other.counts[otherSlot];
+                sums[slot] += other.sums[otherSlot];
+            }
+        }
+    }
+
+    private void accumulate(int slot, int value) {
+        if (counts[slot] == 0 || value < mins[slot]) {
+            mins[slot] = value;
+        }
+        if (counts[slot] == 0 || value > maxs[slot]) {
+            maxs[slot] = value;
+        }
+        counts[slot]++;
+        sums[slot] += value;
+    }
+
+    private int findGroup(Table table, int position) {
+        if (groupColumns.length == 0) {
+            return 0;
+        }
+        if (intGroup) {
+            int column = groupColumns[0];
+            if (table.isNull(column, position)) {
+                return findNullGroup();
+            }
+            return findIntGroup(table.getInt(column, position));
+        }
+        return findGroup(table.getRow(position));
+    }
+
+    private int findGroup(String[] row) {
+        if (groupColumns.length == 0) {
+            return 0;
+        }
+        if (intGroup) {
+            String value = row[groupColumns[0]];
+            return value == null ? findNullGroup() : findIntGroup(Table.toInt(value));
+        }
+        String[] values = new String[groupColumns.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = row[groupColumns[i]];
+        }
+        return findGroupOfValues(values);
+    }
+
+    /**
+     * @param values values of the GROUP BY columns
+     */
+    private int findGroupOfValues(String[] values) {
+        if (groupColumns.length == 0) {
+            return 0;
+        }
+        if (intGroup) {
+            return values[0] == null ? findNullGroup() : findIntGroup(Table.toInt(values[0]));
+        }
+        List<String> key = Arrays.asList(values);
+        Integer group = groups.get(key);
+        if (group == null) {
+            group = newGroup(values);
+            groups.put(key, group);
+        }
+        return group;
+    }
+
+    private int findIntGroup(int key) {
+        int group = intGroups.get(key);
+        if (group == IntHashIndex.NOT_FOUND) {
+            group = newGroup(new String[]{String.valueOf(key)});
+            if (intGroups.isFull()) {
+                intGroups = intGroups.grow();
+            }
+            intGroups.put(key, group);
+        }
+        return group;
+    }
+
+    private int findNullGroup() {
+        if (nullGroup < 0) {
+            nullGroup = newGroup(new String[]{null});
+        }
+        return nullGroup;
+    }
+
+    private int newGroup(String[] values) {
+        int required = (groupCount + 1) * aggregates.size();
+        if (required > counts.length) {
+            int capacity = Math.max(required, counts.length << 1);
+            counts = Arrays.copyOf(counts, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+        }
+        groupValues.add(values);
+        return groupCount++;
+    }
+
+    /**
+     * @return one row per group in the order the groups were first seen, with the selected columns in the order
+     * of the select list; an aggregate over no values, other than COUNT, is left out like a null value
+     */
+    List<Map<String, String>> getRows() {
+        List<Map<String, String>> rows = new ArrayList<>(groupCount);
+        for (int group = 0; group < groupCount; group++) {
+            Map<String, String> row = new LinkedHashMap<>();
+            for (String column : columns) {
+                String value = getValue(group, column);
+                if (value != null) {
+                    row.put(column, value);
+                }
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    int getGroupCount() {
+        return groupCount;
+    }
+
+    private String getValue(int group, String column) {
+        for (int i = 0; i < aggregates.size(); i++) {
+            if (aggregates.get(i).getName().equals(column)) {
+                return getAggregateValue(group * aggregates.size() + i, aggregates.get(i).getFunction());
+            }
+        }
+        for (int i = 0; i < groupColumns.length; i++) {
+            if (column.equalsIgnoreCase(groupBy.get(i))) {
+                return groupValues.get(group)[i];
+            }
+        }
+        return null;
+    }
+
+    private String getAggregateValue(int slot, Aggregate.Function function) {
+        if (function == Aggregate.Function.COUNT) {
+            return String.valueOf(counts[slot]);
+        }
+        if (counts[slot] == 0) {
+            return null;
+        }
+        switch (function) {
+            case SUM:
+                return String.valueOf(sums[slot]);
+            case AVG:
+                return String.valueOf((double) sums[slot] / counts[slot]);
+            case MIN:
+                return String.valueOf(mins[slot]);
+            default:
+                return String.valueOf(maxs[slot]);
+        }
+    }
+}
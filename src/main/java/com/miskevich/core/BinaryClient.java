@@ -0,0 +1,124 @@
+package com.miskevich.core;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Client of the binary protocol over one persistent connection. Int columns come back as {@link Integer},
+ * string columns as {@link String}; a query that the server rejects throws a {@link ServerException}.
+ * <pre>
+ * try (BinaryClient client = new BinaryClient("localhost", 3000)) {
+ *     for (Map&lt;String, Object&gt; row : client.query("SELECT * FROM persons").getRows()) { ... }
+ * }
+ * </pre>
+ */
+public class BinaryClient implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+
+    public BinaryClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), ResponseWriter.FLUSH_THRESHOLD));
+        out = new BufferedOutputStream(socket.getOutputStream());
+        send(Protocol.BINARY);
+        readResponse(in);
+    }
+
+    public Result query(String query) throws IOException {
+        send(query);
+        return readResponse(in);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            send(Protocol.QUIT);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void send(String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * Reads the frames of one response up to its end frame.
+     */
+    static Result readResponse(DataInputStream in) throws IOException {
+        Result result = new Result();
+        String error = null;
+        String[] columnNames = new String[0];
+        boolean[] intColumns = new boolean[0];
+        while (true) {
+            byte type = in.readByte();
+            int length = in.readInt();
+            switch (type) {
+                case BinaryResponseWriter.COLUMNS:
+                    columnNames = new String[in.readUnsignedShort()];
+                    intColumns = new boolean[columnNames.length];
+                    for (int i = 0; i < columnNames.length; i++) {
+                        intColumns[i] = in.readByte() == BinaryResponseWriter.INT_TYPE;
+                        columnNames[i] = readShortString(in);
+                    }
+                    break;
+                case BinaryResponseWriter.ROW:
+                    byte[] bitmap = new byte[(columnNames.length + 7) / 8];
+                    in.readFully(bitmap);
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (int i = 0; i < columnNames.length; i++) {
+                        if ((bitmap[i / 8] & (1 << (i % 8))) == 0) {
+                            row.put(columnNames[i], intColumns[i] ? (Object) in.readInt() : readShortString(in));
+                        }
+                    }
+                    result.rows.add(row);
+                    break;
+                case BinaryResponseWriter.MESSAGE:
+                    result.message = readText(in, length);
+                    break;
+                case BinaryResponseWriter.ERROR:
+                    error = readText(in, length);
+                    break;
+                case BinaryResponseWriter.END:
+                    if (error != null) {
+                        throw new ServerException(error);
+                    }
+                    return result;
+                default:
+                    throw new IOException("Unknown frame type " + type);
+            }
+        }
+    }
+
+    private static String readShortString(DataInputStream in) throws IOException {
+        return readText(in, in.readUnsignedShort());
+    }
+
+    private static String readText(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static class Result {
+        private final List<Map<String, Object>> rows = new ArrayList<>();
+        private String message;
+
+        public List<Map<String, Object>> getRows() {
+            return rows;
+        }
+
+        /**
+         * @return reply of a query that returns no rows, e.g. an INSERT, otherwise null
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.miskevich.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binary protocol, chosen by a connection that starts with {@link Protocol#BINARY}. A response is a sequence
+ * of frames, each a type byte and a four byte payload length followed by the payload, and ends with an
+ * {@link #END} frame:
+ * <ul>
+ * <li>{@link #COLUMNS} - column count as a short, then per column its type byte ({@link #INT_TYPE} or
+ * {@link #STRING_TYPE}) and its name as a short length and UTF-8 bytes. It comes before the first row of a
+ * response and before every row whose columns differ from the previous one.</li>
+ * <li>{@link #ROW} - a null bitmap of one bit per column, then every value that is not null: an int column as
+ * four bytes, a string column as a short length and UTF-8 bytes.</li>
+ * <li>{@link #MESSAGE} and {@link #ERROR} - UTF-8 text.</li>
+ * </ul>
+ * All numbers are big-endian, lengths are unsigned. See {@link BinaryClient} for the reading side.
+ */
+public class BinaryResponseWriter extends ResponseWriter {
+
+    static final byte COLUMNS = 'C';
+    static final byte ROW = 'R';
+    static final byte MESSAGE = 'M';
+    static final byte ERROR = 'E';
+    static final byte END = 'Z';
+    static final byte INT_TYPE = 1;
+    static final byte STRING_TYPE = 2;
+
+    private List<String> header = new ArrayList<>();
+    private boolean[] intColumns = new boolean[0];
+    private String[] rowValues = new String[0];
+    private List<String> lastColumnNames;
+    private int[] lastColumns;
+    private int[] selectedColumns;
+
+    public BinaryResponseWriter(OutputStream outputStream) {
+        super(outputStream);
+    }
+
+    @Override
+    public void writeRow(List<String> columnNames, int[] columns, String[] values) throws IOException {
+        if (columnNames != lastColumnNames || columns != lastColumns) {
+            lastColumnNames = columnNames;
+            lastColumns = columns;
+            List<String> names = new ArrayList<>(columns.length);
+            List<Integer> selected = new ArrayList<>(columns.length);
+            for (int column : columns) {
+                if (column >= 0) {
+                    names.add(columnNames.get(column));
+                    selected.add(column);
+                }
+            }
+            selectedColumns = new int[selected.size()];
+            for (int i = 0; i < selectedColumns.length; i++) {
+                selectedColumns[i] = selected.get(i);
+            }
+            if (!names.equals(header)) {
+                writeHeader(names);
+            }
+        }
+        for (int i = 0; i < selectedColumns.length; i++) {
+            rowValues[i] = values[selectedColumns[i]];
+        }
+        writeRowValues();
+    }
+
+    @Override
+    public void writeRow(Map<String, String> values) throws IOException {
+        lastColumnNames = null;
+        if (!hasHeader(values)) {
+            writeHeader(new ArrayList<>(values.keySet()));
+        }
+        int i = 0;
+        for (String value : values.values()) {
+            rowValues[i++] = value;
+        }
+        writeRowValues();
+    }
+
+    @Override
+    public void writeMessage(String message) throws IOException {
+        writeText(MESSAGE, message);
+    }
+
+    @Override
+    public void writeError(String message) throws IOException {
+        writeText(ERROR, message);
+    }
+
+    @Override
+    protected void writeEnd() {
+        putByte(END);
+        putInt(0);
+        header = new ArrayList<>();
+        lastColumnNames = null;
+    }
+
+    private boolean hasHeader(Map<String, String> values) {
+        if (values.size() != header.size()) {
+            return false;
+        }
+        Iterator<String> names = header.iterator();
+        for (String columnName : values.keySet()) {
+            if (!columnName.equals(names.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeHeader(List<String> names) {
+        header = names;
+        intColumns = new boolean[names.size()];
+        rowValues = new String[names.size()];
+        int lengthAt = startFrame(COLUMNS);
+        putShort(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            intColumns[i] = isNumericColumn(names.get(i));
+            putByte(intColumns[i] ? INT_TYPE : STRING_TYPE);
+            writeShortString(names.get(i));
+        }
+        endFrame(lengthAt);
+    }
+
+    private void writeRowValues() throws IOException {
+        int lengthAt = startFrame(ROW);
+        int bitmapLength = (header.size() + 7) / 8;
+        for (int b = 0; b < bitmapLength; b++) {
+            int bits = 0;
+            for (int i = b * 8; i < Math.min(header.size(), b * 8 + 8); i++) {
+                if (rowValues[i] == null) {
+                    bits |= 1 << (i % 8);
+                }
+            }
+            putByte(bits);
+        }
+        for (int i = 0; i < header.size(); i++) {
+            if (rowValues[i] == null) {
+                continue;
+            }
+            if (intColumns[i]) {
+                putInt(Table.toInt(rowValues[i]));
+            } else {
+                writeShortString(rowValues[i]);
+            }
+        }
+        endFrame(lengthAt);
+        countRow();
+        flushIfFull();
+    }
+
+    private void writeText(byte type, String text) {
+        int lengthAt = startFrame(type);
+        putUtf8(text);
+        endFrame(lengthAt);
+    }
+
+    private void writeShortString(String value) {
+        int lengthAt = position();
+        putShort(0);
+        int length = putUtf8(value);
+        if (length > 0xFFFF) {
+            throw new ServerException("Value is longer than " + 0xFFFF + " bytes");
+        }
+        putShortAt(lengthAt, length);
+    }
+
+    private int startFrame(byte type) {
+        putByte(type);
+        int lengthAt = position();
+        putInt(0);
+        return lengthAt;
+    }
+
+    private void endFrame(int lengthAt) {
+        putIntAt(lengthAt, position() - lengthAt - 4);
+    }
+}
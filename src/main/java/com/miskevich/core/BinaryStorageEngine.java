@@ -0,0 +1,401 @@
+package com.miskevich.core;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tables stored as fixed-width records, read through a memory-mapped buffer instead of being parsed.
+ * <p>
+ * The header holds a magic number, the format version, the row count and, for every column, its name,
+ * type and width. Every record starts with a null bitmap, followed by the fields: an int column takes four
+ * bytes, a string column a two byte length and its width in UTF-8 bytes. Because records have one size,
+ * row <i>n</i> starts at {@code headerLength + n * recordSize}.
+ * <p>
+ * Appended rows are synced before the row count in the header is updated, so rows torn by a crash are not
+ * visible and are replayed from the write-ahead log. A string longer than its column rewrites the file with
+ * wider columns.
+ * <p>
+ * Lookups by key map the file but touch only the pages of the records they decode: {@link #findRow} binary
+ * searches the key column by record offset, which takes a few records for keys that grow with the row position,
+ * and reads the key field of every record only if the keys are out of order.
+ */
+public class BinaryStorageEngine implements StorageEngine {
+
+    static final String FILE_SUFFIX = ".tbl";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x524D4442;
+    private static final short VERSION = 1;
+    private static final int ROW_COUNT_OFFSET = 6;
+    private static final byte INT_TYPE = 1;
+    private static final byte STRING_TYPE = 2;
+    private static final int INT_WIDTH = 4;
+    private static final int MIN_STRING_WIDTH = 32;
+    private static final int MAX_STRING_WIDTH = 0xFFFF;
+
+    @Override
+    public String getFileSuffix() {
+        return FILE_SUFFIX;
+    }
+
+    @Override
+    public File getFile(String table, String path) {
+        return new File(path + table + FILE_SUFFIX);
+    }
+
+    @Override
+    public List<String> listTables(String path) {
+        return XlsxStorageEngine.listTables(path, FILE_SUFFIX);
+    }
+
+    @Override
+    public Table load(String table, String path) throws IOException {
+        Table result;
+        try (FileChannel channel = FileChannel.open(getFile(table, path).toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Header header = Header.read(buffer);
+            result = new Table(header.toSchema(table));
+            int[] columns = Table.getColumnIndexes(header.columnNames, null);
+            for (int position = 0; position < header.rowCount; position++) {
+                result.addRow(header.readRecord(buffer, position, columns));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> readColumnNames(String table, String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(getFile(table, path).toPath(), StandardOpenOption.READ)) {
+            return Header.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())).columnNames;
+        }
+    }
+
+    @Override
+    public void scan(String table, String path, List<String> columns, RowHandler rowHandler) throws IOException {
+        try (FileChannel channel = FileChannel.open(getFile(table, path).toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Header header = Header.read(buffer);
+            int[] selected = Table.getColumnIndexes(header.columnNames, columns);
+            List<String> columnNames = new ArrayList<>(selected.length);
+            for (int column : selected) {
+                columnNames.add(column < 0 ? null : header.columnNames.get(column));
+            }
+            for (int position = 0; position < header.rowCount; position++) {
+                if (!rowHandler.handleRow(columnNames, header.readRecord(buffer, position, selected))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Binary searches the key column first, reading one field per step. If the keys are not in order and the
+     * search misses, the key fields of all records are compared, still without decoding the other fields.
+     * A column stored as strings is scanned like by the other engines.
+     */
+    @Override
+    public String[] findRow(String table, String path, String column, int key) throws IOException {
+        try (FileChannel channel = FileChannel.open(getFile(table, path).toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Header header = Header.read(buffer);
+            int keyColumn = header.columnNames.indexOf(column);
+            if (keyColumn >= 0 && header.types[keyColumn] == INT_TYPE) {
+                int position = header.search(buffer, keyColumn, key);
+                if (position < 0) {
+                    position = header.scan(buffer, keyColumn, key);
+                }
+                return position < 0 ? null : header.readRecord(buffer, position, Table.getColumnIndexes(header.columnNames, null));
+            }
+        }
+        return StorageEngine.super.findRow(table, path, column, key);
+    }
+
+    /**
+     * Adds the records to the file, or rewrites the file with wider columns if a value does not fit.
+     */
+    @Override
+    public void append(String name, Table table, int fromPosition, int toPosition, String path) throws IOException {
+        File file = getFile(name, path);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer headerBuffer = ByteBuffer.allocate((int) Math.min(channel.size(), 64 * 1024));
+            channel.read(headerBuffer, 0);
+            headerBuffer.flip();
+            Header header = Header.read(headerBuffer);
+            if (header.fits(table, fromPosition, toPosition)) {
+                appendRecords(channel, header, table, fromPosition, toPosition);
+                return;
+            }
+        }
+        System.out.println("Values of the table " + name + " do not fit the columns, the file is rewritten");
+        Table rewritten = load(name, path);
+        for (int position = fromPosition; position < toPosition; position++) {
+            rewritten.addRow(table.getRow(position));
+        }
+        write(rewritten, path);
+    }
+
+    private static void appendRecords(FileChannel channel, Header header, Table table, int fromPosition,
+                                      int toPosition) throws IOException {
+        ByteBuffer records = ByteBuffer.allocate((toPosition - fromPosition) * header.recordSize);
+        for (int position = fromPosition; position < toPosition; position++) {
+            header.writeRecord(records, table.getRow(position));
+        }
+        records.flip();
+        long offset = header.recordOffset(header.rowCount);
+        while (records.hasRemaining()) {
+            offset += channel.write(records, offset);
+        }
+        channel.force(false);
+
+        ByteBuffer rowCount = ByteBuffer.allocate(4);
+        rowCount.putInt(0, header.rowCount + toPosition - fromPosition);
+        channel.write(rowCount, ROW_COUNT_OFFSET);
+        channel.force(false);
+    }
+
+    @Override
+    public void write(Table table, String path) throws IOException {
+        List<String> columnNames = table.getColumnNames();
+        byte[] types = new byte[columnNames.size()];
+        int[] widths = new int[columnNames.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = table.isNumericColumn(i) ? INT_TYPE : STRING_TYPE;
+            widths[i] = types[i] == INT_TYPE ? INT_WIDTH : MIN_STRING_WIDTH;
+        }
+        for (int position = 0; position < table.getRowCount(); position++) {
+            String[] values = table.getRow(position);
+            for (int i = 0; i < values.length; i++) {
+                if (types[i] == STRING_TYPE && values[i] != null) {
+                    widths[i] = Math.max(widths[i], utf8(values[i]).length);
+                }
+            }
+        }
+        for (int width : widths) {
+            if (width > MAX_STRING_WIDTH) {
+                throw new IOException("Value of the table " + table.getName() + " is longer than " + MAX_STRING_WIDTH + " bytes");
+            }
+        }
+        Header header = new Header(columnNames, types, widths, table.getRowCount());
+
+        File file = getFile(table.getName(), path);
+        File tempFile = new File(file.getPath() + TEMP_FILE_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            header.write(out);
+            ByteBuffer record = ByteBuffer.allocate(header.recordSize);
+            for (int position = 0; position < table.getRowCount(); position++) {
+                record.clear();
+                header.writeRecord(record, table.getRow(position));
+                out.write(record.array(), 0, header.recordSize);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class Header {
+        private final List<String> columnNames;
+        private final byte[] types;
+        private final int[] widths;
+        private final int rowCount;
+        private final int bitmapLength;
+        private final int[] fieldOffsets;
+        private final int recordSize;
+        private int length;
+
+        /**
+         * @return schema with the column types of the file and without a primary key
+         */
+        TableSchema toSchema(String table) {
+            List<TableSchema.ColumnType> columnTypes = new ArrayList<>(types.length);
+            for (byte type : types) {
+                columnTypes.add(type == INT_TYPE ? TableSchema.ColumnType.INT : TableSchema.ColumnType.STRING);
+            }
+            return new TableSchema(table, columnNames, columnTypes, null);
+        }
+
+        Header(List<String> columnNames, byte[] types, int[] widths, int rowCount) {
+            this.columnNames = Collections.unmodifiableList(new ArrayList<>(columnNames));
+            this.types = types;
+            this.widths = widths;
+            this.rowCount = rowCount;
+            this.bitmapLength = (columnNames.size() + 7) / 8;
+            this.fieldOffsets = new int[types.length];
+            int size = bitmapLength;
+            for (int i = 0; i < types.length; i++) {
+                fieldOffsets[i] = size;
+                size += types[i] == INT_TYPE ? INT_WIDTH : 2 + widths[i];
+            }
+            this.recordSize = size;
+        }
+
+        static Header read(ByteBuffer buffer) throws IOException {
+            if (buffer.limit() < ROW_COUNT_OFFSET + 6 || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a table file");
+            }
+            if (buffer.getShort(4) != VERSION) {
+                throw new IOException("Unsupported table file version " + buffer.getShort(4));
+            }
+            int rowCount = buffer.getInt(ROW_COUNT_OFFSET);
+            buffer.position(ROW_COUNT_OFFSET + 4);
+            int columnCount = buffer.getShort() & 0xFFFF;
+            List<String> columnNames = new ArrayList<>(columnCount);
+            byte[] types = new byte[columnCount];
+            int[] widths = new int[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                byte[] name = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(name);
+                columnNames.add(new String(name, StandardCharsets.UTF_8));
+                types[i] = buffer.get();
+                widths[i] = buffer.getShort() & 0xFFFF;
+            }
+            Header header = new Header(columnNames, types, widths, rowCount);
+            header.length = buffer.position();
+            return header;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(rowCount);
+            out.writeShort(columnNames.size());
+            length = ROW_COUNT_OFFSET + 6;
+            for (int i = 0; i < types.length; i++) {
+                byte[] name = utf8(columnNames.get(i));
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeByte(types[i]);
+                out.writeShort(widths[i]);
+                length += 2 + name.length + 3;
+            }
+        }
+
+        long recordOffset(int position) {
+            return length + (long) position * recordSize;
+        }
+
+        boolean fits(Table table, int fromPosition, int toPosition) {
+            for (int position = fromPosition; position < toPosition; position++) {
+                if (!fits(table.getRow(position))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean fits(String[] values) {
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] == STRING_TYPE && values[i] != null && utf8(values[i]).length > widths[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isNull(ByteBuffer buffer, int position, int column) {
+            return (buffer.get((int) recordOffset(position) + column / 8) & (1 << (column % 8))) != 0;
+        }
+
+        private int getInt(ByteBuffer buffer, int position, int column) {
+            return buffer.getInt((int) recordOffset(position) + fieldOffsets[column]);
+        }
+
+        /**
+         * Binary search over the int column, as if it were sorted.
+         *
+         * @return position of the record with the key, -1 if it was not found or a null was met
+         */
+        int search(ByteBuffer buffer, int column, int key) {
+            int low = 0;
+            int high = rowCount - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (isNull(buffer, middle, column)) {
+                    return -1;
+                }
+                int value = getInt(buffer, middle, column);
+                if (value < key) {
+                    low = middle + 1;
+                } else if (value > key) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return position of the first record with the key in the int column, -1 if there is none
+         */
+        int scan(ByteBuffer buffer, int column, int key) {
+            for (int position = 0; position < rowCount; position++) {
+                if (!isNull(buffer, position, column) && getInt(buffer, position, column) == key) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Decodes only the given fields of the record, the other fields are not touched.
+         */
+        String[] readRecord(ByteBuffer buffer, int position, int[] columns) {
+            int offset = (int) recordOffset(position);
+            String[] values = new String[columns.length];
+            for (int j = 0; j < columns.length; j++) {
+                int i = columns[j];
+                if (i < 0 || (buffer.get(offset + i / 8) & (1 << (i % 8))) != 0) {
+                    continue;
+                }
+                int fieldOffset = offset + fieldOffsets[i];
+                if (types[i] == INT_TYPE) {
+                    values[j] = String.valueOf(buffer.getInt(fieldOffset));
+                } else {
+                    byte[] bytes = new byte[buffer.getShort(fieldOffset) & 0xFFFF];
+                    for (int b = 0; b < bytes.length; b++) {
+                        bytes[b] = buffer.get(fieldOffset + 2 + b);
+                    }
+                    values[j] = new String(bytes, StandardCharsets.UTF_8);
+                }
+            }
+            return values;
+        }
+
+        void writeRecord(ByteBuffer buffer, String[] values) {
+            int start = buffer.position();
+            byte[] bitmap = new byte[bitmapLength];
+            buffer.put(bitmap);
+            for (int i = 0; i < types.length; i++) {
+                String value = values[i];
+                if (value == null) {
+                    bitmap[i / 8] |= 1 << (i % 8);
+                }
+                if (types[i] == INT_TYPE) {
+                    buffer.putInt(value == null ? 0 : Table.toInt(value));
+                } else {
+                    byte[] bytes = value == null ? new byte[0] : utf8(value);
+                    buffer.putShort((short) bytes.length);
+                    buffer.put(bytes);
+                    buffer.position(buffer.position() + widths[i] - bytes.length);
+                }
+            }
+            for (int b = 0; b < bitmapLength; b++) {
+                buffer.put(start + b, bitmap[b]);
+            }
+        }
+    }
+}
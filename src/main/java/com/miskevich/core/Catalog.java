@@ -0,0 +1,164 @@
+package com.miskevich.core;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Schemas of the tables of one data directory. They are read from the file {@value #FILE_NAME} of the directory,
+ * one CREATE TABLE statement per line, once per directory and kept in memory, so a query is checked against
+ * its table with a hash lookup. CREATE TABLE adds a schema and rewrites the file.
+ * <p>
+ * A directory without the file, from before there was a catalog, gets one built from its table files: a column
+ * whose values are all ints becomes INT, and the first column the primary key if it is INT without duplicates.
+ */
+public class Catalog {
+
+    static final String FILE_NAME = "catalog.sql";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final Map<String, Catalog> CATALOGS = new HashMap<>();
+
+    private final String path;
+    private final StorageEngine storageEngine;
+    private volatile Map<String, TableSchema> tables = Collections.emptyMap();
+
+    private Catalog(String path, StorageEngine storageEngine) {
+        this.path = path;
+        this.storageEngine = storageEngine;
+    }
+
+    /**
+     * @return the catalog of the directory, loaded on the first call
+     */
+    public static synchronized Catalog open(String path, StorageEngine storageEngine) {
+        Catalog catalog = CATALOGS.get(path);
+        if (catalog == null) {
+            catalog = new Catalog(path, storageEngine);
+            try {
+                catalog.load();
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new RuntimeException(e);
+            }
+            CATALOGS.put(path, catalog);
+        }
+        return catalog;
+    }
+
+    /**
+     * @return schema of the table, or null if there is no such table
+     */
+    public TableSchema getTable(String name) {
+        return tables.get(name);
+    }
+
+    public List<String> getTableNames() {
+        return new ArrayList<>(tables.keySet());
+    }
+
+    /**
+     * Writes an empty file for the table and then adds its schema to the catalog file, which makes the table exist.
+     */
+    public synchronized void createTable(TableSchema schema) throws IOException {
+        String name = schema.getName();
+        if (tables.containsKey(name)) {
+            throw new ServerException("Table '" + name + "' already exists");
+        }
+        if (storageEngine.getFile(name, path).exists()) {
+            throw new ServerException("File of the table '" + name + "' exists already, but the table is not in the catalog");
+        }
+        storageEngine.write(new Table(schema), path);
+        Map<String, TableSchema> next = new LinkedHashMap<>(tables);
+        next.put(name, schema);
+        save(next.values());
+        tables = Collections.unmodifiableMap(next);
+    }
+
+    private void load() throws IOException {
+        File file = new File(path + FILE_NAME);
+        Map<String, TableSchema> loaded = new LinkedHashMap<>();
+        if (!file.exists()) {
+            for (String table : storageEngine.listTables(path)) {
+                loaded.put(table, inferSchema(storageEngine.load(table, path)));
+            }
+            save(loaded.values());
+            System.out.println("Catalog " + file + " was created from the tables " + loaded.keySet());
+        } else {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty() || line.startsWith("--")) {
+                        continue;
+                    }
+                    Statement statement = QueryParser.parse(QueryTokenizer.tokenize(line));
+                    if (statement.getType() != Statement.Type.CREATE_TABLE) {
+                        throw new IOException("Catalog " + file + " has a line that is not a CREATE TABLE: " + line);
+                    }
+                    TableSchema schema = ((CreateTableStatement) statement).getSchema();
+                    loaded.put(schema.getName(), schema);
+                }
+            }
+        }
+        tables = Collections.unmodifiableMap(loaded);
+    }
+
+    private void save(Collection<TableSchema> schemas) throws IOException {
+        File file = new File(path + FILE_NAME);
+        File tempFile = new File(file.getPath() + TEMP_FILE_SUFFIX);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            for (TableSchema schema : schemas) {
+                writer.write(schema.toCreateStatement() + "\n");
+            }
+        }
+        // synced before the move, so that a crash cannot leave an empty catalog in place of the old one
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static TableSchema inferSchema(Table table) {
+        List<String> columnNames = table.getColumnNames();
+        List<TableSchema.ColumnType> types = new ArrayList<>();
+        for (int column = 0; column < columnNames.size(); column++) {
+            types.add(hasIntValuesOnly(table, column) ? TableSchema.ColumnType.INT : TableSchema.ColumnType.STRING);
+        }
+        String primaryKey = null;
+        if (!types.isEmpty() && types.get(0) == TableSchema.ColumnType.INT && hasUniqueValues(table, 0)) {
+            primaryKey = columnNames.get(0);
+        }
+        return new TableSchema(table.getName(), columnNames, types, primaryKey);
+    }
+
+    private static boolean hasIntValuesOnly(Table table, int column) {
+        boolean hasValue = false;
+        for (int position = 0; position < table.getRowCount(); position++) {
+            String value = table.getRow(position)[column];
+            if (value == null) {
+                continue;
+            }
+            try {
+                Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            hasValue = true;
+        }
+        return hasValue;
+    }
+
+    private static boolean hasUniqueValues(Table table, int column) {
+        Set<String> values = new HashSet<>();
+        for (int position = 0; position < table.getRowCount(); position++) {
+            String value = table.getRow(position)[column];
+            if (value == null || !values.add(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
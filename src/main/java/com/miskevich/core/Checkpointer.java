@@ -0,0 +1,112 @@
+package com.miskevich.core;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Folds the rows kept in the write-ahead log into the table files in the background and replays the log
+ * into the tables on startup. Only the rows published since the last checkpoint are handed to
+ * {@link StorageEngine#append}; rows of inserts that still wait for the log stay out of the table files.
+ */
+public class Checkpointer {
+
+    private static final String INTERVAL_PROPERTY = "rmdb.checkpoint.intervalMillis";
+    private static final long DEFAULT_INTERVAL_MILLIS = 5000;
+
+    private final TableCache tableCache;
+    private final WriteAheadLog writeAheadLog;
+    private final String path;
+    private final long intervalMillis;
+    private ScheduledExecutorService scheduler;
+
+    public Checkpointer(TableCache tableCache, WriteAheadLog writeAheadLog, String path) {
+        this.tableCache = tableCache;
+        this.writeAheadLog = writeAheadLog;
+        this.path = path;
+        this.intervalMillis = Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+        checkpoint();
+    }
+
+    /**
+     * Applies the records of the log that did not reach the table files before the server stopped,
+     * then checkpoints them.
+     */
+    public void recover() throws IOException {
+        List<WriteAheadLog.Record> records = writeAheadLog.readAll();
+        int replayed = 0;
+        synchronized (writeAheadLog) {
+            for (WriteAheadLog.Record record : records) {
+                Table table = tableCache.get(record.getTable(), path);
+                if (record.getPosition() < table.getRowCount()) {
+                    continue;
+                }
+                tableCache.applyInsert(record.getTable(), path, record.getRow());
+                replayed++;
+            }
+        }
+        System.out.println("Replayed " + replayed + " of " + records.size() + " log records");
+        checkpoint();
+    }
+
+    public synchronized void checkpoint() {
+        long segment;
+        List<TableCache.DirtyTable> dirtyTables;
+        boolean staged;
+        synchronized (writeAheadLog) {
+            dirtyTables = tableCache.getDirtyTables();
+            staged = tableCache.hasStagedInserts();
+            if (dirtyTables.isEmpty()) {
+                return;
+            }
+            try {
+                segment = writeAheadLog.rotate();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        boolean failed = false;
+        for (TableCache.DirtyTable dirtyTable : dirtyTables) {
+            try {
+                Table table = dirtyTable.getTable();
+                tableCache.getStorageEngine().append(table, table.getPersistedRowCount(), dirtyTable.getRowCount(), path);
+                tableCache.afterCheckpoint(dirtyTable);
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+        }
+        // staged rows are not in the table files, their records may be in the old segments
+        if (!failed && !staged) {
+            writeAheadLog.deleteSegmentsBefore(segment);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.miskevich.core;
+
+/**
+ * One comparison of a WHERE clause, {@code column op value} or {@code column BETWEEN value AND value}.
+ * The values are slots of the statement the condition belongs to.
+ */
+public class Condition {
+
+    public enum Operator {
+        EQUALS("="), LESS("<"), LESS_OR_EQUAL("<="), GREATER(">"), GREATER_OR_EQUAL(">="), BETWEEN("BETWEEN");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        static Operator fromSymbol(String symbol) {
+            for (Operator operator : values()) {
+                if (operator != BETWEEN && operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final String column;
+    private final Operator operator;
+    private final int slot;
+    private final int highSlot;
+
+    Condition(String column, Operator operator, int slot, int highSlot) {
+        this.column = column;
+        this.operator = operator;
+        this.slot = slot;
+        this.highSlot = highSlot;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * @return slot of the upper bound of BETWEEN, -1 for the other operators
+     */
+    int getHighSlot() {
+        return highSlot;
+    }
+}
@@ -0,0 +1,128 @@
+package com.miskevich.core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.net.Socket;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs accepted connections either on a bounded pool with a bounded queue, or on one virtual thread per
+ * connection. A connection that the pool cannot take is answered with an error and closed right away,
+ * so a burst of clients is turned away instead of exhausting the JVM.
+ */
+public class ConnectionExecutor {
+
+    private static final String BUSY_MESSAGE = "Exception: Server is busy, try again later";
+
+    private final ExecutorService executorService;
+    private final ThreadPoolExecutor pool;
+    private final int idleTimeoutMillis;
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private ConnectionExecutor(ExecutorService executorService, ThreadPoolExecutor pool, int idleTimeoutMillis) {
+        this.executorService = executorService;
+        this.pool = pool;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public static ConnectionExecutor create(ServerConfig config) {
+        if (config.getExecutorMode() == ServerConfig.ExecutorMode.VIRTUAL) {
+            ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+            if (virtualThreads != null) {
+                System.out.println("Connections run on virtual threads");
+                return new ConnectionExecutor(virtualThreads, null, config.getIdleTimeoutMillis());
+            }
+            System.out.println("Virtual threads are not supported by this JVM, falling back to the pool");
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(config.getThreads(), config.getThreads(),
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(config.getQueueCapacity()),
+                runnable -> new Thread(runnable, "connection-" + threadNumber.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        System.out.println("Connections run on a pool of " + config.getThreads() + " threads with a queue of "
+                + config.getQueueCapacity());
+        return new ConnectionExecutor(pool, pool, config.getIdleTimeoutMillis());
+    }
+
+    public void execute(Socket socket) {
+        try {
+            executorService.execute(() -> {
+                activeCount.incrementAndGet();
+                try {
+                    new MyServerSocket(socket, idleTimeoutMillis).run();
+                } finally {
+                    activeCount.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            reject(socket);
+        }
+    }
+
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    public int getPoolSize() {
+        return pool == null ? activeCount.get() : pool.getPoolSize();
+    }
+
+    public int getQueueDepth() {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "pool size=" + getPoolSize() + ", active=" + getActiveCount() + ", queued=" + getQueueDepth()
+                + ", rejected=" + getRejectedCount();
+    }
+
+    private void reject(Socket socket) {
+        long rejected = rejectedCount.incrementAndGet();
+        DataBaseService.METRICS.connectionRejected();
+        if (rejected == 1 || rejected % 100 == 0) {
+            System.out.println("Connection rejected, " + this);
+        }
+        try {
+            BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+            bufferedWriter.write(BUSY_MESSAGE);
+            bufferedWriter.newLine();
+            bufferedWriter.flush();
+        } catch (IOException e) {
+            // the client is gone already
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * The server is built for Java 8, so virtual threads are looked up reflectively and used only when
+     * the running JVM provides them.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.miskevich.core;
+
+/**
+ * {@code CREATE INDEX [name] ON table(column)}
+ */
+public class CreateIndexStatement extends Statement {
+
+    private final String name;
+    private final String column;
+
+    CreateIndexStatement(String name, String table, String column, String[] values, int[] parameterSlots) {
+        super(table, values, parameterSlots);
+        this.name = name;
+        this.column = column;
+    }
+
+    @Override
+    public Type getType() {
+        return Type.CREATE_INDEX;
+    }
+
+    /**
+     * @return name given to the index, or null
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    @Override
+    Statement withValues(String[] values) {
+        return new CreateIndexStatement(name, getTable(), column, values, getParameterSlots());
+    }
+}
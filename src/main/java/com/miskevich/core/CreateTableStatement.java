@@ -0,0 +1,28 @@
+package com.miskevich.core;
+
+/**
+ * {@code CREATE TABLE table (column type [PRIMARY KEY], ...)} with the types INT and STRING
+ */
+public class CreateTableStatement extends Statement {
+
+    private final TableSchema schema;
+
+    CreateTableStatement(TableSchema schema, String[] values, int[] parameterSlots) {
+        super(schema.getName(), values, parameterSlots);
+        this.schema = schema;
+    }
+
+    @Override
+    public Type getType() {
+        return Type.CREATE_TABLE;
+    }
+
+    public TableSchema getSchema() {
+        return schema;
+    }
+
+    @Override
+    Statement withValues(String[] values) {
+        return new CreateTableStatement(schema, values, getParameterSlots());
+    }
+}
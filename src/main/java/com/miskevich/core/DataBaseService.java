@@ -3,7 +3,6 @@ package com.miskevich.core;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.*;
 import java.net.Socket;
@@ -11,197 +10,673 @@ import java.util.*;
 
 public class DataBaseService {
 
-    private static final String PERSONS = "persons";
-    private static final String PHONES = "phones";
-    private static final String PATH = "src" + File.separator + "main" + File.separator + "java" + File.separator
-            + "com" + File.separator + "miskevich" + File.separator + "data" + File.separator;
-    private static final String DB_FILE_SUFFIX = ".xlsx";
+    static final String DATA_DIR_PROPERTY = "rmdb.data.dir";
+    static final String PATH = dataDirectory(System.getProperty(DATA_DIR_PROPERTY, "src" + File.separator + "main"
+            + File.separator + "java" + File.separator + "com" + File.separator + "miskevich" + File.separator + "data"));
+    private static final StorageEngine STORAGE_ENGINE = StorageEngine.fromSystemProperties();
+    private static final Catalog CATALOG = Catalog.open(PATH, STORAGE_ENGINE);
+    private static final TableCache TABLE_CACHE = TableCache.fromSystemProperties(STORAGE_ENGINE, CATALOG);
+    private static final WriteAheadLog WRITE_AHEAD_LOG = WriteAheadLog.fromSystemProperties();
+    private static final Checkpointer CHECKPOINTER = new Checkpointer(TABLE_CACHE, WRITE_AHEAD_LOG, PATH);
+    private static final StatementCache STATEMENT_CACHE = StatementCache.fromSystemProperties();
+    private static final ResultCache RESULT_CACHE = ResultCache.fromSystemProperties();
+    private static final ParallelScanner PARALLEL_SCANNER = ParallelScanner.fromSystemProperties();
+    static final Metrics METRICS = new Metrics();
+    private static final String METRICS_FILE = System.getProperty("rmdb.metrics.file", "rmdb-metrics.txt");
+    private static final long METRICS_INTERVAL_MILLIS = Long.getLong("rmdb.metrics.intervalMillis", 10000);
 
     private Socket socket;
+    private OutputStream outputStream;
+    private ResponseWriter responseWriter;
+    private long validationNanos;
 
     public DataBaseService(Socket socket){
         this.socket = socket;
     }
 
-    private enum Method{
-        INSERT("INSERT"), SELECT("SELECT");
+    public DataBaseService(OutputStream outputStream){
+        this.outputStream = outputStream;
+    }
 
-        private String method;
+    public DataBaseService(ResponseWriter responseWriter){
+        this.responseWriter = responseWriter;
+    }
 
-        Method(String method) {
-            this.method = method;
+    /**
+     * Replays the write-ahead log left by a previous run and starts checkpointing it into the table files,
+     * and dumping the metrics. The catalog of the tables is loaded with this class already.
+     */
+    public static void startStorage() throws IOException {
+        CHECKPOINTER.recover();
+        CHECKPOINTER.start();
+        METRICS.startDump(new File(METRICS_FILE), METRICS_INTERVAL_MILLIS, DataBaseService::getStats);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            METRICS.stopDump();
+            CHECKPOINTER.stop();
+        }));
+    }
+
+    /**
+     * Runs one query and writes its result, or the reason it was rejected, to the client. A select whose response
+     * is in the {@link ResultCache} for the current versions of its tables gets the response from there.
+     */
+    public void execute(String query) throws IOException {
+        long start = System.nanoTime();
+        ResponseWriter responseWriter = getResponseWriter();
+        long rowsBefore = responseWriter.getRowCount();
+        long bytesBefore = responseWriter.getBytesWritten();
+        long writeNanosBefore = responseWriter.getWriteNanos();
+        validationNanos = 0;
+        long parseNanos = 0;
+        Statement.Type type = null;
+        boolean failed = false;
+        String resultKey = null;
+        List<String> resultTables = null;
+        long[] resultVersions = null;
+        try {
+            Statement statement = STATEMENT_CACHE.parse(query);
+            type = statement.getType();
+            parseNanos = System.nanoTime() - start;
+            responseWriter.setTables(getSchemas(statement));
+            resultKey = getResultKey(statement, responseWriter);
+            ResultCache.Entry cached = null;
+            if (resultKey != null){
+                resultTables = getTableNames(statement);
+                resultVersions = getVersions(resultTables);
+                cached = RESULT_CACHE.get(resultKey, resultVersions);
+                if (cached == null){
+                    responseWriter.startRecording(RESULT_CACHE.getMaxEntryBytes());
+                }
+            }
+            if (cached != null){
+                responseWriter.writeRecorded(cached.getResponse(), cached.getRowCount());
+            }else if (statement.getType() == Statement.Type.INSERT){
+                save((InsertStatement) statement);
+            }else if(statement.getType() == Statement.Type.CREATE_TABLE){
+                createTable((CreateTableStatement) statement);
+            }else if(statement.getType() == Statement.Type.STATS){
+                writeStats();
+            }else if(statement.getType() == Statement.Type.CREATE_INDEX){
+                createIndex((CreateIndexStatement) statement);
+            }else if(((SelectStatement) statement).isAggregated()){
+                getAggregated((SelectStatement) statement);
+            }else if(((SelectStatement) statement).getJoin() != null){
+                getJoined((SelectStatement) statement);
+            }else if(((SelectStatement) statement).isPaged()){
+                getPage((SelectStatement) statement);
+            }else if(!((SelectStatement) statement).hasWhere()){
+                getAll((SelectStatement) statement);
+            }else if(isPrimaryKeyLookup((SelectStatement) statement)){
+                getById((SelectStatement) statement);
+            }else{
+                getByCondition((SelectStatement) statement);
+            }
+        } catch (ServerException e) {
+            failed = true;
+            responseWriter.writeError(e.getMessage());
+            e.printStackTrace();
         }
+        byte[] recorded = resultKey == null ? null : responseWriter.stopRecording();
+        if (recorded != null && !failed){
+            RESULT_CACHE.put(resultKey, resultTables, resultVersions, recorded, responseWriter.getRowCount() - rowsBefore);
+        }
+        responseWriter.endResponse();
+        recordMetrics(type, failed, System.nanoTime() - start, parseNanos,
+                responseWriter.getWriteNanos() - writeNanosBefore);
+        METRICS.addRowsReturned(responseWriter.getRowCount() - rowsBefore);
+        METRICS.addBytesSent(responseWriter.getBytesWritten() - bytesBefore);
+    }
 
-        public String getMethod() {
-            return method;
+    /**
+     * @return key of the response of a select in the result cache, null for other statements
+     */
+    private static String getResultKey(Statement statement, ResponseWriter responseWriter){
+        if(statement.getType() != Statement.Type.SELECT || statement.getNormalizedQuery() == null){
+            return null;
         }
+        return responseWriter.getClass().getSimpleName() + "\n" + statement.getNormalizedQuery();
+    }
+
+    private static List<String> getTableNames(Statement statement){
+        Join join = statement.getType() == Statement.Type.SELECT ? ((SelectStatement) statement).getJoin() : null;
+        return join == null ? Collections.singletonList(statement.getTable()) : Arrays.asList(statement.getTable(), join.getTable());
     }
 
+    private static long[] getVersions(List<String> tables){
+        long[] versions = new long[tables.size()];
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = TABLE_CACHE.getVersion(tables.get(i), PATH);
+        }
+        return versions;
+    }
 
-    public void save(String query) throws ServerException, IOException {
-        String tableName = getTableNameInsert(query);
-        queryValidations(tableName, query, Method.INSERT);
+    /**
+     * @return schemas of the tables the statement reads, as far as they exist
+     */
+    private static List<TableSchema> getSchemas(Statement statement){
+        List<TableSchema> schemas = new ArrayList<>(2);
+        if(statement.getTable() != null && CATALOG.getTable(statement.getTable()) != null){
+            schemas.add(CATALOG.getTable(statement.getTable()));
+        }
+        if(statement.getType() == Statement.Type.SELECT && ((SelectStatement) statement).getJoin() != null){
+            TableSchema joined = CATALOG.getTable(((SelectStatement) statement).getJoin().getTable());
+            if(joined != null){
+                schemas.add(joined);
+            }
+        }
+        return schemas;
+    }
 
-        List<String> columnValuesFromQuery = getColumnValuesFromInsertQuery(query);
-        Map<String, String> mapFromQueryColNameToColValue = createMapFromQueryColNameToColValue(getColumnNamesFromInsertQuery(query), columnValuesFromQuery);
-        uniqueConstraintCheck(tableName, mapFromQueryColNameToColValue);
+    /**
+     * Splits the time of a statement into its phases; storage is what is left after parsing, validation
+     * and writing the response, i.e. reading and writing tables and the log.
+     */
+    private void recordMetrics(Statement.Type type, boolean failed, long totalNanos, long parseNanos, long writeNanos){
+        METRICS.recordStatement(type, totalNanos, failed);
+        METRICS.recordPhase(Metrics.Phase.RESPONSE_WRITE, writeNanos);
+        if(type == null){
+            return;
+        }
+        METRICS.recordPhase(Metrics.Phase.PARSE, parseNanos);
+        METRICS.recordPhase(Metrics.Phase.VALIDATION, validationNanos);
+        METRICS.recordPhase(Metrics.Phase.STORAGE, Math.max(0, totalNanos - parseNanos - validationNanos - writeNanos));
+    }
 
-        insertDataIntoTable(mapFromQueryColNameToColValue, tableName, PATH);
+    /**
+     * Answers STATS with one row of every metric of the server and its caches.
+     */
+    public void writeStats() throws IOException {
+        getResponseWriter().writeRow(getStats());
+    }
 
-        BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-        bufferedWriter.write("Object was saved in the file " + tableName);
-        bufferedWriter.newLine();
-        bufferedWriter.flush();
-        System.out.println("Server finished with response...");
+    static Map<String, String> getStats(){
+        Map<String, String> stats = METRICS.snapshot();
+        stats.put("statementCache.hits", String.valueOf(STATEMENT_CACHE.getHitCount()));
+        stats.put("statementCache.templateHits", String.valueOf(STATEMENT_CACHE.getTemplateHitCount()));
+        stats.put("statementCache.misses", String.valueOf(STATEMENT_CACHE.getMissCount()));
+        stats.put("resultCache.hits", String.valueOf(RESULT_CACHE.getHitCount()));
+        stats.put("resultCache.misses", String.valueOf(RESULT_CACHE.getMissCount()));
+        stats.put("resultCache.invalidations", String.valueOf(RESULT_CACHE.getInvalidationCount()));
+        stats.put("resultCache.entries", String.valueOf(RESULT_CACHE.size()));
+        stats.put("resultCache.bytes", String.valueOf(RESULT_CACHE.getCurrentBytes()));
+        stats.put("tableCache.tables", String.valueOf(TABLE_CACHE.size()));
+        stats.put("tableCache.bytes", String.valueOf(TABLE_CACHE.getCurrentBytes()));
+        stats.put("wal.batches", String.valueOf(WRITE_AHEAD_LOG.getBatchCount()));
+        return stats;
     }
 
-    public void getAll(String query) throws ServerException, IOException {
-        String tableName = getTableNameSelect(query);
-        queryValidations(tableName, query, Method.SELECT);
+    private ResponseWriter getResponseWriter() throws IOException {
+        if(responseWriter == null){
+            responseWriter = new TextResponseWriter(socket != null ? socket.getOutputStream() : outputStream, false);
+        }
+        return responseWriter;
+    }
 
-        BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-        List<Map<String, String>> allValues = getAllValues(query);
-        for (Map<String, String> valuesForObject : allValues) {
+    public void save(InsertStatement statement) throws ServerException, IOException {
+        String tableName = statement.getTable();
+        List<String> columnNamesFromQuery = statement.getColumns();
+        queryValidations(tableName, columnNamesFromQuery);
 
-            for (Map.Entry<String, String> entry : valuesForObject.entrySet()){
-                bufferedWriter.write(entry.toString());
-                bufferedWriter.newLine();
-                bufferedWriter.flush();
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (List<String> columnValuesFromQuery : statement.getRows()) {
+            if(columnValuesFromQuery.size() != columnNamesFromQuery.size()){
+                throw new ServerException("Number of values does not match the number of columns");
+            }
+            rows.add(createMapFromQueryColNameToColValue(columnNamesFromQuery, columnValuesFromQuery));
+        }
+        areValuesValid(rows, getSchema(tableName));
+        Table previous;
+        Table staged;
+        WriteAheadLog.Batch batch;
+        synchronized (TABLE_CACHE.getWriteLock(tableName, PATH)){
+            uniqueConstraintCheck(tableName, rows);
+            List<String[]> values = toRows(rows, tableName, PATH);
+            synchronized (WRITE_AHEAD_LOG){
+                batch = WRITE_AHEAD_LOG.enqueue(toLogRecords(values, tableName, PATH));
+                previous = TABLE_CACHE.getLatest(tableName, PATH);
+                staged = TABLE_CACHE.stageInsert(tableName, PATH, values);
             }
         }
-        System.out.println("Server finished with response...");
+        // the log lock keeps a checkpoint from running between queueing the records and staging the rows;
+        // the wait for the disk happens outside of both locks, so that concurrent inserts share one sync
+        try {
+            WRITE_AHEAD_LOG.await(batch);
+        } catch (IOException e) {
+            // the log refuses further records now, so no insert staged after this one is published either
+            TABLE_CACHE.discardStaged(tableName, PATH, previous);
+            throw e;
+        }
+        TABLE_CACHE.publish(tableName, PATH, staged);
+        RESULT_CACHE.invalidate(tableName);
+
+        if(rows.size() == 1){
+            getResponseWriter().writeMessage("Object was saved in the file " + tableName);
+        }else {
+            getResponseWriter().writeMessage(rows.size() + " objects were saved in the file " + tableName);
+        }
     }
 
-    public void getById(String query) throws ServerException, IOException {
-        String tableName = getTableNameSelect(query);
-        queryValidations(tableName, query, Method.SELECT);
+    public void getAll(SelectStatement statement) throws ServerException, IOException {
+        String tableName = statement.getTable();
+        queryValidations(tableName, statement.getColumns());
 
-        BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-        Map<String, String> valuesFromDBById = getValuesById(query);
-        for (Map.Entry<String, String> entry : valuesFromDBById.entrySet()){
-            bufferedWriter.write(entry.toString());
-            bufferedWriter.newLine();
-            bufferedWriter.flush();
+        ResponseWriter responseWriter = getResponseWriter();
+        if(TABLE_CACHE.shouldStream(tableName, PATH)){
+            streamAllValues(tableName, statement.getColumns(), responseWriter);
+        }else {
+            List<Map<String, String>> allValues = getAllValues(statement);
+            for (Map<String, String> valuesForObject : allValues) {
+                responseWriter.writeRow(valuesForObject);
+            }
         }
-        System.out.println("Server finished with response...");
     }
 
-    private void queryValidations(String tableName, String query, Method method){
-        checkIfTableFromQueryExistsInDB(getTableList(PATH), tableName);
-        List<String> columnNamesFromTable = getColumnNamesFromTable(tableName, PATH);
-        List<String> columnNamesFromQuery = null;
-        if(method.equals(Method.INSERT)){
-            columnNamesFromQuery = getColumnNamesFromInsertQuery(query);
-        }else if(method.equals(Method.SELECT)){
-            columnNamesFromQuery = getColumnNamesFromSelectQuery(query);
+    public void getById(SelectStatement statement) throws ServerException, IOException {
+        String tableName = statement.getTable();
+        queryValidations(tableName, statement.getColumns());
+
+        ResponseWriter responseWriter = getResponseWriter();
+        if(TABLE_CACHE.shouldStream(tableName, PATH)){
+            int id = getIdValue(statement);
+            TableSchema schema = getSchema(tableName);
+            int rowCount;
+            if(statement.getWhereColumn().equalsIgnoreCase(schema.getPrimaryKey())){
+                // the key is unique, the storage engine reads the record that holds it
+                String[] row = STORAGE_ENGINE.findRow(tableName, PATH, schema.getPrimaryKey(), id);
+                rowCount = row == null ? 0 : 1;
+                if(row != null){
+                    responseWriter.writeRow(schema.getColumnNames(),
+                            Table.getColumnIndexes(schema.getColumnNames(), statement.getColumns()), row);
+                    METRICS.addRowsScanned(1);
+                }
+            }else {
+                // only the segments whose key range holds the id are read
+                rowCount = streamValuesByCondition(statement, responseWriter, true);
+            }
+            if(rowCount == 0){
+                StringBuilder stringBuilder = new StringBuilder();
+                stringBuilder.append("No data in the table ")
+                        .append(tableName)
+                        .append(" with id value = ")
+                        .append(id);
+                throw new ServerException(stringBuilder.toString());
+            }
+        }else {
+            Map<String, String> valuesFromDBById = getValuesById(statement);
+            responseWriter.writeRow(valuesFromDBById);
         }
-        areColumnsValid(columnNamesFromQuery, columnNamesFromTable, tableName);
     }
 
-    static String getTableNameInsert(String query){
-        return query.substring(12, query.indexOf("("));
+    /**
+     * Answers a WHERE clause other than a primary key lookup. A cached table is read through its primary key
+     * or the most selective secondary index that covers a condition, and only the rows found there are checked
+     * against the whole clause; without a usable index, or for a table that is streamed, every row is checked.
+     */
+    public void getByCondition(SelectStatement statement) throws ServerException, IOException {
+        String tableName = statement.getTable();
+        queryValidations(tableName, statement.getColumns());
+
+        ResponseWriter responseWriter = getResponseWriter();
+        int rowCount;
+        if(TABLE_CACHE.shouldStream(tableName, PATH)){
+            rowCount = streamValuesByCondition(statement, responseWriter, false);
+        }else {
+            List<Map<String, String>> values = readDataFromTableByCondition(statement, PATH);
+            for (Map<String, String> valuesForObject : values) {
+                responseWriter.writeRow(valuesForObject);
+            }
+            rowCount = values.size();
+        }
+        if(rowCount == 0){
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append("No data in the table ")
+                    .append(tableName)
+                    .append(" for the condition");
+            throw new ServerException(stringBuilder.toString());
+        }
     }
 
-    static String getTableNameSelect(String query){
-        String tableName;
-        String tableStart = query.substring(query.indexOf("FROM") + 5);
-        if(tableStart.contains(" ")){
-            tableName = tableStart.substring(0, tableStart.indexOf(" "));
+    /**
+     * Answers a select with ORDER BY, LIMIT or OFFSET with the rows of one page. A cached table is read through
+     * {@link PageReader}; a streamed table is read until the page is full, or, with ORDER BY, to its end, keeping
+     * only the rows that can still make the page.
+     */
+    public void getPage(SelectStatement statement) throws ServerException, IOException {
+        String tableName = statement.getTable();
+        List<String> columns = statement.getColumns() == null ? new ArrayList<String>() : new ArrayList<>(statement.getColumns());
+        if(statement.getOrderBy() != null){
+            columns.add(statement.getOrderBy());
+        }
+        queryValidations(tableName, columns);
+
+        ResponseWriter responseWriter = getResponseWriter();
+        int rowCount;
+        if(TABLE_CACHE.shouldStream(tableName, PATH)){
+            rowCount = streamPage(statement, responseWriter);
         }else {
-            tableName = tableStart;
+            List<Map<String, String>> values = readPageFromTable(statement, PATH);
+            for (Map<String, String> valuesForObject : values) {
+                responseWriter.writeRow(valuesForObject);
+            }
+            rowCount = values.size();
+        }
+        if(rowCount == 0){
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append("No data in the table ")
+                    .append(tableName)
+                    .append(" for the page");
+            throw new ServerException(stringBuilder.toString());
+        }
+    }
+
+    public void getJoined(SelectStatement statement) throws ServerException, IOException {
+        long start = System.nanoTime();
+        String leftTable = statement.getTable();
+        String rightTable = statement.getJoin().getTable();
+        TableSchema leftSchema = getSchema(leftTable);
+        TableSchema rightSchema = getSchema(rightTable);
+        validationNanos += System.nanoTime() - start;
+        if(statement.getOrderBy() != null){
+            throw new ServerException("ORDER BY is not supported with JOIN");
         }
 
-        return tableName;
+        // a large table that is not cached is read from its files, the other one is probed in the cache
+        List<Map<String, String>> values;
+        if(TABLE_CACHE.shouldStream(leftTable, PATH)){
+            values = JoinExecutor.executeStreamingFrom(statement, leftSchema,
+                    rowHandler -> STORAGE_ENGINE.scan(leftTable, PATH, null, rowHandler), TABLE_CACHE.get(rightTable, PATH));
+        }else if(TABLE_CACHE.shouldStream(rightTable, PATH)){
+            values = JoinExecutor.executeStreamingJoined(statement, TABLE_CACHE.get(leftTable, PATH), rightSchema,
+                    rowHandler -> STORAGE_ENGINE.scan(rightTable, PATH, null, rowHandler));
+        }else {
+            values = JoinExecutor.execute(statement, TABLE_CACHE.get(leftTable, PATH), TABLE_CACHE.get(rightTable, PATH));
+        }
+        if(values.isEmpty()){
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append("No data in the tables ")
+                    .append(statement.getTable())
+                    .append(", ")
+                    .append(statement.getJoin().getTable())
+                    .append(" for the join");
+            throw new ServerException(stringBuilder.toString());
+        }
+        ResponseWriter responseWriter = getResponseWriter();
+        for (Map<String, String> valuesForObject : values) {
+            responseWriter.writeRow(valuesForObject);
+        }
     }
 
-    static String getIdNameFromQuery(String query) {
-        String idNameStart = query.substring(query.indexOf("WHERE") + 6);
-        return idNameStart.substring(0, idNameStart.indexOf(" "));
+    /**
+     * Answers a select with aggregates or GROUP BY with one row per group, computed in the server: the rows of
+     * a cached table that pass the WHERE clause are read through the same access path as
+     * {@link #getByCondition}, a streamed table is aggregated while its file is read.
+     */
+    public void getAggregated(SelectStatement statement) throws ServerException, IOException {
+        String tableName = statement.getTable();
+        if(statement.getJoin() != null){
+            throw new ServerException("Aggregates and GROUP BY are not supported with JOIN");
+        }
+        if(statement.getOrderBy() != null){
+            throw new ServerException("ORDER BY is not supported with aggregates and GROUP BY");
+        }
+        List<String> columns = new ArrayList<>(statement.getGroupBy());
+        for (Aggregate aggregate : statement.getAggregates()) {
+            if(aggregate.getColumn() != null){
+                columns.add(aggregate.getColumn());
+            }
+        }
+        queryValidations(tableName, columns);
+
+        List<Map<String, String>> values;
+        if(TABLE_CACHE.shouldStream(tableName, PATH)){
+            values = streamAggregated(statement);
+        }else {
+            values = readAggregatedFromTable(statement, PATH);
+        }
+        values = PageReader.slice(values, statement);
+        if(values.isEmpty()){
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append("No data in the table ")
+                    .append(tableName)
+                    .append(" for the condition");
+            throw new ServerException(stringBuilder.toString());
+        }
+        ResponseWriter responseWriter = getResponseWriter();
+        for (Map<String, String> valuesForObject : values) {
+            responseWriter.writeRow(valuesForObject);
+        }
     }
 
-    static int getIdValueFromQuery(String query){
-        return Integer.parseInt(query.substring(query.indexOf("=") + 2));
+    public void createIndex(CreateIndexStatement statement) throws ServerException, IOException {
+        String tableName = statement.getTable();
+        String column = statement.getColumn();
+        queryValidations(tableName, Collections.singletonList(column));
+        TableSchema schema = getSchema(tableName);
+        if(!schema.isNumericColumn(schema.getColumnIndex(column))){
+            throw new ServerException("Only numeric columns can be indexed, '" + column + "' is not numeric");
+        }
+        synchronized (TABLE_CACHE.getWriteLock(tableName, PATH)){
+            try {
+                TABLE_CACHE.createIndex(tableName, PATH, column);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for inserts into " + tableName);
+            }
+            RESULT_CACHE.invalidate(tableName);
+        }
+
+        getResponseWriter().writeMessage("Index on " + tableName + "(" + column + ") was created");
+    }
+
+    private static String dataDirectory(String dir){
+        return dir.endsWith(File.separator) ? dir : dir + File.separator;
     }
 
-    private static List<String> getTableList(String path)  {
-        File fileDir = new File(path);
-        File[] files = fileDir.listFiles();
-        List<String> tableList = new ArrayList<>();
+    public void createTable(CreateTableStatement statement) throws ServerException, IOException {
+        TableSchema schema = statement.getSchema();
+        CATALOG.createTable(schema);
+
+        getResponseWriter().writeMessage("Table " + schema.getName() + " was created");
+    }
 
-        if (files != null) {
-            for (File file : files) {
-                String fileName = file.getName();
-                String tableName = fileName.substring(0, fileName.lastIndexOf("."));
-                tableList.add(tableName);
+    private static boolean isPrimaryKeyLookup(SelectStatement statement){
+        if(statement.getConditions().size() != 1){
+            return false;
+        }
+        Condition condition = statement.getConditions().get(0);
+        String idColumnName = determineIdColumnName(statement.getTable());
+        return condition.getOperator() == Condition.Operator.EQUALS && condition.getColumn().equalsIgnoreCase(idColumnName);
+    }
+
+    /**
+     * Writes every row of the table to the client while the file is being read, without materializing the table.
+     * Only the selected columns are decoded by the storage engine.
+     *
+     * @param columns selected columns, null for all of them
+     */
+    private static void streamAllValues(String tableName, List<String> columns, ResponseWriter responseWriter) throws IOException {
+        final int[] rowCount = {0};
+        final int[][] columnIndexes = {null};
+        STORAGE_ENGINE.scan(tableName, PATH, columns, (columnNames, values) -> {
+            if(columnIndexes[0] == null){
+                columnIndexes[0] = Table.getColumnIndexes(columnNames, null);
             }
+            responseWriter.writeRow(columnNames, columnIndexes[0], values);
+            rowCount[0]++;
+            return true;
+        });
+        METRICS.addRowsScanned(rowCount[0]);
+
+        if(rowCount[0] == 0){
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append("No data in the table ")
+                    .append(tableName);
+            throw new ServerException(stringBuilder.toString());
         }
+    }
 
-        return tableList;
+    private void queryValidations(String tableName, List<String> columnNamesFromQuery){
+        long start = System.nanoTime();
+        try {
+            TableSchema schema = getSchema(tableName);
+            if(columnNamesFromQuery == null){
+                return;
+            }
+            areColumnsValid(columnNamesFromQuery, schema);
+        } finally {
+            validationNanos += System.nanoTime() - start;
+        }
     }
 
-    static String checkIfTableFromQueryExistsInDB(List<String> tableList, String tableName) throws ServerException {
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("No such table '")
-                .append(tableName)
-                .append("' exists in the DataBase!");
+    static InsertStatement parseInsert(String query){
+        Statement statement = STATEMENT_CACHE.parse(query);
+        if(statement.getType() != Statement.Type.INSERT){
+            throw new ServerException("Query is not an INSERT");
+        }
+        return (InsertStatement) statement;
+    }
+
+    static SelectStatement parseSelect(String query){
+        Statement statement = STATEMENT_CACHE.parse(query);
+        if(statement.getType() != Statement.Type.SELECT){
+            throw new ServerException("Query is not a SELECT");
+        }
+        return (SelectStatement) statement;
+    }
+
+    static String getTableNameInsert(String query){
+        return parseInsert(query).getTable();
+    }
+
+    static String getTableNameSelect(String query){
+        return parseSelect(query).getTable();
+    }
+
+    static String getIdNameFromQuery(String query) {
+        return parseSelect(query).getWhereColumn();
+    }
 
+    static int getIdValueFromQuery(String query){
+        return getIdValue(parseSelect(query));
+    }
+
+    private static int getIdValue(SelectStatement statement){
+        String value = statement.getWhereValue();
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new ServerException("Id value '" + value + "' is not a number");
+        }
+    }
+
+    /**
+     * @return schema of the table from the catalog
+     */
+    static TableSchema getSchema(String tableName) throws ServerException {
+        TableSchema schema = CATALOG.getTable(tableName);
+        if(schema == null){
+            throw noSuchTable(tableName);
+        }
+        return schema;
+    }
+
+    static String checkIfTableFromQueryExistsInDB(List<String> tableList, String tableName) throws ServerException {
         for (String table : tableList) {
             if(tableName.equals(table)){
                 return table;
             }
         }
-        throw new ServerException(stringBuilder.toString());
+        throw noSuchTable(tableName);
     }
 
-    static List<String> getColumnNamesFromTable(String table, String path)  {
-        List<String> columnNameList = new ArrayList<>();
+    private static ServerException noSuchTable(String tableName){
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("No such table '")
+                .append(tableName)
+                .append("' exists in the DataBase!");
+        return new ServerException(stringBuilder.toString());
+    }
 
-        XSSFWorkbook workbook;
-        try {
-            FileInputStream fi = new FileInputStream(new File(path + table + DB_FILE_SUFFIX));
-            workbook = new XSSFWorkbook(fi);
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
-        }
-        XSSFSheet sheet = workbook.getSheetAt(0);
-        Iterator<Row> rowIterator = sheet.iterator();
-        Row firstRow = rowIterator.next();
-        Iterator<Cell> cellIterator = firstRow.cellIterator();
-        while (cellIterator.hasNext()){
-            Cell cell = cellIterator.next();
-            String stringCellValue = cell.getStringCellValue();
-            columnNameList.add(stringCellValue);
+    /**
+     * @param path data directory of the service, whose catalog is {@link #CATALOG}
+     */
+    static List<String> getColumnNamesFromTable(String table, String path)  {
+        TableSchema schema = CATALOG.getTable(table);
+        if(schema == null){
+            throw noSuchTable(table);
         }
-        return columnNameList;
+        return new ArrayList<>(schema.getColumnNames());
     }
 
     static List<String> getColumnNamesFromInsertQuery(String query){
-        return divideStringIntoList(query.substring(query.indexOf("(") + 1, query.indexOf(")")));
-    }
-
-    private static List<String> divideStringIntoList(String columnList){
-        List<String> list = new ArrayList<>();
-        String[] strings = columnList.split(", ");
-        Collections.addAll(list, strings);
-        return list;
+        return parseInsert(query).getColumns();
     }
 
     static void areColumnsValid(List<String> columnListFromQuery, List<String> columnListFromTable, String table) throws ServerException {
         for (String columnFromQuery : columnListFromQuery) {
             if (!columnListFromTable.contains(columnFromQuery)) {
-                StringBuilder stringBuilder = new StringBuilder();
-                stringBuilder.append("No such column '")
-                        .append(columnFromQuery)
-                        .append("' in the table ")
-                        .append(table);
-                throw new ServerException(stringBuilder.toString());
+                throw noSuchColumn(columnFromQuery, table);
+            }
+        }
+    }
+
+    static void areColumnsValid(List<String> columnListFromQuery, TableSchema schema) throws ServerException {
+        for (String columnFromQuery : columnListFromQuery) {
+            if (!schema.hasColumn(columnFromQuery)) {
+                throw noSuchColumn(columnFromQuery, schema.getName());
+            }
+        }
+    }
+
+    /**
+     * Checks that every value of an INT column is a number, before any row of the INSERT is staged.
+     */
+    static void areValuesValid(List<Map<String, String>> rows, TableSchema schema) throws ServerException {
+        for (Map<String, String> row : rows) {
+            for (Map.Entry<String, String> entry : row.entrySet()) {
+                int column = schema.getColumnIndex(entry.getKey());
+                if (entry.getValue() != null && column >= 0 && schema.isNumericColumn(column) && !isInt(entry.getValue())) {
+                    StringBuilder stringBuilder = new StringBuilder();
+                    stringBuilder.append("Value '")
+                            .append(entry.getValue())
+                            .append("' of the column ")
+                            .append(entry.getKey())
+                            .append(" in the table ")
+                            .append(schema.getName())
+                            .append(" is not an INT");
+                    throw new ServerException(stringBuilder.toString());
+                }
             }
         }
     }
 
+    private static boolean isInt(String value){
+        try {
+            Table.toInt(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static ServerException noSuchColumn(String column, String table){
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("No such column '")
+                .append(column)
+                .append("' in the table ")
+                .append(table);
+        return new ServerException(stringBuilder.toString());
+    }
+
     static List<String> getColumnValuesFromInsertQuery(String query){
-        return divideStringIntoList(query.substring(query.lastIndexOf("(") + 1, query.lastIndexOf(")")));
+        return parseInsert(query).getRow(0);
+    }
+
+    /**
+     * Values of every tuple of an INSERT, {@code VALUES (1, a, 11), (2, b, 22)} gives two rows.
+     */
+    static List<List<String>> getRowsFromInsertQuery(String query){
+        return parseInsert(query).getRows();
     }
 
     static Map<String, String> createMapFromQueryColNameToColValue(List<String> columnNames, List<String> columnValues){
@@ -213,74 +688,37 @@ public class DataBaseService {
         return map;
     }
 
-    private void insertDataIntoTable(Map<String, String> map, String table, String path){
-
-        final String P_ID = "p_id";
-        final String AGE = "age";
-        final String ID = "id";
-        final String CODE = "code";
-        final String NUMBER = "number";
-        final String P_NAME = "p_name";
-
-        File file = new File(path + table + DB_FILE_SUFFIX);
-        FileInputStream fi;
-        try {
-            fi = new FileInputStream(file);
-            XSSFWorkbook workbook = new XSSFWorkbook(fi);
-            XSSFSheet sheet = workbook.getSheetAt(0);
-            int rowNum = sheet.getLastRowNum();
-
-            Map<String, Integer> tableMap = new HashMap<>();
-            Iterator<Row> rowIterator = sheet.iterator();
-            Row firstRow = rowIterator.next();
-
-            int columnIndex = 0;
-
-            for(Map.Entry<String, String> entry: map.entrySet()){
-                String key = entry.getKey();
-
-                Iterator<Cell> cellIterator = firstRow.cellIterator();
-                while (cellIterator.hasNext()) {
-                    Cell cell = cellIterator.next();
-                    String stringCellValue = cell.getStringCellValue();
-                    if(key.equals(stringCellValue)){
-                        columnIndex = cell.getColumnIndex();
-                        break;
-                    }
-
-                }
-                tableMap.put(key, columnIndex);
-            }
-
-            int newRowIndex = rowNum + 1;
-            Row row = sheet.createRow(newRowIndex);
-
-            for(Map.Entry<String, String> entry: map.entrySet()){
-                String keyQuery = entry.getKey();
-
-                for(Map.Entry<String, Integer> tableEntry: tableMap.entrySet()){
-                    String keyTable = tableEntry.getKey();
-                    if(keyQuery.equals(keyTable)){
-                        Integer columnPosition = tableEntry.getValue();
-                        Cell newCell = row.createCell(columnPosition);
-                        if(keyTable.equalsIgnoreCase(P_ID) || keyTable.equalsIgnoreCase(AGE) || keyTable.equalsIgnoreCase(ID)
-                                || keyTable.equalsIgnoreCase(CODE) || keyTable.equalsIgnoreCase(NUMBER)){
-                            newCell.setCellValue(new Double(entry.getValue()));
-                        }else if(keyTable.equalsIgnoreCase(P_NAME)){
-                            newCell.setCellValue(entry.getValue());
-                        }
-                    }
+    /**
+     * Orders the values of every row like the columns of the table.
+     */
+    private static List<String[]> toRows(List<Map<String, String>> maps, String table, String path){
+        Table latest = TABLE_CACHE.getLatest(table, path);
+        List<String> columnNames = latest.getColumnNames();
+        List<String[]> rows = new ArrayList<>(maps.size());
+        for (Map<String, String> map : maps) {
+            String[] row = new String[columnNames.size()];
+            for (int cellNum = 0; cellNum < row.length; cellNum++) {
+                String value = map.get(columnNames.get(cellNum));
+                if(value != null && latest.isNumericColumn(cellNum)){
+                    value = String.valueOf((int) Double.parseDouble(value));
                 }
+                row[cellNum] = value;
             }
+            rows.add(row);
+        }
+        return rows;
+    }
 
-            FileOutputStream fo = new FileOutputStream(file);
-            workbook.write(fo);
-            fo.close();
-
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+    /**
+     * Log records of the rows at the positions they get when they are staged next.
+     */
+    private static List<WriteAheadLog.Record> toLogRecords(List<String[]> rows, String table, String path){
+        int position = TABLE_CACHE.getLatest(table, path).getRowCount();
+        List<WriteAheadLog.Record> records = new ArrayList<>(rows.size());
+        for (String[] row : rows) {
+            records.add(new WriteAheadLog.Record(table, position++, row));
         }
+        return records;
     }
 
     static int findCellNumByName(XSSFSheet sheet, String idNameFromQuery){
@@ -324,53 +762,66 @@ public class DataBaseService {
 
     static Map<String, String> readDataFromTableById(String table,
                                                       String path, int id, String idNameFromQuery){
-        File file = new File(path + table + DB_FILE_SUFFIX);
-        FileInputStream fi;
-        XSSFWorkbook workbook = null;
-        try {
-            fi = new FileInputStream(file);
-            workbook = new XSSFWorkbook(fi);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        XSSFSheet sheet = workbook.getSheetAt(0);
-        int rowCount = sheet.getLastRowNum();
-        int cellNumByName = findCellNumByName(sheet, idNameFromQuery);
-        int rowIdByCellValue = findRowIdByCellValue(sheet, rowCount, cellNumByName, id, table);
+        return readDataFromTableById(table, path, id, idNameFromQuery, null);
+    }
 
-        //Get row for column names
-        Row firstRow = sheet.getRow(0);
-        //Get row for column values
-        Row row = sheet.getRow(rowIdByCellValue);
-        short cellCount = row.getLastCellNum();
+    /**
+     * @param columns columns to return, null for all of them
+     */
+    static Map<String, String> readDataFromTableById(String table, String path, int id, String idNameFromQuery,
+                                                      List<String> columns){
+        Table cachedTable = TABLE_CACHE.get(table, path);
+        int[] columnIndexes = cachedTable.getColumnIndexes(columns);
+        if(cachedTable.isPrimaryKey(idNameFromQuery)){
+            int position = cachedTable.findRowByPrimaryKey(id);
+            if(position != IntHashIndex.NOT_FOUND){
+                METRICS.addRowsScanned(1);
+                return cachedTable.getRowAsMap(position, columnIndexes);
+            }
+        }else {
+            int columnIndex = cachedTable.getColumnIndex(idNameFromQuery);
+            String idValue = String.valueOf(id);
+            // every range finds its first match, the first range with one holds the first match of the table
+            List<Integer> rangeMatches = PARALLEL_SCANNER.scan(cachedTable.getRowCount(), (from, to) -> {
+                for (int position = from; position < to; position++) {
+                    if(idValue.equals(cachedTable.getRow(position)[columnIndex])){
+                        return position;
+                    }
+                }
+                return IntHashIndex.NOT_FOUND;
+            });
+            for (int position : rangeMatches) {
+                if(position != IntHashIndex.NOT_FOUND){
+                    METRICS.addRowsScanned(position + 1);
+                    return cachedTable.getRowAsMap(position, columnIndexes);
+                }
+            }
+            METRICS.addRowsScanned(cachedTable.getRowCount());
+        }
 
-        return getColumnNameToColumnValueMap(firstRow, row, cellCount);
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("No data in the table ")
+                .append(table)
+                .append(" with id value = ")
+                .append(id);
+        throw new ServerException(stringBuilder.toString());
     }
 
     static List<Map<String, String>> readAllDataFromTable(String table, String path){
-        File file = new File(path + table + DB_FILE_SUFFIX);
-        FileInputStream fi;
-        XSSFWorkbook workbook = null;
-        try {
-            fi = new FileInputStream(file);
-            workbook = new XSSFWorkbook(fi);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        XSSFSheet sheet = workbook.getSheetAt(0);
-        int rowCount = sheet.getLastRowNum();
-        List<Map<String, String>> dataMapList = new ArrayList<>();
-
-        //Get row for column names
-        Row firstRow = sheet.getRow(0);
-        //Get row for column values
-        for (int rowNum = 1; rowNum <= rowCount; rowNum++) {
-            Row row = sheet.getRow(rowNum);
+        return readAllDataFromTable(table, path, null);
+    }
 
-            short cellCount = row.getLastCellNum();
-            dataMapList.add(getColumnNameToColumnValueMap(firstRow, row, cellCount));
+    /**
+     * @param columns columns to return, null for all of them
+     */
+    static List<Map<String, String>> readAllDataFromTable(String table, String path, List<String> columns){
+        Table cachedTable = TABLE_CACHE.get(table, path);
+        int[] columnIndexes = cachedTable.getColumnIndexes(columns);
+        List<Map<String, String>> dataMapList = new ArrayList<>();
+        for (int position = 0; position < cachedTable.getRowCount(); position++) {
+            dataMapList.add(cachedTable.getRowAsMap(position, columnIndexes));
         }
+        METRICS.addRowsScanned(cachedTable.getRowCount());
         return dataMapList;
     }
 
@@ -398,7 +849,17 @@ public class DataBaseService {
 
 
     static void uniqueConstraintCheck(String tableName, Map<String, String> mapFromQueryColNameToColValue){
+        uniqueConstraintCheck(tableName, Collections.singletonList(mapFromQueryColNameToColValue));
+    }
+
+    /**
+     * Checks the ids of all rows of an INSERT against the table and against each other.
+     */
+    static void uniqueConstraintCheck(String tableName, List<Map<String, String>> rows){
         String idColumnName = determineIdColumnName(tableName);
+        if(idColumnName == null){
+            return;
+        }
 
         StringBuilder stringBuilder = new StringBuilder();
         stringBuilder.append("Unique constraint (")
@@ -407,62 +868,261 @@ public class DataBaseService {
             .append(idColumnName.toUpperCase())
             .append(") violated");
 
-        List<String> idValuesListFromTable = getIdValuesListFromTable(tableName, idColumnName);
-        if(idValuesListFromTable.contains(mapFromQueryColNameToColValue.get(idColumnName))){
-            throw new ServerException(stringBuilder.toString());
+        Table table = TABLE_CACHE.getLatest(tableName, PATH);
+        IntHashIndex idsInQuery = new IntHashIndex(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            String idValue = rows.get(i).get(idColumnName);
+            if(idValue == null){
+                continue;
+            }
+            int id = Table.toInt(idValue);
+            if(table.containsPrimaryKey(id) || idsInQuery.contains(id)){
+                throw new ServerException(stringBuilder.toString());
+            }
+            idsInQuery.put(id, i);
         }
     }
 
-    private static String determineIdColumnName(String tableName){
-        String id = null;
-        if(PERSONS.equals(tableName.toLowerCase())){
-            id = "p_id";
-        }else if(PHONES.equals(tableName.toLowerCase())){
-            id = "id";
-        }
-        return id;
+    /**
+     * @return primary key column of the table, or null if it has none
+     */
+    static String determineIdColumnName(String tableName){
+        TableSchema schema = CATALOG.getTable(tableName);
+        return schema == null ? null : schema.getPrimaryKey();
     }
 
     static List<String> getIdValuesListFromTable(String tableName, String idColumnName){
-        File file = new File(PATH + tableName + DB_FILE_SUFFIX);
-        FileInputStream fi;
+        Table cachedTable = TABLE_CACHE.get(tableName, PATH);
+        int columnIndex = cachedTable.getColumnIndex(idColumnName);
         List<String> idList = new ArrayList<>();
-        try {
-            fi = new FileInputStream(file);
-            XSSFWorkbook workbook = new XSSFWorkbook(fi);
-            XSSFSheet sheet = workbook.getSheetAt(0);
-            int rowCount = sheet.getLastRowNum();
-            int cellNumByName = findCellNumByName(sheet, idColumnName);
-
-            for (int rowNum = 1; rowNum <= rowCount; rowNum++) {
-                Row row = sheet.getRow(rowNum);
-                Cell cell = row.getCell(cellNumByName);
-                idList.add(String.valueOf((int)cell.getNumericCellValue()));
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+        for (int position = 0; position < cachedTable.getRowCount(); position++) {
+            idList.add(cachedTable.getRow(position)[columnIndex]);
         }
-
         return idList;
     }
 
     static List<String> getColumnNamesFromSelectQuery(String query) {
-        String columnsFromSelectQuery = query.substring(7, query.indexOf("FROM") - 1);
-        return divideStringIntoList(columnsFromSelectQuery);
+        return parseSelect(query).getColumns();
     }
 
     static Map<String, String> getValuesById(String query){
-        String tableName = getTableNameSelect(query);
-        int idValueFromQuery = getIdValueFromQuery(query);
-        String idNameFromQuery = getIdNameFromQuery(query);
+        return getValuesById(parseSelect(query));
+    }
+
+    private static Map<String, String> getValuesById(SelectStatement statement){
+        return readDataFromTableById(statement.getTable(), PATH, getIdValue(statement), statement.getWhereColumn(),
+                statement.getColumns());
+    }
+
+    static List<Map<String, String>> readDataFromTableByCondition(SelectStatement statement, String path){
+        Table cachedTable = TABLE_CACHE.get(statement.getTable(), path);
+        RowFilter rowFilter = RowFilter.create(statement, cachedTable.getColumnNames(), cachedTable.getColumnTypes());
+        int[] columnIndexes = cachedTable.getColumnIndexes(statement.getColumns());
+        List<Map<String, String>> dataMapList = new ArrayList<>();
+        if(rowFilter.isEmpty()){
+            return dataMapList;
+        }
+
+        int[] positions = findCandidatePositions(cachedTable, rowFilter);
+        int candidateCount = positions == null ? cachedTable.getRowCount() : positions.length;
+        METRICS.addRowsScanned(candidateCount);
+        // the ranges collect their rows separately, joined in range order they are in table order
+        List<List<Map<String, String>>> rangeRows = PARALLEL_SCANNER.scan(candidateCount, (from, to) -> {
+            List<Map<String, String>> rows = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                int position = positions == null ? i : positions[i];
+                if(rowFilter.matches(cachedTable, position)){
+                    rows.add(cachedTable.getRowAsMap(position, columnIndexes));
+                }
+            }
+            return rows;
+        });
+        for (List<Map<String, String>> rows : rangeRows) {
+            dataMapList.addAll(rows);
+        }
+        return dataMapList;
+    }
+
+    static List<Map<String, String>> readPageFromTable(SelectStatement statement, String path){
+        Table cachedTable = TABLE_CACHE.get(statement.getTable(), path);
+        RowFilter rowFilter = RowFilter.create(statement, cachedTable.getColumnNames(), cachedTable.getColumnTypes());
+        int[] positions = statement.hasWhere() && !rowFilter.isEmpty() && statement.getOrderBy() == null
+                ? findCandidatePositions(cachedTable, rowFilter) : null;
+        PageReader pageReader = PageReader.read(statement, cachedTable, rowFilter, positions);
+        METRICS.addRowsScanned(pageReader.getScannedCount());
+        return pageReader.getRows();
+    }
+
+    static List<Map<String, String>> readAggregatedFromTable(SelectStatement statement, String path){
+        Table cachedTable = TABLE_CACHE.get(statement.getTable(), path);
+        Aggregator aggregator = new Aggregator(statement, cachedTable.getColumnNames(), cachedTable.getColumnTypes());
+        RowFilter rowFilter = RowFilter.create(statement, cachedTable.getColumnNames(), cachedTable.getColumnTypes());
+        if(rowFilter.isEmpty()){
+            return aggregator.getRows();
+        }
 
-        return readDataFromTableById(tableName, PATH, idValueFromQuery, idNameFromQuery);
+        int[] positions = statement.hasWhere() ? findCandidatePositions(cachedTable, rowFilter) : null;
+        int candidateCount = positions == null ? cachedTable.getRowCount() : positions.length;
+        METRICS.addRowsScanned(candidateCount);
+        // every range has an aggregator of its own, merged in range order the groups keep their order
+        List<Aggregator> rangeAggregators = PARALLEL_SCANNER.scan(candidateCount, (from, to) -> {
+            Aggregator rangeAggregator = new Aggregator(statement, cachedTable.getColumnNames(), cachedTable.getColumnTypes());
+            for (int i = from; i < to; i++) {
+                int position = positions == null ? i : positions[i];
+                if(rowFilter.matches(cachedTable, position)){
+                    rangeAggregator.add(cachedTable, position);
+                }
+            }
+            return rangeAggregator;
+        });
+        for (Aggregator rangeAggregator : rangeAggregators) {
+            aggregator.merge(rangeAggregator);
+        }
+        return aggregator.getRows();
+    }
+
+    /**
+     * Picks the access path for the filter: a primary key lookup for a single id, otherwise the secondary index
+     * with the fewest entries in its range.
+     *
+     * @return positions of the rows to check in table order, or null if every row has to be checked
+     */
+    private static int[] findCandidatePositions(Table table, RowFilter rowFilter){
+        SortedIntIndex bestIndex = null;
+        int bestRange = -1;
+        int bestCount = Integer.MAX_VALUE;
+        for (int range = 0; range < rowFilter.getRangeCount(); range++) {
+            int column = rowFilter.getRangeColumn(range);
+            if(rowFilter.isPoint(range) && table.isPrimaryKey(table.getColumnNames().get(column))){
+                int position = table.findRowByPrimaryKey(rowFilter.getLow(range));
+                return position == IntHashIndex.NOT_FOUND ? new int[0] : new int[]{position};
+            }
+            SortedIntIndex index = table.getIndex(column);
+            if(index != null){
+                int count = index.count(rowFilter.getLow(range), rowFilter.getHigh(range));
+                if(count < bestCount){
+                    bestIndex = index;
+                    bestRange = range;
+                    bestCount = count;
+                }
+            }
+        }
+        if(bestIndex == null){
+            return null;
+        }
+        int[] positions = bestIndex.find(rowFilter.getLow(bestRange), rowFilter.getHigh(bestRange));
+        Arrays.sort(positions);
+        return positions;
+    }
+
+    /**
+     * Reads the file of the table, leaving out the segments that cannot hold matching rows.
+     *
+     * @param firstOnly true to stop at the first matching row
+     */
+    private static int streamValuesByCondition(SelectStatement statement, ResponseWriter responseWriter,
+                                               boolean firstOnly) throws IOException {
+        TableSchema schema = getSchema(statement.getTable());
+        RowFilter rowFilter = RowFilter.create(statement, schema.getColumnNames(), schema.getColumnTypes());
+        int[] columnIndexes = Table.getColumnIndexes(schema.getColumnNames(), statement.getColumns());
+        if(rowFilter.isEmpty()){
+            return 0;
+        }
+        final int[] rowCount = {0};
+        final int[] scannedCount = {0};
+        STORAGE_ENGINE.scanMatching(statement.getTable(), PATH, rowFilter, (columnNames, values) -> {
+            scannedCount[0]++;
+            if(rowFilter.matches(values)){
+                responseWriter.writeRow(columnNames, columnIndexes, values);
+                rowCount[0]++;
+            }
+            return !firstOnly || rowCount[0] == 0;
+        });
+        METRICS.addRowsScanned(scannedCount[0]);
+        return rowCount[0];
+    }
+
+    private static int streamPage(SelectStatement statement, ResponseWriter responseWriter) throws IOException {
+        TableSchema schema = getSchema(statement.getTable());
+        RowFilter rowFilter = RowFilter.create(statement, schema.getColumnNames(), schema.getColumnTypes());
+        int[] columnIndexes = Table.getColumnIndexes(schema.getColumnNames(), statement.getColumns());
+        final int offset = statement.getOffset();
+        final int limit = statement.getLimit();
+        if(rowFilter.isEmpty() || limit == 0){
+            return 0;
+        }
+        final int[] rowCount = {0};
+        final int[] skippedCount = {0};
+        final int[] scannedCount = {0};
+        if(statement.getOrderBy() == null){
+            // returning false stops reading the file once the page is full
+            STORAGE_ENGINE.scanMatching(statement.getTable(), PATH, rowFilter, (columnNames, values) -> {
+                scannedCount[0]++;
+                if(rowFilter.matches(values)){
+                    if(skippedCount[0] < offset){
+                        skippedCount[0]++;
+                    }else {
+                        responseWriter.writeRow(columnNames, columnIndexes, values);
+                        rowCount[0]++;
+                    }
+                }
+                return rowCount[0] < limit;
+            });
+            METRICS.addRowsScanned(scannedCount[0]);
+            return rowCount[0];
+        }
+
+        int column = schema.getColumnIndex(statement.getOrderBy());
+        Comparator<String[]> order = PageReader.rowOrder(column, schema.isNumericColumn(column), statement.isDescending());
+        final long keep = (long) offset + limit;
+        // the heap has the last row of the page on top, a row after it cannot make the page anymore
+        PriorityQueue<String[]> heap = new PriorityQueue<>(11, order.reversed());
+        STORAGE_ENGINE.scanMatching(statement.getTable(), PATH, rowFilter, (columnNames, values) -> {
+            scannedCount[0]++;
+            if(rowFilter.matches(values)){
+                heap.add(values.clone());
+                if(heap.size() > keep){
+                    heap.poll();
+                }
+            }
+            return true;
+        });
+        METRICS.addRowsScanned(scannedCount[0]);
+        List<String[]> rows = new ArrayList<>(heap);
+        rows.sort(order);
+        rows = PageReader.slice(rows, statement);
+        for (String[] row : rows) {
+            responseWriter.writeRow(schema.getColumnNames(), columnIndexes, row);
+        }
+        return rows.size();
+    }
+
+    private static List<Map<String, String>> streamAggregated(SelectStatement statement) throws IOException {
+        TableSchema schema = getSchema(statement.getTable());
+        Aggregator aggregator = new Aggregator(statement, schema.getColumnNames(), schema.getColumnTypes());
+        RowFilter rowFilter = RowFilter.create(statement, schema.getColumnNames(), schema.getColumnTypes());
+        if(rowFilter.isEmpty()){
+            return aggregator.getRows();
+        }
+        final int[] scannedCount = {0};
+        STORAGE_ENGINE.scanMatching(statement.getTable(), PATH, rowFilter, (columnNames, values) -> {
+            scannedCount[0]++;
+            if(rowFilter.matches(values)){
+                aggregator.add(values);
+            }
+            return true;
+        });
+        METRICS.addRowsScanned(scannedCount[0]);
+        return aggregator.getRows();
     }
 
     static List<Map<String, String>> getAllValues(String query){
-        String tableName = getTableNameSelect(query);
-        List<Map<String, String>> allDataFromTable = readAllDataFromTable(tableName, PATH);
+        return getAllValues(parseSelect(query));
+    }
+
+    private static List<Map<String, String>> getAllValues(SelectStatement statement){
+        String tableName = statement.getTable();
+        List<Map<String, String>> allDataFromTable = readAllDataFromTable(tableName, PATH, statement.getColumns());
 
         if(allDataFromTable.size() == 0){
             StringBuilder stringBuilder = new StringBuilder();
@@ -0,0 +1,53 @@
+package com.miskevich.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code INSERT INTO table(column, ...) VALUES (value, ...), ...}
+ */
+public class InsertStatement extends Statement {
+
+    private final List<String> columns;
+    private final int[][] rowSlots;
+
+    InsertStatement(String table, List<String> columns, int[][] rowSlots, String[] values, int[] parameterSlots) {
+        super(table, values, parameterSlots);
+        this.columns = columns;
+        this.rowSlots = rowSlots;
+    }
+
+    @Override
+    public Type getType() {
+        return Type.INSERT;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public int getRowCount() {
+        return rowSlots.length;
+    }
+
+    public List<String> getRow(int row) {
+        List<String> values = new ArrayList<>(rowSlots[row].length);
+        for (int slot : rowSlots[row]) {
+            values.add(getValue(slot));
+        }
+        return values;
+    }
+
+    public List<List<String>> getRows() {
+        List<List<String>> rows = new ArrayList<>(rowSlots.length);
+        for (int row = 0; row < rowSlots.length; row++) {
+            rows.add(getRow(row));
+        }
+        return rows;
+    }
+
+    @Override
+    Statement withValues(String[] values) {
+        return new InsertStatement(getTable(), columns, rowSlots, values, getParameterSlots());
+    }
+}
@@ -0,0 +1,123 @@
+package com.miskevich.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Open addressing hash map from a primitive int key to a row position, so that primary key lookups
+ * neither scan the table nor box the keys.
+ * <p>
+ * One writer may {@link #put} while other threads {@link #get}: a slot is published by an ordered write of its
+ * position after its key, and lookups read the position first, so a reader never sees a slot half written.
+ */
+public class IntHashIndex {
+
+    static final int NOT_FOUND = -1;
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private int[] keys;
+    private AtomicIntegerArray positions;
+    private int size;
+    private int threshold;
+
+    public IntHashIndex() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntHashIndex(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public int get(int key) {
+        int mask = keys.length - 1;
+        int position;
+        for (int slot = hash(key) & mask; (position = positions.get(slot)) != NOT_FOUND; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return position;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    public boolean contains(int key) {
+        return get(key) != NOT_FOUND;
+    }
+
+    /**
+     * Maps the key to the row position, replacing the previous position if the key is already present.
+     */
+    public void put(int key, int position) {
+        if (size >= threshold) {
+            resize();
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (positions.get(slot) != NOT_FOUND) {
+            if (keys[slot] == key) {
+                positions.lazySet(slot, position);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        positions.lazySet(slot, position);
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if putting a new key would resize the arrays in place
+     */
+    public boolean isFull() {
+        return size >= threshold;
+    }
+
+    /**
+     * Copy of the index with twice the capacity. Unlike a resize by {@link #put}, the arrays of this index stay
+     * as they are, so readers of it are not disturbed while the copy is filled.
+     */
+    public IntHashIndex grow() {
+        IntHashIndex copy = new IntHashIndex();
+        copy.allocate(keys.length << 1);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (positions.get(slot) != NOT_FOUND) {
+                copy.put(keys[slot], positions.get(slot));
+            }
+        }
+        return copy;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        AtomicIntegerArray oldPositions = positions;
+        allocate(oldKeys.length << 1);
+        size = 0;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldPositions.get(slot) != NOT_FOUND) {
+                put(oldKeys[slot], oldPositions.get(slot));
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        int[] empty = new int[capacity];
+        Arrays.fill(empty, NOT_FOUND);
+        positions = new AtomicIntegerArray(empty);
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
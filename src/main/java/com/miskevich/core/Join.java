@@ -0,0 +1,30 @@
+package com.miskevich.core;
+
+/**
+ * {@code JOIN table ON column = column} of a select. The columns are written as in the query, either
+ * qualified with their table, {@code persons.p_id}, or plain when the name is unique across both tables.
+ */
+public class Join {
+
+    private final String table;
+    private final String leftColumn;
+    private final String rightColumn;
+
+    Join(String table, String leftColumn, String rightColumn) {
+        this.table = table;
+        this.leftColumn = leftColumn;
+        this.rightColumn = rightColumn;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getLeftColumn() {
+        return leftColumn;
+    }
+
+    public String getRightColumn() {
+        return rightColumn;
+    }
+}
@@ -0,0 +1,374 @@
+package com.miskevich.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Equi-join of two tables. When the join column of one table is its primary key, the other table is
+ * scanned and every row looks up its partner in the primary key index (index nested loop). Otherwise the
+ * smaller table is loaded into a hash table keyed by its join column, int keys without boxing when both
+ * columns are numeric, and the larger table probes it (hash join).
+ * <p>
+ * Rows are emitted in the order of the FROM table, whichever strategy found them. The WHERE clause and the
+ * projection work on the joined row, whose columns are named {@code table.column}, and OFFSET and LIMIT are
+ * applied while the rows are emitted. With a LIMIT, or when the FROM table is streamed from its files, the FROM
+ * table probes the joined table in its own order and the join stops once the page is full. When only the joined
+ * table is streamed it probes the FROM table, and only the rows that found a partner are kept until they are
+ * sorted into the order of the FROM table.
+ */
+final class JoinExecutor {
+
+    private static final int NO_ROW = IntHashIndex.NOT_FOUND;
+
+    /**
+     * Rows of a table in table order, from the cache or read from its files.
+     */
+    interface RowSource {
+        void scan(RowHandler rowHandler) throws IOException;
+    }
+
+    private final List<String> columnNames;
+    private final List<TableSchema.ColumnType> columnTypes;
+    private final int leftWidth;
+    private final int leftColumn;
+    private final int rightColumn;
+    private final List<String> outputNames;
+    private final int[] columnIndexes;
+    private final RowFilter rowFilter;
+    private final int offset;
+    private final int limit;
+    private final boolean limited;
+    private final String[] joinedRow;
+    private final List<Map<String, String>> dataMapList = new ArrayList<>();
+    private int skippedCount;
+    private int[] partners = new int[16];
+    private long[] matches = new long[16];
+    private int matchCount;
+    private long rowsScanned;
+
+    private JoinExecutor(SelectStatement statement, TableSchema left, TableSchema right) {
+        columnNames = new ArrayList<>();
+        for (String columnName : left.getColumnNames()) {
+            columnNames.add(left.getName() + "." + columnName);
+        }
+        for (String columnName : right.getColumnNames()) {
+            columnNames.add(right.getName() + "." + columnName);
+        }
+        leftWidth = left.getColumnNames().size();
+        columnTypes = new ArrayList<>(left.getColumnTypes());
+        columnTypes.addAll(right.getColumnTypes());
+
+        Join join = statement.getJoin();
+        int first = resolve(columnNames, join.getLeftColumn(), statement);
+        int second = resolve(columnNames, join.getRightColumn(), statement);
+        if ((first < leftWidth) == (second < leftWidth)) {
+            throw new ServerException("Join condition must compare a column of each table");
+        }
+        leftColumn = Math.min(first, second);
+        rightColumn = Math.max(first, second) - leftWidth;
+        outputNames = statement.isAllColumns() ? columnNames : statement.getColumns();
+        columnIndexes = Table.getColumnIndexes(columnNames, statement.getColumns());
+        for (int i = 0; i < columnIndexes.length; i++) {
+            if (columnIndexes[i] < 0) {
+                resolve(columnNames, outputNames.get(i), statement);
+            }
+        }
+        rowFilter = RowFilter.create(statement, columnNames, columnTypes);
+        offset = statement.getOffset();
+        limit = statement.getLimit();
+        limited = limit != Integer.MAX_VALUE;
+        joinedRow = new String[columnNames.size()];
+    }
+
+    /**
+     * Joins two cached tables.
+     *
+     * @return the joined rows of the page
+     */
+    static List<Map<String, String>> execute(SelectStatement statement, Table left, Table right) {
+        JoinExecutor executor = new JoinExecutor(statement, left.getSchema(), right.getSchema());
+        if (executor.isEmpty()) {
+            return executor.dataMapList;
+        }
+        if (executor.limited) {
+            // the page is usually filled long before all matches are found
+            try {
+                executor.probeInOrder(rowsOf(left), right);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            executor.findMatches(left, right);
+            for (int i = 0; i < executor.matchCount; i++) {
+                long match = executor.matches[i];
+                if (!executor.emit(left.getRow((int) (match >>> 32)), right.getRow((int) match))) {
+                    break;
+                }
+            }
+        }
+        DataBaseService.METRICS.addRowsScanned(executor.rowsScanned);
+        return executor.dataMapList;
+    }
+
+    /**
+     * Joins the FROM table, read from its files, with the cached joined table, which it probes row by row.
+     *
+     * @return the joined rows of the page
+     */
+    static List<Map<String, String>> executeStreamingFrom(SelectStatement statement, TableSchema left, RowSource leftRows,
+                                                          Table right) throws IOException {
+        JoinExecutor executor = new JoinExecutor(statement, left, right.getSchema());
+        if (!executor.isEmpty()) {
+            executor.probeInOrder(leftRows, right);
+        }
+        DataBaseService.METRICS.addRowsScanned(executor.rowsScanned);
+        return executor.dataMapList;
+    }
+
+    /**
+     * Joins the cached FROM table with the joined table, read from its files, which probes the FROM table.
+     *
+     * @return the joined rows of the page
+     */
+    static List<Map<String, String>> executeStreamingJoined(SelectStatement statement, Table left, TableSchema right,
+                                                            RowSource rightRows) throws IOException {
+        JoinExecutor executor = new JoinExecutor(statement, left.getSchema(), right);
+        if (!executor.isEmpty()) {
+            executor.probeOutOfOrder(left, rightRows);
+        }
+        DataBaseService.METRICS.addRowsScanned(executor.rowsScanned);
+        return executor.dataMapList;
+    }
+
+    private static RowSource rowsOf(Table table) {
+        return rowHandler -> {
+            for (int position = 0; position < table.getRowCount(); position++) {
+                if (!rowHandler.handleRow(table.getColumnNames(), table.getRow(position))) {
+                    return;
+                }
+            }
+        };
+    }
+
+    private boolean isEmpty() {
+        return rowFilter.isEmpty() || limit == 0;
+    }
+
+    /**
+     * Adds the joined row to the result if it passes the WHERE clause and lies within the page.
+     *
+     * @return false once the page is full
+     */
+    private boolean emit(String[] leftRow, String[] rightRow) {
+        System.arraycopy(leftRow, 0, joinedRow, 0, leftWidth);
+        System.arraycopy(rightRow, 0, joinedRow, leftWidth, rightRow.length);
+        if (!rowFilter.matches(joinedRow)) {
+            return true;
+        }
+        if (skippedCount < offset) {
+            skippedCount++;
+            return true;
+        }
+        Map<String, String> columnNameToColumnValue = new LinkedHashMap<>();
+        for (int j = 0; j < columnIndexes.length; j++) {
+            String value = joinedRow[columnIndexes[j]];
+            if (value != null) {
+                columnNameToColumnValue.put(outputNames.get(j), value);
+            }
+        }
+        dataMapList.add(columnNameToColumnValue);
+        return dataMapList.size() < limit;
+    }
+
+    private boolean isNumericJoin() {
+        return columnTypes.get(leftColumn) == TableSchema.ColumnType.INT
+                && columnTypes.get(leftWidth + rightColumn) == TableSchema.ColumnType.INT;
+    }
+
+    /**
+     * The rows of the FROM table look up their partners in the joined table in the order of the FROM table, so the
+     * join stops as soon as the page is full.
+     */
+    private void probeInOrder(RowSource leftRows, Table right) throws IOException {
+        boolean rightIsKey = right.isPrimaryKey(right.getColumnNames().get(rightColumn));
+        HashTable hashTable = rightIsKey ? null : new HashTable(right, rightColumn, isNumericJoin());
+        rowsScanned += rightIsKey ? 0 : right.getRowCount();
+        leftRows.scan((names, values) -> {
+            rowsScanned++;
+            String key = values[leftColumn];
+            if (key == null) {
+                return true;
+            }
+            if (rightIsKey) {
+                int rightPosition = right.findRowByPrimaryKey(Table.toInt(key));
+                if (rightPosition == IntHashIndex.NOT_FOUND) {
+                    return true;
+                }
+                rowsScanned++;
+                return emit(values, right.getRow(rightPosition));
+            }
+            // the chain runs from the last row with the key to the first
+            int partnerCount = 0;
+            for (int rightPosition = hashTable.first(key); rightPosition != NO_ROW; rightPosition = hashTable.next[rightPosition]) {
+                rowsScanned++;
+                if (partnerCount == partners.length) {
+                    partners = Arrays.copyOf(partners, partnerCount << 1);
+                }
+                partners[partnerCount++] = rightPosition;
+            }
+            for (int i = partnerCount - 1; i >= 0; i--) {
+                if (!emit(values, right.getRow(partners[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * The rows of the joined table look up their partners in the FROM table while they are read. Only the rows
+     * with a partner are kept, and emitted once they are sorted into the order of the FROM table.
+     */
+    private void probeOutOfOrder(Table left, RowSource rightRows) throws IOException {
+        boolean leftIsKey = left.isPrimaryKey(left.getColumnNames().get(leftColumn));
+        HashTable hashTable = leftIsKey ? null : new HashTable(left, leftColumn, isNumericJoin());
+        rowsScanned += leftIsKey ? 0 : left.getRowCount();
+        List<String[]> rightMatches = new ArrayList<>();
+        rightRows.scan((names, values) -> {
+            rowsScanned++;
+            String key = values[rightColumn];
+            if (key == null) {
+                return true;
+            }
+            int leftPosition = leftIsKey ? left.findRowByPrimaryKey(Table.toInt(key)) : hashTable.first(key);
+            if (leftPosition != NO_ROW) {
+                rightMatches.add(values.clone());
+            }
+            for (; leftPosition != NO_ROW; leftPosition = leftIsKey ? NO_ROW : hashTable.next[leftPosition]) {
+                rowsScanned++;
+                addMatch(leftPosition, rightMatches.size() - 1);
+            }
+            return true;
+        });
+        Arrays.sort(matches, 0, matchCount);
+        for (int i = 0; i < matchCount; i++) {
+            long match = matches[i];
+            if (!emit(left.getRow((int) (match >>> 32)), rightMatches.get((int) match))) {
+                return;
+            }
+        }
+    }
+
+    private static int resolve(List<String> columnNames, String column, SelectStatement statement) {
+        int index = Table.getColumnIndexes(columnNames, Collections.singletonList(column))[0];
+        if (index < 0) {
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append("No such column '")
+                    .append(column)
+                    .append("' in the tables ")
+                    .append(statement.getTable())
+                    .append(", ")
+                    .append(statement.getJoin().getTable());
+            throw new ServerException(stringBuilder.toString());
+        }
+        return index;
+    }
+
+    /**
+     * Collects the matches of two cached tables as pairs of row positions, sorted into the order of the FROM table.
+     */
+    private void findMatches(Table left, Table right) {
+        boolean leftIsKey = left.isPrimaryKey(left.getColumnNames().get(leftColumn));
+        boolean rightIsKey = right.isPrimaryKey(right.getColumnNames().get(rightColumn));
+        if (rightIsKey && (!leftIsKey || left.getRowCount() <= right.getRowCount())) {
+            indexNestedLoop(left, leftColumn, right, true);
+        } else if (leftIsKey) {
+            indexNestedLoop(right, rightColumn, left, false);
+        } else if (left.getRowCount() <= right.getRowCount()) {
+            hashJoin(left, leftColumn, right, rightColumn, true);
+        } else {
+            hashJoin(right, rightColumn, left, leftColumn, false);
+        }
+        Arrays.sort(matches, 0, matchCount);
+    }
+
+    private void indexNestedLoop(Table outer, int outerColumn, Table inner, boolean outerIsLeft) {
+        rowsScanned += outer.getRowCount();
+        for (int position = 0; position < outer.getRowCount(); position++) {
+            String key = outer.getRow(position)[outerColumn];
+            if (key == null) {
+                continue;
+            }
+            int innerPosition = inner.findRowByPrimaryKey(Table.toInt(key));
+            if (innerPosition != IntHashIndex.NOT_FOUND) {
+                rowsScanned++;
+                addMatch(outerIsLeft ? position : innerPosition, outerIsLeft ? innerPosition : position);
+            }
+        }
+    }
+
+    private void hashJoin(Table build, int buildColumn, Table probe, int probeColumn, boolean buildIsLeft) {
+        HashTable hashTable = new HashTable(build, buildColumn, isNumericJoin());
+        rowsScanned += build.getRowCount() + probe.getRowCount();
+        for (int position = 0; position < probe.getRowCount(); position++) {
+            String key = probe.getRow(position)[probeColumn];
+            if (key == null) {
+                continue;
+            }
+            for (int buildPosition = hashTable.first(key); buildPosition != NO_ROW; buildPosition = hashTable.next[buildPosition]) {
+                addMatch(buildIsLeft ? buildPosition : position, buildIsLeft ? position : buildPosition);
+            }
+        }
+    }
+
+    private void addMatch(int leftPosition, int rightPosition) {
+        if (matchCount == matches.length) {
+            matches = Arrays.copyOf(matches, matchCount << 1);
+        }
+        matches[matchCount++] = ((long) leftPosition << 32) | (rightPosition & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Rows of the build table with equal keys are chained through an int array: the hash table points to the
+     * last row with the key and {@code next} to the row before it.
+     */
+    private static class HashTable {
+        private final boolean numeric;
+        private final int[] next;
+        private final IntHashIndex intHeads;
+        private final Map<String, Integer> stringHeads;
+
+        HashTable(Table build, int buildColumn, boolean numeric) {
+            this.numeric = numeric;
+            this.next = new int[build.getRowCount()];
+            this.intHeads = numeric ? new IntHashIndex(build.getRowCount()) : null;
+            this.stringHeads = numeric ? null : new HashMap<String, Integer>();
+            for (int position = 0; position < build.getRowCount(); position++) {
+                String key = build.getRow(position)[buildColumn];
+                if (key == null) {
+                    continue;
+                }
+                if (numeric) {
+                    int intKey = Table.toInt(key);
+                    next[position] = intHeads.get(intKey);
+                    intHeads.put(intKey, position);
+                } else {
+                    Integer head = stringHeads.put(key, position);
+                    next[position] = head == null ? NO_ROW : head;
+                }
+            }
+        }
+
+        /**
+         * @return the last row with the key, {@link #NO_ROW} if there is none
+         */
+        int first(String key) {
+            if (numeric) {
+                return intHeads.get(Table.toInt(key));
+            }
+            Integer head = stringHeads.get(key);
+            return head == null ? NO_ROW : head;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.miskevich.core;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counters and latency histograms of the server. Recording is lock-free, a {@link LongAdder} or an atomic
+ * increment of a histogram bucket, so it can stay on in production. A histogram has one bucket per power of two
+ * microseconds; its percentiles are the upper bounds of the buckets they fall into, i.e. exact within a factor
+ * of two.
+ */
+public class Metrics {
+
+    public enum Phase {
+        PARSE, VALIDATION, STORAGE, RESPONSE_WRITE
+    }
+
+    private static final String INVALID = "invalid";
+
+    private final long startMillis = System.currentTimeMillis();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final LongAdder acceptedConnections = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final Map<String, LongAdder> statementErrors = new LinkedHashMap<>();
+    private final Map<String, Histogram> statementLatencies = new LinkedHashMap<>();
+    private final Histogram[] phaseLatencies = new Histogram[Phase.values().length];
+    private final LongAdder rowsScanned = new LongAdder();
+    private final LongAdder rowsReturned = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private volatile ConnectionExecutor connectionExecutor;
+    private ScheduledExecutorService scheduler;
+
+    public Metrics() {
+        for (Statement.Type type : Statement.Type.values()) {
+            statementErrors.put(name(type), new LongAdder());
+            statementLatencies.put(name(type), new Histogram());
+        }
+        statementErrors.put(INVALID, new LongAdder());
+        statementLatencies.put(INVALID, new Histogram());
+        for (int i = 0; i < phaseLatencies.length; i++) {
+            phaseLatencies[i] = new Histogram();
+        }
+    }
+
+    public void connectionOpened() {
+        activeConnections.incrementAndGet();
+        acceptedConnections.increment();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    public void connectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    /**
+     * Adds the pool of the blocking front end to the snapshot.
+     */
+    public void setConnectionExecutor(ConnectionExecutor connectionExecutor) {
+        this.connectionExecutor = connectionExecutor;
+    }
+
+    /**
+     * @param type type of the statement, null for a query that could not be parsed
+     */
+    public void recordStatement(Statement.Type type, long nanos, boolean failed) {
+        String name = type == null ? INVALID : name(type);
+        statementLatencies.get(name).record(nanos);
+        if (failed) {
+            statementErrors.get(name).increment();
+        }
+    }
+
+    public void recordPhase(Phase phase, long nanos) {
+        phaseLatencies[phase.ordinal()].record(nanos);
+    }
+
+    public void addRowsScanned(long rows) {
+        rowsScanned.add(rows);
+    }
+
+    public void addRowsReturned(long rows) {
+        rowsReturned.add(rows);
+    }
+
+    public void addBytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    /**
+     * @return every metric by name, counts since the start and throughput per second averaged over the uptime
+     */
+    public Map<String, String> snapshot() {
+        Map<String, String> snapshot = new LinkedHashMap<>();
+        long uptimeMillis = Math.max(1, System.currentTimeMillis() - startMillis);
+        snapshot.put("uptime.seconds", String.valueOf(uptimeMillis / 1000));
+        snapshot.put("connections.active", String.valueOf(activeConnections.get()));
+        snapshot.put("connections.accepted", String.valueOf(acceptedConnections.sum()));
+        snapshot.put("connections.rejected", String.valueOf(rejectedConnections.sum()));
+        ConnectionExecutor executor = connectionExecutor;
+        if (executor != null) {
+            snapshot.put("executor.poolSize", String.valueOf(executor.getPoolSize()));
+            snapshot.put("executor.active", String.valueOf(executor.getActiveCount()));
+            snapshot.put("executor.queued", String.valueOf(executor.getQueueDepth()));
+        }
+        for (Map.Entry<String, Histogram> entry : statementLatencies.entrySet()) {
+            String name = entry.getKey();
+            Histogram histogram = entry.getValue();
+            snapshot.put(name + ".count", String.valueOf(histogram.getCount()));
+            snapshot.put(name + ".errors", String.valueOf(statementErrors.get(name).sum()));
+            snapshot.put(name + ".perSecond", String.format(Locale.ROOT, "%.1f", histogram.getCount() * 1000.0 / uptimeMillis));
+            histogram.describe(name + ".latency", snapshot);
+        }
+        for (Phase phase : Phase.values()) {
+            phaseLatencies[phase.ordinal()].describe("phase." + phase.name().toLowerCase(), snapshot);
+        }
+        snapshot.put("rows.scanned", String.valueOf(rowsScanned.sum()));
+        snapshot.put("rows.returned", String.valueOf(rowsReturned.sum()));
+        snapshot.put("bytes.sent", String.valueOf(bytesSent.sum()));
+        return snapshot;
+    }
+
+    /**
+     * Replaces the file with the current metrics every interval, as {@code name=value} lines.
+     */
+    public synchronized void startDump(File file, long intervalMillis, Supplier<Map<String, String>> metrics) {
+        if (scheduler != null || intervalMillis <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                dump(file, metrics.get());
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        System.out.println("Metrics are written to " + file + " every " + intervalMillis + " ms");
+    }
+
+    public synchronized void stopDump() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    static void dump(File file, Map<String, String> metrics) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entry : metrics.entrySet()) {
+                writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String name(Statement.Type type) {
+        return type.name().toLowerCase();
+    }
+
+    static class Histogram {
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumMicros = new LongAdder();
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+            count.increment();
+            sumMicros.add(micros);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @return upper bound in microseconds of the bucket holding the given fraction of the recorded values
+         */
+        long percentile(double fraction) {
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i == 0 ? 0 : 1L << i;
+                }
+            }
+            return 1L << (BUCKETS - 1);
+        }
+
+        void describe(String prefix, Map<String, String> snapshot) {
+            long count = getCount();
+            snapshot.put(prefix + ".meanMicros", String.valueOf(count == 0 ? 0 : sumMicros.sum() / count));
+            snapshot.put(prefix + ".p50Micros", String.valueOf(percentile(0.5)));
+            snapshot.put(prefix + ".p99Micros", String.valueOf(percentile(0.99)));
+            snapshot.put(prefix + ".maxMicros", String.valueOf(percentile(1.0)));
+        }
+    }
+}
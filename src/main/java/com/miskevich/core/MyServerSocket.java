@@ -3,51 +3,78 @@ package com.miskevich.core;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 
 public class MyServerSocket implements Runnable{
+    private static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+
     private Socket socket;
-    private final String INSERT = "INSERT";
-    private final String WHERE = "WHERE";
+    private int idleTimeoutMillis;
+    private QueryRunner queryRunner;
 
     public MyServerSocket(Socket socket) {
+        this(socket, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    public MyServerSocket(Socket socket, int idleTimeoutMillis) {
+        this(socket, idleTimeoutMillis, QueryRunner.DATABASE);
+    }
+
+    MyServerSocket(Socket socket, int idleTimeoutMillis, QueryRunner queryRunner) {
         this.socket = socket;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.queryRunner = queryRunner;
     }
 
     public void run() {
-        DataBaseService dataBaseService = new DataBaseService(socket);
+        DataBaseService.METRICS.connectionOpened();
         try {
             BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
             String query = bufferedReader.readLine();
-
-            System.out.println("Server read a query: " + query);
-
-            if (INSERT.equalsIgnoreCase(query.substring(0, 6))){
-                dataBaseService.save(query);
-            }else if(!(query.toLowerCase().contains(WHERE.toLowerCase()))){
-                dataBaseService.getAll(query);
-            }else{
-                dataBaseService.getById(query);
+            if (query == null) {
+                return;
+            }
+            OutputStream outputStream = socket.getOutputStream();
+            if (!Protocol.isKeepAlive(query) && !Protocol.isBinary(query)) {
+                execute(new TextResponseWriter(outputStream, false), query);
+                return;
             }
 
-            socket.close();
-
+            socket.setSoTimeout(idleTimeoutMillis);
+            ResponseWriter responseWriter = Protocol.isBinary(query)
+                    ? new BinaryResponseWriter(outputStream) : new TextResponseWriter(outputStream, true);
+            responseWriter.writeMessage(Protocol.OK);
+            responseWriter.endResponse();
+            while ((query = bufferedReader.readLine()) != null && !Protocol.isQuit(query)) {
+                execute(responseWriter, query);
+            }
+        }catch (SocketTimeoutException e){
+            System.out.println("Connection was idle for " + idleTimeoutMillis + " ms and is closed");
         }catch (SocketException e){
 
         }catch (IOException e){
             e.printStackTrace();
             throw new RuntimeException(e);
-        } catch (ServerException e) {
+        } finally {
+            DataBaseService.METRICS.connectionClosed();
             try {
-                BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-                bufferedWriter.write("Exception: " + e.getMessage());
-                bufferedWriter.newLine();
-                bufferedWriter.flush();
-            } catch (IOException e1) {
-                e1.printStackTrace();
-                throw new RuntimeException(e);
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
+        }
+    }
+
+    /**
+     * A query that fails with an unexpected exception gets it as its response, and the queries pipelined after
+     * it are still answered.
+     */
+    private void execute(ResponseWriter responseWriter, String query) throws IOException {
+        try {
+            queryRunner.run(responseWriter, query);
+        } catch (RuntimeException e) {
             e.printStackTrace();
+            responseWriter.endWithError(e);
         }
     }
 }
-
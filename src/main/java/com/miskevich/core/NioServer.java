@@ -0,0 +1,498 @@
+package com.miskevich.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking front end: one selector thread accepts connections, reads and frames the queries and writes the
+ * responses, while the queries themselves run on a small worker pool. An idle or slow client therefore costs a
+ * registered channel instead of a blocked thread. The selector thread owns two direct buffers that are reused
+ * for every read and write.
+ * <p>
+ * A connection runs at most one query at a time, so pipelined queries of a persistent connection (see
+ * {@link Protocol}) are answered in order; queries that arrive meanwhile wait in the connection, up to
+ * {@value #MAX_PIPELINED_QUERIES} of them. Beyond that the connection keeps the bytes it read and stops reading.
+ * <p>
+ * A worker hands its response to the selector thread in chunks while the query runs. It may get ahead of the
+ * socket by {@value #MAX_QUEUED_CHUNKS} chunks and then waits until the client reads, so a large result costs a
+ * few chunks of memory per connection instead of the whole response.
+ */
+public class NioServer implements Runnable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_QUERY_LENGTH = 64 * 1024;
+    private static final int MAX_PIPELINED_QUERIES = 1024;
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int MAX_QUEUED_CHUNKS = 4;
+    private static final long IDLE_CHECK_MILLIS = 1000;
+    private static final byte NEW_LINE = '\n';
+    private static final String BUSY_MESSAGE = "Server is busy, try again later";
+
+    private final ServerConfig config;
+    private final QueryRunner queryRunner;
+    private final ThreadPoolExecutor workers;
+    private final Queue<Response> responses = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private Selector selector;
+
+    public NioServer(ServerConfig config) {
+        this(config, QueryRunner.DATABASE);
+    }
+
+    NioServer(ServerConfig config, QueryRunner queryRunner) {
+        this.config = config;
+        this.queryRunner = queryRunner;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(config.getThreads(), config.getThreads(),
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(config.getQueueCapacity()),
+                runnable -> new Thread(runnable, "query-worker-" + threadNumber.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    @Override
+    public void run() {
+        try (Selector selector = Selector.open(); ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            this.selector = selector;
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(config.getPort()), config.getQueueCapacity());
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("Non-blocking server listens on port " + config.getPort());
+
+            long nextIdleCheck = System.currentTimeMillis() + IDLE_CHECK_MILLIS;
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select(IDLE_CHECK_MILLIS);
+                deliverResponses();
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(serverChannel);
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            read(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (IOException e) {
+                        close(key);
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextIdleCheck) {
+                    closeIdleConnections(now);
+                    nextIdleCheck = now + IDLE_CHECK_MILLIS;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(key));
+            connectionCount.incrementAndGet();
+            DataBaseService.METRICS.connectionOpened();
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        readBuffer.clear();
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            connection.closeAfterWrite = true;
+            finishOrUpdate(connection);
+            return;
+        }
+        connection.lastActivity = System.currentTimeMillis();
+        readBuffer.flip();
+        if (!consume(connection, readBuffer)) {
+            return;
+        }
+        if (readBuffer.hasRemaining() && !connection.closeAfterWrite) {
+            // the read buffer is shared, the rest waits in the connection until queries were dispatched
+            connection.unread = ByteBuffer.allocate(readBuffer.remaining());
+            connection.unread.put(readBuffer).flip();
+        }
+        dispatchNext(connection);
+        updateInterest(connection);
+    }
+
+    /**
+     * Splits the bytes into queries until the connection holds the most pipelined queries it may.
+     *
+     * @return false if the connection was closed for a query that is too long
+     */
+    private boolean consume(Connection connection, ByteBuffer bytes) {
+        while (bytes.hasRemaining() && !connection.closeAfterWrite && connection.queries.size() < MAX_PIPELINED_QUERIES) {
+            byte b = bytes.get();
+            if (b == NEW_LINE) {
+                acceptLine(connection, connection.takeLine());
+            } else if (connection.line.size() >= MAX_QUERY_LENGTH) {
+                close(connection.key);
+                return false;
+            } else {
+                connection.line.write(b);
+            }
+        }
+        return true;
+    }
+
+    private void consumeUnread(Connection connection) {
+        if (connection.unread != null && consume(connection, connection.unread)
+                && (!connection.unread.hasRemaining() || connection.closeAfterWrite)) {
+            connection.unread = null;
+        }
+    }
+
+    private void acceptLine(Connection connection, String line) {
+        if (!connection.started) {
+            connection.started = true;
+            if (Protocol.isKeepAlive(line) || Protocol.isBinary(line)) {
+                connection.keepAlive = true;
+                connection.binary = Protocol.isBinary(line);
+                connection.outputs.add(new Output(encodeMessage(connection, Protocol.OK, false), null));
+                return;
+            }
+            connection.closeAfterWrite = true;
+            connection.queries.add(line);
+            return;
+        }
+        if (Protocol.isQuit(line)) {
+            connection.closeAfterWrite = true;
+            return;
+        }
+        connection.queries.add(line);
+    }
+
+    private void dispatchNext(Connection connection) {
+        if (connection.inFlight || connection.queries.isEmpty()) {
+            return;
+        }
+        connection.inFlight = true;
+        String query = connection.queries.poll();
+        try {
+            workers.execute(() -> {
+                ChunkedOutputStream response = new ChunkedOutputStream(connection);
+                ResponseWriter responseWriter = connection.createResponseWriter(response);
+                try {
+                    try {
+                        queryRunner.run(responseWriter, query);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        responseWriter.endWithError(e);
+                    }
+                } catch (IOException e) {
+                    if (!connection.closed) {
+                        e.printStackTrace();
+                    }
+                }
+                response.finish();
+            });
+        } catch (RejectedExecutionException e) {
+            respond(new Response(connection, encodeMessage(connection, BUSY_MESSAGE, true), null, true));
+        }
+    }
+
+    private static byte[] encodeMessage(Connection connection, String message, boolean error) {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        ResponseWriter responseWriter = connection.createResponseWriter(response);
+        try {
+            if (error) {
+                responseWriter.writeError(message);
+            } else {
+                responseWriter.writeMessage(message);
+            }
+            responseWriter.endResponse();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return response.toByteArray();
+    }
+
+    /**
+     * Called from a worker: the response is handed to the selector thread, which alone touches the connections.
+     */
+    private void respond(Response response) {
+        responses.add(response);
+        selector.wakeup();
+    }
+
+    private void deliverResponses() {
+        Response response;
+        while ((response = responses.poll()) != null) {
+            Connection connection = response.connection;
+            if (response.last) {
+                connection.inFlight = false;
+            }
+            if (!connection.key.isValid()) {
+                continue;
+            }
+            if (response.output.bytes.length > 0) {
+                connection.outputs.add(response.output);
+            }
+            if (response.last) {
+                // the next query makes room for one more of the bytes kept back
+                dispatchNext(connection);
+                consumeUnread(connection);
+                dispatchNext(connection);
+            }
+            finishOrUpdate(connection);
+        }
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        Output output;
+        while ((output = connection.outputs.peek()) != null) {
+            byte[] bytes = output.bytes;
+            while (connection.outputOffset < bytes.length) {
+                writeBuffer.clear();
+                int length = Math.min(writeBuffer.capacity(), bytes.length - connection.outputOffset);
+                writeBuffer.put(bytes, connection.outputOffset, length);
+                writeBuffer.flip();
+                int written = channel.write(writeBuffer);
+                connection.outputOffset += written;
+                if (written > 0) {
+                    connection.lastActivity = System.currentTimeMillis();
+                }
+                if (written < length) {
+                    return;
+                }
+            }
+            connection.outputs.poll();
+            connection.outputOffset = 0;
+            output.written();
+        }
+        connection.lastActivity = System.currentTimeMillis();
+        finishOrUpdate(connection);
+    }
+
+    private void finishOrUpdate(Connection connection) {
+        if (connection.closeAfterWrite && !connection.inFlight && connection.queries.isEmpty()
+                && connection.outputs.isEmpty()) {
+            close(connection.key);
+        } else {
+            updateInterest(connection);
+        }
+    }
+
+    private void updateInterest(Connection connection) {
+        if (!connection.key.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (connection.isReading()) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!connection.outputs.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        connection.key.interestOps(ops);
+    }
+
+    /**
+     * Closes connections that neither sent nor read anything for the idle timeout, also those whose client stopped
+     * reading a response, so that their worker does not wait for the socket forever. A query that is still
+     * running before its first chunk keeps its connection.
+     */
+    private void closeIdleConnections(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (!(attachment instanceof Connection)) {
+                continue;
+            }
+            Connection connection = (Connection) attachment;
+            if ((!connection.inFlight || !connection.outputs.isEmpty())
+                    && now - connection.lastActivity > config.getIdleTimeoutMillis()) {
+                close(key);
+            }
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Object attachment = key.attachment();
+        if (attachment != null) {
+            key.attach(null);
+            Connection connection = (Connection) attachment;
+            // a worker that waits for the socket gives up its response
+            connection.closed = true;
+            connection.writePermits.release(MAX_QUEUED_CHUNKS);
+            connectionCount.decrementAndGet();
+            DataBaseService.METRICS.connectionClosed();
+        }
+    }
+
+    /**
+     * Bytes to send, with the permit of the worker that produced them, if any, given back once they are written.
+     */
+    private static class Output {
+        private final byte[] bytes;
+        private final Semaphore permits;
+
+        Output(byte[] bytes, Semaphore permits) {
+            this.bytes = bytes;
+            this.permits = permits;
+        }
+
+        void written() {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    private static class Response {
+        private final Connection connection;
+        private final Output output;
+        private final boolean last;
+
+        Response(Connection connection, byte[] bytes, Semaphore permits, boolean last) {
+            this.connection = connection;
+            this.output = new Output(bytes, permits);
+            this.last = last;
+        }
+    }
+
+    /**
+     * Collects the response of a worker and hands it to the selector thread a chunk at a time. A full chunk waits
+     * for a permit of the connection, which the selector thread gives back once an earlier chunk was written.
+     */
+    private class ChunkedOutputStream extends OutputStream {
+        private final Connection connection;
+        private byte[] chunk = new byte[CHUNK_SIZE];
+        private int length;
+
+        ChunkedOutputStream(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == chunk.length) {
+                sendChunk();
+            }
+            chunk[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            while (count > 0) {
+                if (length == chunk.length) {
+                    sendChunk();
+                }
+                int copied = Math.min(count, chunk.length - length);
+                System.arraycopy(bytes, offset, chunk, length, copied);
+                length += copied;
+                offset += copied;
+                count -= copied;
+            }
+        }
+
+        private void sendChunk() throws IOException {
+            try {
+                connection.writePermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the client");
+            }
+            if (connection.closed) {
+                throw new IOException("Connection was closed");
+            }
+            respond(new Response(connection, chunk, connection.writePermits, false));
+            chunk = new byte[CHUNK_SIZE];
+            length = 0;
+        }
+
+        /**
+         * Hands over the rest of the response without waiting, which ends the query of the connection.
+         */
+        void finish() {
+            respond(new Response(connection, Arrays.copyOf(chunk, connection.closed ? 0 : length), null, true));
+        }
+    }
+
+    private static class Connection {
+        private final SelectionKey key;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private final Deque<String> queries = new ArrayDeque<>();
+        private final Deque<Output> outputs = new ArrayDeque<>();
+        private final Semaphore writePermits = new Semaphore(MAX_QUEUED_CHUNKS);
+        private ByteBuffer unread;
+        private int outputOffset;
+        private boolean started;
+        private boolean keepAlive;
+        private boolean binary;
+        private boolean inFlight;
+        private boolean closeAfterWrite;
+        private volatile boolean closed;
+        private long lastActivity = System.currentTimeMillis();
+
+        Connection(SelectionKey key) {
+            this.key = key;
+        }
+
+        /**
+         * The writer ends every response of a persistent connection, so the selector thread only copies bytes.
+         */
+        ResponseWriter createResponseWriter(OutputStream outputStream) {
+            return binary ? new BinaryResponseWriter(outputStream) : new TextResponseWriter(outputStream, keepAlive);
+        }
+
+        boolean isReading() {
+            return !closeAfterWrite && unread == null && queries.size() < MAX_PIPELINED_QUERIES;
+        }
+
+        String takeLine() {
+            String query = new String(line.toByteArray(), StandardCharsets.UTF_8);
+            line.reset();
+            return query.endsWith("\r") ? query.substring(0, query.length() - 1) : query;
+        }
+    }
+}
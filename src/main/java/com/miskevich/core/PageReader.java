@@ -0,0 +1,210 @@
+package com.miskevich.core;
+
+import java.util.*;
+
+/**
+ * Reads one page of a select with ORDER BY, LIMIT or OFFSET from a cached table, and stops as soon as the page
+ * is full. Rows come in table order, or in the order of a sorted index over the ORDER BY column, which is
+ * walked from the start of the range of the WHERE clause; so a keyset cursor on the primary key reads only the
+ * rows of its page. Only ORDER BY on a column without an index sorts the rows that pass the WHERE clause.
+ * Rows with null in the ORDER BY column come last.
+ */
+final class PageReader {
+
+    private final Table table;
+    private final RowFilter rowFilter;
+    private final int[] columnIndexes;
+    private final int offset;
+    private final int limit;
+    private final List<Map<String, String>> rows = new ArrayList<>();
+    private int skipped;
+    private int scanned;
+
+    private PageReader(SelectStatement statement, Table table, RowFilter rowFilter) {
+        this.table = table;
+        this.rowFilter = rowFilter;
+        this.columnIndexes = table.getColumnIndexes(statement.getColumns());
+        this.offset = statement.getOffset();
+        this.limit = statement.getLimit();
+    }
+
+    /**
+     * @param candidatePositions rows that may pass the WHERE clause in table order, null for all rows
+     */
+    static PageReader read(SelectStatement statement, Table table, RowFilter rowFilter, int[] candidatePositions) {
+        PageReader pageReader = new PageReader(statement, table, rowFilter);
+        if (pageReader.limit == 0 || rowFilter.isEmpty()) {
+            return pageReader;
+        }
+        int column = statement.getOrderBy() == null ? -1 : table.getColumnIndex(statement.getOrderBy());
+        if (column < 0) {
+            pageReader.readPositions(candidatePositions);
+        } else if (table.getIndex(column) != null) {
+            pageReader.readIndex(table.getIndex(column), column, statement.isDescending());
+        } else {
+            pageReader.readSorted(candidatePositions, column, statement.isDescending());
+        }
+        return pageReader;
+    }
+
+    List<Map<String, String>> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return number of rows that were read for the page
+     */
+    int getScannedCount() {
+        return scanned;
+    }
+
+    private void readPositions(int[] positions) {
+        int count = positions == null ? table.getRowCount() : positions.length;
+        for (int i = 0; i < count; i++) {
+            if (!offer(positions == null ? i : positions[i])) {
+                return;
+            }
+        }
+    }
+
+    private void readIndex(SortedIntIndex index, int column, boolean descending) {
+        int low = Integer.MIN_VALUE;
+        int high = Integer.MAX_VALUE;
+        boolean ranged = false;
+        for (int range = 0; range < rowFilter.getRangeCount(); range++) {
+            if (rowFilter.getRangeColumn(range) == column) {
+                low = rowFilter.getLow(range);
+                high = rowFilter.getHigh(range);
+                ranged = true;
+            }
+        }
+        int begin = index.begin(low);
+        int end = index.end(high);
+        if (descending) {
+            for (int i = end - 1; i >= begin; i--) {
+                if (!offer(index.getPosition(i))) {
+                    return;
+                }
+            }
+        } else {
+            for (int i = begin; i < end; i++) {
+                if (!offer(index.getPosition(i))) {
+                    return;
+                }
+            }
+        }
+        // the index has no entries for null, a range on the column excludes them anyway
+        if (!ranged) {
+            for (int position = 0; position < table.getRowCount(); position++) {
+                if (table.isNull(column, position) && !offer(position)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void readSorted(int[] positions, int column, boolean descending) {
+        int count = positions == null ? table.getRowCount() : positions.length;
+        scanned += count;
+        int[] matching = new int[count];
+        int matchingCount = 0;
+        int[] nulls = new int[count];
+        int nullCount = 0;
+        for (int i = 0; i < count; i++) {
+            int position = positions == null ? i : positions[i];
+            if (rowFilter.matches(table, position)) {
+                if (table.isNull(column, position)) {
+                    nulls[nullCount++] = position;
+                } else {
+                    matching[matchingCount++] = position;
+                }
+            }
+        }
+        int[] sorted = table.isNumericColumn(column) ? sortByInt(matching, matchingCount, column, descending)
+                : sortByString(matching, matchingCount, column, descending);
+        for (int i = 0; i < matchingCount; i++) {
+            if (!take(sorted[i])) {
+                return;
+            }
+        }
+        for (int i = 0; i < nullCount; i++) {
+            if (!take(nulls[i])) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sorts by entries of the key in the high and the position in the low half, rows with equal keys stay in
+     * table order; the complement of the key reverses the order of the keys for DESC.
+     */
+    private int[] sortByInt(int[] positions, int count, int column, boolean descending) {
+        long[] entries = new long[count];
+        for (int i = 0; i < count; i++) {
+            int key = table.getInt(column, positions[i]);
+            entries[i] = ((long) (descending ? ~key : key) << 32) | positions[i];
+        }
+        Arrays.sort(entries);
+        int[] sorted = new int[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = (int) entries[i];
+        }
+        return sorted;
+    }
+
+    private int[] sortByString(int[] positions, int count, final int column, boolean descending) {
+        Integer[] boxed = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            boxed[i] = positions[i];
+        }
+        Comparator<Integer> order = (first, second) -> table.getRow(first)[column].compareTo(table.getRow(second)[column]);
+        Arrays.sort(boxed, descending ? order.reversed() : order);
+        int[] sorted = new int[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = boxed[i];
+        }
+        return sorted;
+    }
+
+    /**
+     * @return false once the page is full
+     */
+    private boolean offer(int position) {
+        scanned++;
+        return !rowFilter.matches(table, position) || take(position);
+    }
+
+    private boolean take(int position) {
+        if (skipped < offset) {
+            skipped++;
+            return true;
+        }
+        rows.add(table.getRowAsMap(position, columnIndexes));
+        return rows.size() < limit;
+    }
+
+    /**
+     * Order of the ORDER BY column for rows read from a table file, nulls last.
+     */
+    static Comparator<String[]> rowOrder(final int column, final boolean numeric, final boolean descending) {
+        return (first, second) -> {
+            String firstValue = first[column];
+            String secondValue = second[column];
+            if (firstValue == null || secondValue == null) {
+                return firstValue == null ? (secondValue == null ? 0 : 1) : -1;
+            }
+            int comparison = numeric ? Integer.compare(Table.toInt(firstValue), Table.toInt(secondValue))
+                    : firstValue.compareTo(secondValue);
+            return descending ? -comparison : comparison;
+        };
+    }
+
+    /**
+     * @return the rows of the page within all rows of a result
+     */
+    static <T> List<T> slice(List<T> rows, SelectStatement statement) {
+        int from = Math.min(statement.getOffset(), rows.size());
+        int to = (int) Math.min((long) from + statement.getLimit(), rows.size());
+        return rows.subList(from, to);
+    }
+}
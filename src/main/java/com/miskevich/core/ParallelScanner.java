@@ -0,0 +1,102 @@
+package com.miskevich.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Splits a scan over the rows of a cached table into ranges that run on a shared {@link ForkJoinPool}. The
+ * results of the ranges are returned in the order of the ranges, so callers that merge them from the first to
+ * the last keep the rows in table order. Scans of fewer rows than a few ranges run on the calling thread, where
+ * handing them to the pool would cost more than it saves.
+ * <p>
+ * Tables are versions that are not changed once queries see them, so the ranges read them without locking.
+ */
+final class ParallelScanner {
+
+    private static final String PARALLELISM_PROPERTY = "rmdb.scan.parallelism";
+    private static final String MIN_RANGE_ROWS_PROPERTY = "rmdb.scan.minRangeRows";
+    private static final int DEFAULT_MIN_RANGE_ROWS = 16384;
+    private static final int RANGES_PER_THREAD = 4;
+
+    interface RangeScan<T> {
+        /**
+         * @return result for the rows from the position up to, not including, the end position
+         */
+        T scan(int fromPosition, int toPosition);
+    }
+
+    private final int parallelism;
+    private final int minRangeRows;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelism number of threads of the pool, 1 runs every scan on the calling thread
+     * @param minRangeRows least number of rows of a range, a scan of fewer than two ranges is not split
+     */
+    ParallelScanner(int parallelism, int minRangeRows) {
+        this.parallelism = parallelism;
+        this.minRangeRows = Math.max(1, minRangeRows);
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("scan-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false) : null;
+    }
+
+    static ParallelScanner fromSystemProperties() {
+        return new ParallelScanner(Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger(MIN_RANGE_ROWS_PROPERTY, DEFAULT_MIN_RANGE_ROWS));
+    }
+
+    boolean isParallel(int rowCount) {
+        return pool != null && rowCount >= 2L * minRangeRows;
+    }
+
+    /**
+     * @return results of the ranges in table order, a single one if the scan was not split
+     */
+    <T> List<T> scan(int rowCount, RangeScan<T> rangeScan) {
+        if (!isParallel(rowCount)) {
+            return Collections.singletonList(rangeScan.scan(0, rowCount));
+        }
+        int rangeRows = Math.max(minRangeRows, (rowCount + parallelism * RANGES_PER_THREAD - 1) / (parallelism * RANGES_PER_THREAD));
+        return pool.invoke(new RangeTask<>(rangeScan, 0, rowCount, rangeRows));
+    }
+
+    private static class RangeTask<T> extends RecursiveTask<List<T>> {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeScan<T> rangeScan;
+        private final int fromPosition;
+        private final int toPosition;
+        private final int rangeRows;
+
+        RangeTask(RangeScan<T> rangeScan, int fromPosition, int toPosition, int rangeRows) {
+            this.rangeScan = rangeScan;
+            this.fromPosition = fromPosition;
+            this.toPosition = toPosition;
+            this.rangeRows = rangeRows;
+        }
+
+        @Override
+        protected List<T> compute() {
+            if (toPosition - fromPosition <= rangeRows) {
+                List<T> results = new ArrayList<>(1);
+                results.add(rangeScan.scan(fromPosition, toPosition));
+                return results;
+            }
+            int middle = fromPosition + (toPosition - fromPosition) / 2;
+            RangeTask<T> first = new RangeTask<>(rangeScan, fromPosition, middle, rangeRows);
+            first.fork();
+            List<T> second = new RangeTask<>(rangeScan, middle, toPosition, rangeRows).compute();
+            List<T> results = first.join();
+            results.addAll(second);
+            return results;
+        }
+    }
+}
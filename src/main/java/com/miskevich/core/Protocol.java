@@ -0,0 +1,31 @@
+package com.miskevich.core;
+
+/**
+ * Line protocol shared by both front ends. A connection serves one query and is closed, unless its first line is
+ * {@link #KEEP_ALIVE}: then it stays open for any number of queries, which may be pipelined, and every response
+ * is followed by an empty line. Responses come back in the order the queries were sent. A persistent connection
+ * is closed by {@link #QUIT}, by the client, or after the idle timeout.
+ * <p>
+ * A first line of {@link #BINARY} opens a persistent connection whose responses use the binary encoding of
+ * {@link BinaryResponseWriter} instead of lines; queries are still sent as lines.
+ */
+public class Protocol {
+
+    public static final String KEEP_ALIVE = "KEEPALIVE";
+    public static final String BINARY = "BINARY";
+    public static final String QUIT = "QUIT";
+    public static final String OK = "OK";
+    public static final String RESPONSE_TERMINATOR = "\n";
+
+    public static boolean isKeepAlive(String line) {
+        return KEEP_ALIVE.equalsIgnoreCase(line.trim());
+    }
+
+    public static boolean isBinary(String line) {
+        return BINARY.equalsIgnoreCase(line.trim());
+    }
+
+    public static boolean isQuit(String line) {
+        return QUIT.equalsIgnoreCase(line.trim());
+    }
+}
@@ -0,0 +1,325 @@
+package com.miskevich.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Recursive descent parser over the tokens of one query. Keywords are case-insensitive. Every literal
+ * becomes a parameter slot of the statement, so the result serves as the template of all queries with
+ * the same parameterized form.
+ */
+final class QueryParser {
+
+    private final List<Token> tokens;
+    private final List<String> values = new ArrayList<>();
+    private final int[] parameterSlots;
+    private int index;
+
+    private QueryParser(List<Token> tokens, int parameterCount) {
+        this.tokens = tokens;
+        this.parameterSlots = new int[parameterCount];
+    }
+
+    static Statement parse(QueryTokenizer tokenizer) {
+        return new QueryParser(tokenizer.getTokens(), tokenizer.getParameters().size()).parseStatement();
+    }
+
+    private Statement parseStatement() {
+        Statement statement;
+        if (peek().isKeyword("SELECT")) {
+            statement = parseSelect();
+        } else if (peek().isKeyword("INSERT")) {
+            statement = parseInsert();
+        } else if (acceptKeyword("CREATE")) {
+            if (acceptKeyword("TABLE")) {
+                statement = parseCreateTable();
+            } else if (peek().isKeyword("INDEX")) {
+                statement = parseCreateIndex();
+            } else {
+                throw error("TABLE or INDEX");
+            }
+        } else if (acceptKeyword("STATS")) {
+            statement = new StatsStatement(valuesArray(), parameterSlots);
+        } else {
+            throw error("SELECT, INSERT, CREATE or STATS");
+        }
+        if (peek().isSymbol(";")) {
+            index++;
+        }
+        if (peek().getType() != Token.Type.END) {
+            throw error("end of the query");
+        }
+        return statement;
+    }
+
+    private SelectStatement parseSelect() {
+        expectKeyword("SELECT");
+        List<String> columns = null;
+        List<Aggregate> aggregates = new ArrayList<>();
+        if (!acceptSymbol("*")) {
+            columns = new ArrayList<>();
+            do {
+                columns.add(parseSelectItem(aggregates));
+            } while (acceptSymbol(","));
+            columns = Collections.unmodifiableList(columns);
+        }
+        expectKeyword("FROM");
+        String table = expectName();
+        Join join = null;
+        if (acceptKeyword("JOIN")) {
+            String joinTable = expectName();
+            expectKeyword("ON");
+            String leftColumn = parseColumn();
+            expectSymbol("=");
+            join = new Join(joinTable, leftColumn, parseColumn());
+        }
+        List<Condition> conditions = new ArrayList<>();
+        if (peek().isKeyword("WHERE")) {
+            index++;
+            do {
+                conditions.add(parseCondition());
+            } while (acceptKeyword("AND"));
+        }
+        List<String> groupBy = Collections.emptyList();
+        if (acceptKeyword("GROUP")) {
+            expectKeyword("BY");
+            groupBy = parseColumnList();
+        }
+        String orderBy = null;
+        boolean descending = false;
+        if (acceptKeyword("ORDER")) {
+            expectKeyword("BY");
+            orderBy = parseColumn();
+            descending = acceptKeyword("DESC");
+            if (!descending) {
+                acceptKeyword("ASC");
+            }
+        }
+        int limitSlot = acceptKeyword("LIMIT") ? parseValue() : -1;
+        int offsetSlot = acceptKeyword("OFFSET") ? parseValue() : -1;
+        return new SelectStatement(table, columns, join, Collections.unmodifiableList(conditions),
+                Collections.unmodifiableList(aggregates), groupBy, orderBy, descending, limitSlot, offsetSlot,
+                valuesArray(), parameterSlots);
+    }
+
+    /**
+     * @return name of the selected column or aggregate; an aggregate is also added to the list
+     */
+    private String parseSelectItem(List<Aggregate> aggregates) {
+        Token token = peek();
+        Aggregate.Function function = token.getType() == Token.Type.WORD && !token.isLiteral()
+                && tokens.get(index + 1).isSymbol("(") ? Aggregate.Function.forName(token.getText()) : null;
+        if (function == null) {
+            return parseColumn();
+        }
+        index += 2;
+        String column = null;
+        if (!acceptSymbol("*")) {
+            column = parseColumn();
+        } else if (function != Aggregate.Function.COUNT) {
+            throw new ServerException(function + "(*) is not supported, only COUNT(*)");
+        }
+        expectSymbol(")");
+        Aggregate aggregate = new Aggregate(function, column);
+        aggregates.add(aggregate);
+        return aggregate.getName();
+    }
+
+    private Condition parseCondition() {
+        String column = parseColumn();
+        if (acceptKeyword("BETWEEN")) {
+            int slot = parseValue();
+            expectKeyword("AND");
+            return new Condition(column, Condition.Operator.BETWEEN, slot, parseValue());
+        }
+        Token token = peek();
+        Condition.Operator operator = token.getType() == Token.Type.SYMBOL ? Condition.Operator.fromSymbol(token.getText()) : null;
+        if (operator == null) {
+            throw error("a comparison");
+        }
+        index++;
+        return new Condition(column, operator, parseValue(), -1);
+    }
+
+    private CreateIndexStatement parseCreateIndex() {
+        expectKeyword("INDEX");
+        String name = peek().isKeyword("ON") ? null : expectName();
+        expectKeyword("ON");
+        String table = expectName();
+        expectSymbol("(");
+        String column = expectName();
+        expectSymbol(")");
+        return new CreateIndexStatement(name, table, column, valuesArray(), parameterSlots);
+    }
+
+    private CreateTableStatement parseCreateTable() {
+        String table = expectName();
+        expectSymbol("(");
+        List<String> columns = new ArrayList<>();
+        List<TableSchema.ColumnType> types = new ArrayList<>();
+        String primaryKey = null;
+        do {
+            String column = expectName();
+            if (columns.contains(column)) {
+                throw new ServerException("Column '" + column + "' is defined twice");
+            }
+            Token typeName = peek();
+            TableSchema.ColumnType type = typeName.getType() == Token.Type.WORD && !typeName.isLiteral()
+                    ? TableSchema.ColumnType.forName(typeName.getText()) : null;
+            if (type == null) {
+                throw error("INT or STRING");
+            }
+            index++;
+            if (acceptKeyword("PRIMARY")) {
+                expectKeyword("KEY");
+                if (primaryKey != null) {
+                    throw new ServerException("Table " + table + " has more than one primary key");
+                }
+                if (type != TableSchema.ColumnType.INT) {
+                    throw new ServerException("Primary key '" + column + "' must be INT");
+                }
+                primaryKey = column;
+            }
+            columns.add(column);
+            types.add(type);
+        } while (acceptSymbol(","));
+        expectSymbol(")");
+        return new CreateTableStatement(new TableSchema(table, columns, types, primaryKey), valuesArray(), parameterSlots);
+    }
+
+    private InsertStatement parseInsert() {
+        expectKeyword("INSERT");
+        expectKeyword("INTO");
+        String table = expectName();
+        expectSymbol("(");
+        List<String> columns = parseNameList();
+        expectSymbol(")");
+        expectKeyword("VALUES");
+        List<int[]> rows = new ArrayList<>();
+        do {
+            expectSymbol("(");
+            List<Integer> slots = new ArrayList<>();
+            do {
+                slots.add(parseValue());
+            } while (acceptSymbol(","));
+            expectSymbol(")");
+            int[] row = new int[slots.size()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = slots.get(i);
+            }
+            rows.add(row);
+        } while (acceptSymbol(","));
+        return new InsertStatement(table, columns, rows.toArray(new int[rows.size()][]), valuesArray(), parameterSlots);
+    }
+
+    private List<String> parseColumnList() {
+        List<String> columns = new ArrayList<>();
+        do {
+            columns.add(parseColumn());
+        } while (acceptSymbol(","));
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * @return column name, qualified with its table if the query does so
+     */
+    private String parseColumn() {
+        String name = expectName();
+        if (acceptSymbol(".")) {
+            return name + "." + expectName();
+        }
+        return name;
+    }
+
+    private List<String> parseNameList() {
+        List<String> names = new ArrayList<>();
+        do {
+            names.add(expectName());
+        } while (acceptSymbol(","));
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * @return slot of the value
+     */
+    private int parseValue() {
+        Token token = next();
+        int slot = values.size();
+        if (token.isLiteral()) {
+            values.add(null);
+            parameterSlots[token.getParameterIndex()] = slot;
+        } else if (token.getType() == Token.Type.WORD) {
+            values.add(token.getText());
+        } else {
+            index--;
+            throw error("a value");
+        }
+        return slot;
+    }
+
+    private String[] valuesArray() {
+        return values.toArray(new String[values.size()]);
+    }
+
+    private Token peek() {
+        return tokens.get(index);
+    }
+
+    private Token next() {
+        Token token = tokens.get(index);
+        if (token.getType() != Token.Type.END) {
+            index++;
+        }
+        return token;
+    }
+
+    private boolean acceptSymbol(String symbol) {
+        if (peek().isSymbol(symbol)) {
+            index++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expectSymbol(String symbol) {
+        if (!acceptSymbol(symbol)) {
+            throw error("'" + symbol + "'");
+        }
+    }
+
+    private boolean acceptKeyword(String keyword) {
+        if (peek().isKeyword(keyword)) {
+            index++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expectKeyword(String keyword) {
+        if (!acceptKeyword(keyword)) {
+            throw error(keyword);
+        }
+    }
+
+    private String expectName() {
+        Token token = peek();
+        if (token.getType() != Token.Type.WORD || token.isLiteral()) {
+            throw error("a name");
+        }
+        index++;
+        return token.getText();
+    }
+
+    private ServerException error(String expected) {
+        Token token = peek();
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("Syntax error at position ")
+                .append(token.getPosition())
+                .append(": expected ")
+                .append(expected)
+                .append(" but found ")
+                .append(token);
+        return new ServerException(stringBuilder.toString());
+    }
+}
@@ -0,0 +1,13 @@
+package com.miskevich.core;
+
+import java.io.IOException;
+
+/**
+ * Runs one query of a connection and writes its whole response, including the end of it.
+ */
+interface QueryRunner {
+
+    QueryRunner DATABASE = (responseWriter, query) -> new DataBaseService(responseWriter).execute(query);
+
+    void run(ResponseWriter responseWriter, String query) throws IOException;
+}
@@ -0,0 +1,167 @@
+package com.miskevich.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a query into tokens in one pass. Whitespace between tokens is not significant. While scanning it
+ * also builds the parameterized form of the query, where every literal is replaced with {@code ?}, so that
+ * queries that differ only in their values share one parsed statement.
+ * <p>
+ * After {@code VALUES} an unquoted value runs up to the next comma or closing parenthesis, as it always did, so
+ * {@code (1, John Smith, name-1)} holds three values; quote a value that contains a comma or a parenthesis.
+ */
+final class QueryTokenizer {
+
+    private static final String VALUES = "VALUES";
+
+    private final String query;
+    private final List<Token> tokens = new ArrayList<>();
+    private final List<String> parameters = new ArrayList<>();
+    private final StringBuilder key = new StringBuilder();
+    private boolean inValues;
+    private boolean inRow;
+    private int position;
+
+    private QueryTokenizer(String query) {
+        this.query = query;
+    }
+
+    static QueryTokenizer tokenize(String query) {
+        QueryTokenizer tokenizer = new QueryTokenizer(query);
+        tokenizer.run();
+        return tokenizer;
+    }
+
+    List<Token> getTokens() {
+        return tokens;
+    }
+
+    List<String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return the query with its literals replaced by {@code ?} and the whitespace normalized
+     */
+    String getKey() {
+        return key.toString();
+    }
+
+    private void run() {
+        int length = query.length();
+        while (true) {
+            while (position < length && Character.isWhitespace(query.charAt(position))) {
+                position++;
+            }
+            if (position >= length) {
+                break;
+            }
+            int start = position;
+            char c = query.charAt(position);
+            if (inRow && c != '\'' && c != '(' && c != ')' && c != ',') {
+                String value = readUnquotedValue();
+                addLiteral(isNumber(value) ? Token.Type.NUMBER : Token.Type.WORD, value, start);
+            } else if (Character.isLetter(c) || c == '_') {
+                while (position < length && isWordPart(query.charAt(position))) {
+                    position++;
+                }
+                String word = query.substring(start, position);
+                add(Token.Type.WORD, word, start);
+                inValues = word.equalsIgnoreCase(VALUES);
+            } else if (Character.isDigit(c) || (c == '-' && position + 1 < length && Character.isDigit(query.charAt(position + 1)))) {
+                position++;
+                while (position < length && (Character.isDigit(query.charAt(position)) || query.charAt(position) == '.')) {
+                    position++;
+                }
+                addLiteral(Token.Type.NUMBER, query.substring(start, position), start);
+            } else if (c == '\'') {
+                addLiteral(Token.Type.STRING, readString(), start);
+            } else if (c == '?') {
+                throw new ServerException("Parameter markers are not supported at position " + start
+                        + ", write the value into the query");
+            } else {
+                String symbol = readSymbol();
+                add(Token.Type.SYMBOL, symbol, start);
+                if (inValues && (symbol.equals("(") || symbol.equals(")"))) {
+                    inRow = symbol.equals("(");
+                }
+            }
+        }
+        tokens.add(new Token(Token.Type.END, null, length, -1));
+    }
+
+    private static boolean isWordPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * @return value up to the next comma or closing parenthesis, without the whitespace around it
+     */
+    private String readUnquotedValue() {
+        int start = position;
+        while (position < query.length() && query.charAt(position) != ',' && query.charAt(position) != ')') {
+            position++;
+        }
+        return query.substring(start, position).trim();
+    }
+
+    private static boolean isNumber(String value) {
+        int start = value.startsWith("-") ? 1 : 0;
+        if (start == value.length()) {
+            return false;
+        }
+        for (int i = start; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i)) && value.charAt(i) != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readString() {
+        StringBuilder value = new StringBuilder();
+        position++;
+        while (position < query.length()) {
+            char c = query.charAt(position++);
+            if (c != '\'') {
+                value.append(c);
+            } else if (position < query.length() && query.charAt(position) == '\'') {
+                value.append(c);
+                position++;
+            } else {
+                return value.toString();
+            }
+        }
+        throw new ServerException("Unterminated string in the query");
+    }
+
+    private String readSymbol() {
+        char c = query.charAt(position++);
+        if (position < query.length()) {
+            char next = query.charAt(position);
+            if ((c == '<' && (next == '=' || next == '>')) || ((c == '>' || c == '!') && next == '=')) {
+                position++;
+                return query.substring(position - 2, position);
+            }
+        }
+        return String.valueOf(c);
+    }
+
+    private void add(Token.Type type, String text, int start) {
+        tokens.add(new Token(type, text, start, -1));
+        if (key.length() > 0) {
+            key.append(' ');
+        }
+        key.append(text);
+    }
+
+    private void addLiteral(Token.Type type, String text, int start) {
+        tokens.add(new Token(type, text, start, parameters.size()));
+        parameters.add(text);
+        if (key.length() > 0) {
+            key.append(' ');
+        }
+        key.append('?');
+    }
+}
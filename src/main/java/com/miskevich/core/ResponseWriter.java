@@ -0,0 +1,248 @@
+package com.miskevich.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the response of a query into one reusable buffer that is written to the client once the response
+ * is complete, or whenever it grows past {@link #FLUSH_THRESHOLD} while a large result is streamed. A response
+ * therefore goes out in as few writes and packets as its size allows instead of one per value.
+ */
+public abstract class ResponseWriter {
+
+    static final int FLUSH_THRESHOLD = 64 * 1024;
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    private final OutputStream outputStream;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length;
+    private long rowCount;
+    private long bytesWritten;
+    private long writeNanos;
+    private List<TableSchema> tables = Collections.emptyList();
+    private ByteArrayOutputStream recording;
+    private int recordingFrom;
+    private int recordingLimit;
+
+    protected ResponseWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * Writes the selected values of a row.
+     *
+     * @param columns indexes of the values to write, -1 for a column that is not there
+     */
+    public abstract void writeRow(List<String> columnNames, int[] columns, String[] values) throws IOException;
+
+    public abstract void writeRow(Map<String, String> values) throws IOException;
+
+    public abstract void writeMessage(String message) throws IOException;
+
+    public abstract void writeError(String message) throws IOException;
+
+    /**
+     * Ends the response as the protocol of the connection requires and sends everything that is buffered.
+     */
+    public void endResponse() throws IOException {
+        writeEnd();
+        flush();
+    }
+
+    protected abstract void writeEnd() throws IOException;
+
+    /**
+     * Ends a response that its query broke off with an unexpected exception, so that the responses of the queries
+     * pipelined after it still match them.
+     */
+    public void endWithError(RuntimeException e) throws IOException {
+        stopRecording();
+        writeError(e.toString());
+        endResponse();
+    }
+
+    protected void flushIfFull() throws IOException {
+        if (length >= FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        long start = System.nanoTime();
+        record();
+        recordingFrom = 0;
+        if (length > 0) {
+            outputStream.write(buffer, 0, length);
+            bytesWritten += length;
+            length = 0;
+        }
+        outputStream.flush();
+        writeNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Keeps a copy of everything written from now on until {@link #stopRecording}, for the {@link ResultCache}.
+     * A response that grows past the limit is not kept.
+     */
+    public void startRecording(int maxBytes) {
+        recording = new ByteArrayOutputStream();
+        recordingFrom = length;
+        recordingLimit = maxBytes;
+    }
+
+    /**
+     * @return what was written since {@link #startRecording}, without the end of the response, or null if it
+     * went past the limit
+     */
+    public byte[] stopRecording() {
+        record();
+        byte[] recorded = recording == null ? null : recording.toByteArray();
+        recording = null;
+        return recorded;
+    }
+
+    private void record() {
+        if (recording == null) {
+            return;
+        }
+        if (recording.size() + length - recordingFrom > recordingLimit) {
+            recording = null;
+            return;
+        }
+        recording.write(buffer, recordingFrom, length - recordingFrom);
+        recordingFrom = length;
+    }
+
+    /**
+     * Writes a response kept by {@link #stopRecording} again.
+     *
+     * @param rows number of rows in the response
+     */
+    public void writeRecorded(byte[] response, long rows) throws IOException {
+        ensureCapacity(response.length);
+        System.arraycopy(response, 0, buffer, length, response.length);
+        length += response.length;
+        rowCount += rows;
+        flushIfFull();
+    }
+
+    /**
+     * @return rows written so far, over all responses of this writer
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return time spent handing the buffer to the output stream
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * Tables whose columns the following rows hold, for a writer that encodes values by their type.
+     */
+    public void setTables(List<TableSchema> tables) {
+        this.tables = tables;
+    }
+
+    /**
+     * @param columnName name of a column of one of the tables, qualified as {@code table.column} in a join
+     * @return true if the column is INT
+     */
+    protected boolean isNumericColumn(String columnName) {
+        int dot = columnName.indexOf('.');
+        for (TableSchema table : tables) {
+            String column = columnName;
+            if (dot >= 0) {
+                if (!table.getName().equals(columnName.substring(0, dot))) {
+                    continue;
+                }
+                column = columnName.substring(dot + 1);
+            }
+            int index = table.getColumnIndex(column);
+            if (index >= 0) {
+                return table.isNumericColumn(index);
+            }
+        }
+        return false;
+    }
+
+    protected void countRow() {
+        rowCount++;
+    }
+
+    protected int position() {
+        return length;
+    }
+
+    protected void putByte(int value) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) value;
+    }
+
+    protected void putShort(int value) {
+        ensureCapacity(2);
+        buffer[length++] = (byte) (value >>> 8);
+        buffer[length++] = (byte) value;
+    }
+
+    protected void putShortAt(int position, int value) {
+        buffer[position] = (byte) (value >>> 8);
+        buffer[position + 1] = (byte) value;
+    }
+
+    protected void putInt(int value) {
+        ensureCapacity(4);
+        putIntAt(length, value);
+        length += 4;
+    }
+
+    protected void putIntAt(int position, int value) {
+        buffer[position] = (byte) (value >>> 24);
+        buffer[position + 1] = (byte) (value >>> 16);
+        buffer[position + 2] = (byte) (value >>> 8);
+        buffer[position + 3] = (byte) value;
+    }
+
+    /**
+     * Writes the string as UTF-8, copying ASCII characters straight into the buffer.
+     *
+     * @return number of bytes written
+     */
+    protected int putUtf8(String value) {
+        int start = length;
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                length = start;
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                ensureCapacity(bytes.length);
+                System.arraycopy(bytes, 0, buffer, length, bytes.length);
+                length += bytes.length;
+                return bytes.length;
+            }
+            buffer[length++] = (byte) c;
+        }
+        return length - start;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (length + additional > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length << 1, length + additional)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.miskevich.core;
+
+import java.util.*;
+
+/**
+ * Keeps the encoded responses of selects, so that a repeated query is answered with a map lookup and a copy of
+ * its bytes. An entry is keyed by the response format and the normalized query, and holds the versions of the
+ * tables it was read from, see {@link TableCache#getVersion}: a lookup with other versions is a miss. Writes also
+ * drop the entries of their table at once, so stale results do not take up memory until they are evicted.
+ * The least recently used entries are evicted when there are too many or their responses take too many bytes.
+ */
+public class ResultCache {
+
+    private static final String SIZE_PROPERTY = "rmdb.resultCache.size";
+    private static final int DEFAULT_SIZE = 1024;
+    private static final String MAX_BYTES_PROPERTY = "rmdb.resultCache.maxBytes";
+    private static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+    private static final String MAX_ENTRY_BYTES_PROPERTY = "rmdb.resultCache.maxEntryBytes";
+    private static final int DEFAULT_MAX_ENTRY_BYTES = 256 * 1024;
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final int maxSize;
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<String>> keysByTable = new HashMap<>();
+    private long currentBytes;
+    private long hitCount;
+    private long missCount;
+    private long invalidationCount;
+
+    public ResultCache(int maxSize, long maxBytes, int maxEntryBytes) {
+        this.maxSize = maxSize;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    public static ResultCache fromSystemProperties() {
+        return new ResultCache(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE),
+                Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES),
+                Integer.getInteger(MAX_ENTRY_BYTES_PROPERTY, DEFAULT_MAX_ENTRY_BYTES));
+    }
+
+    /**
+     * @return limit of the size of one response, larger responses are not kept
+     */
+    public int getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * @param versions versions of the tables of the query, in the order they were put with
+     * @return the entry, or null if there is none for these versions
+     */
+    public synchronized Entry get(String key, long[] versions) {
+        Entry entry = entries.get(key);
+        if (entry == null || !Arrays.equals(entry.versions, versions)) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry;
+    }
+
+    /**
+     * @param versions versions of the tables as they were before the query read them
+     */
+    public synchronized void put(String key, List<String> tables, long[] versions, byte[] response, long rowCount) {
+        if (response.length > maxEntryBytes || maxSize == 0) {
+            return;
+        }
+        remove(key);
+        Entry entry = new Entry(tables, versions, response, rowCount);
+        entries.put(key, entry);
+        currentBytes += entry.getSize();
+        for (String table : tables) {
+            Set<String> keys = keysByTable.get(table);
+            if (keys == null) {
+                keys = new HashSet<>();
+                keysByTable.put(table, keys);
+            }
+            keys.add(key);
+        }
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxSize || currentBytes > maxBytes) && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            forget(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * Drops the results read from the table, after a write into it.
+     */
+    public synchronized void invalidate(String table) {
+        Set<String> keys = keysByTable.remove(table);
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                forget(key, entry);
+                invalidationCount++;
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            forget(key, entry);
+        }
+    }
+
+    private void forget(String key, Entry entry) {
+        currentBytes -= entry.getSize();
+        for (String table : entry.tables) {
+            Set<String> keys = keysByTable.get(table);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByTable.remove(table);
+                }
+            }
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public static class Entry {
+        private final List<String> tables;
+        private final long[] versions;
+        private final byte[] response;
+        private final long rowCount;
+
+        Entry(List<String> tables, long[] versions, byte[] response, long rowCount) {
+            this.tables = tables;
+            this.versions = versions;
+            this.response = response;
+            this.rowCount = rowCount;
+        }
+
+        public byte[] getResponse() {
+            return response;
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        long getSize() {
+            return ENTRY_OVERHEAD + response.length;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.miskevich.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The WHERE clause of a select, prepared for one table. Conditions on numeric columns are folded into one
+ * inclusive int range per column, so a row is checked with a parse and two comparisons per column, and the
+ * ranges tell which secondary index can serve the query. Other columns are compared as strings.
+ */
+final class RowFilter {
+
+    private final int[] rangeColumns;
+    private final long[] lows;
+    private final long[] highs;
+    private final int[] stringColumns;
+    private final Condition.Operator[] stringOperators;
+    private final String[] stringValues;
+    private final String[] stringHighValues;
+
+    private RowFilter(int[] rangeColumns, long[] lows, long[] highs, int[] stringColumns,
+                      Condition.Operator[] stringOperators, String[] stringValues, String[] stringHighValues) {
+        this.rangeColumns = rangeColumns;
+        this.lows = lows;
+        this.highs = highs;
+        this.stringColumns = stringColumns;
+        this.stringOperators = stringOperators;
+        this.stringValues = stringValues;
+        this.stringHighValues = stringHighValues;
+    }
+
+    /**
+     * @param columnTypes types of the columns, which decide whether a condition compares ints or strings
+     */
+    static RowFilter create(SelectStatement statement, List<String> columnNames, List<TableSchema.ColumnType> columnTypes) {
+        List<Condition> conditions = statement.getConditions();
+        int[] columns = new int[conditions.size()];
+        long[] lows = new long[conditions.size()];
+        long[] highs = new long[conditions.size()];
+        int rangeCount = 0;
+        int[] stringColumns = new int[conditions.size()];
+        Condition.Operator[] stringOperators = new Condition.Operator[conditions.size()];
+        String[] stringValues = new String[conditions.size()];
+        String[] stringHighValues = new String[conditions.size()];
+        int stringCount = 0;
+
+        for (Condition condition : conditions) {
+            int column = Table.getColumnIndexes(columnNames, Collections.singletonList(condition.getColumn()))[0];
+            if (column < 0) {
+                throw new ServerException("No such column '" + condition.getColumn() + "' in the table " + statement.getTable());
+            }
+            if (columnTypes.get(column) != TableSchema.ColumnType.INT) {
+                stringColumns[stringCount] = column;
+                stringOperators[stringCount] = condition.getOperator();
+                stringValues[stringCount] = statement.getValue(condition);
+                stringHighValues[stringCount] = condition.getOperator() == Condition.Operator.BETWEEN
+                        ? statement.getHighValue(condition) : null;
+                stringCount++;
+                continue;
+            }
+
+            int range = 0;
+            while (range < rangeCount && columns[range] != column) {
+                range++;
+            }
+            if (range == rangeCount) {
+                columns[range] = column;
+                lows[range] = Integer.MIN_VALUE;
+                highs[range] = Integer.MAX_VALUE;
+                rangeCount++;
+            }
+            double value = toNumber(statement.getValue(condition));
+            switch (condition.getOperator()) {
+                case EQUALS:
+                    lows[range] = Math.max(lows[range], (long) Math.ceil(value));
+                    highs[range] = Math.min(highs[range], (long) Math.floor(value));
+                    break;
+                case LESS:
+                    highs[range] = Math.min(highs[range], (long) Math.ceil(value) - 1);
+                    break;
+                case LESS_OR_EQUAL:
+                    highs[range] = Math.min(highs[range], (long) Math.floor(value));
+                    break;
+                case GREATER:
+                    lows[range] = Math.max(lows[range], (long) Math.floor(value) + 1);
+                    break;
+                case GREATER_OR_EQUAL:
+                    lows[range] = Math.max(lows[range], (long) Math.ceil(value));
+                    break;
+                case BETWEEN:
+                    lows[range] = Math.max(lows[range], (long) Math.ceil(value));
+                    highs[range] = Math.min(highs[range], (long) Math.floor(toNumber(statement.getHighValue(condition))));
+                    break;
+            }
+        }
+        return new RowFilter(Arrays.copyOf(columns, rangeCount), lows, highs,
+                Arrays.copyOf(stringColumns, stringCount), stringOperators, stringValues, stringHighValues);
+    }
+
+    private static double toNumber(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new ServerException("Value '" + value + "' is not a number");
+        }
+    }
+
+    /**
+     * @return true if the ranges exclude every row, so the table need not be read at all
+     */
+    boolean isEmpty() {
+        for (int range = 0; range < rangeColumns.length; range++) {
+            if (lows[range] > highs[range]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean matches(String[] row) {
+        for (int range = 0; range < rangeColumns.length; range++) {
+            String value = row[rangeColumns[range]];
+            if (value == null) {
+                return false;
+            }
+            int number = Table.toInt(value);
+            if (number < lows[range] || number > highs[range]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < stringColumns.length; i++) {
+            String value = row[stringColumns[i]];
+            if (value == null || !matches(value, stringOperators[i], stringValues[i], stringHighValues[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link #matches(String[])} for a row of the table, reading the ranges from its parsed INT columns.
+     */
+    boolean matches(Table table, int position) {
+        for (int range = 0; range < rangeColumns.length; range++) {
+            int column = rangeColumns[range];
+            if (table.isNull(column, position)) {
+                return false;
+            }
+            int number = table.getInt(column, position);
+            if (number < lows[range] || number > highs[range]) {
+                return false;
+            }
+        }
+        if (stringColumns.length == 0) {
+            return true;
+        }
+        String[] row = table.getRow(position);
+        for (int i = 0; i < stringColumns.length; i++) {
+            String value = row[stringColumns[i]];
+            if (value == null || !matches(value, stringOperators[i], stringValues[i], stringHighValues[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String value, Condition.Operator operator, String operand, String highOperand) {
+        int comparison = value.compareTo(operand);
+        switch (operator) {
+            case EQUALS:
+                return comparison == 0;
+            case LESS:
+                return comparison < 0;
+            case LESS_OR_EQUAL:
+                return comparison <= 0;
+            case GREATER:
+                return comparison > 0;
+            case GREATER_OR_EQUAL:
+                return comparison >= 0;
+            default:
+                return comparison >= 0 && value.compareTo(highOperand) <= 0;
+        }
+    }
+
+    int getRangeCount() {
+        return rangeColumns.length;
+    }
+
+    int getRangeColumn(int range) {
+        return rangeColumns[range];
+    }
+
+    /**
+     * @return inclusive lower bound of the range, clamped to int
+     */
+    int getLow(int range) {
+        return (int) Math.max(lows[range], Integer.MIN_VALUE);
+    }
+
+    int getHigh(int range) {
+        return (int) Math.min(highs[range], Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return true if the range allows exactly one value
+     */
+    boolean isPoint(int range) {
+        return lows[range] == highs[range];
+    }
+}
@@ -0,0 +1,14 @@
+package com.miskevich.core;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives the rows of a table scan one at a time.
+ */
+public interface RowHandler {
+    /**
+     * @return false to stop the scan
+     */
+    boolean handleRow(List<String> columnNames, String[] values) throws IOException;
+}
@@ -0,0 +1,369 @@
+package com.miskevich.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Splits the tables of another engine into segments of a bounded number of rows, in the order the rows were
+ * appended. The first segment is the file of the table itself, the next ones are named {@code <table>.1},
+ * {@code <table>.2} and so on. Appended rows only go to the newest segment, so a checkpoint rewrites at most
+ * one segment however large the table grows, and a scan reads the segments one after another.
+ * <p>
+ * For every segment the lowest and highest value of each INT column are kept in memory, and
+ * {@link #scanMatching} skips the segments whose values lie outside the ranges of the WHERE clause: keys that
+ * grow with every insert, like most primary keys, are found in exactly one segment. The bounds are collected
+ * while a table is loaded or first scanned, and again once a segment file was changed outside of the server.
+ */
+public class SegmentedStorageEngine implements StorageEngine {
+
+    static final String MAX_ROWS_PROPERTY = "rmdb.segment.maxRows";
+    private static final int DEFAULT_MAX_ROWS = 65536;
+    private static final String SEGMENT_SEPARATOR = ".";
+
+    private final StorageEngine storageEngine;
+    private final int maxRows;
+    private final Map<String, Segments> segmentsByFile = new HashMap<>();
+
+    public SegmentedStorageEngine(StorageEngine storageEngine, int maxRows) {
+        this.storageEngine = storageEngine;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * @return the engine split into segments, or the engine itself if the maximum number of rows is not positive
+     */
+    static StorageEngine fromSystemProperties(StorageEngine storageEngine) {
+        int maxRows = Integer.getInteger(MAX_ROWS_PROPERTY, DEFAULT_MAX_ROWS);
+        return maxRows > 0 ? new SegmentedStorageEngine(storageEngine, maxRows) : storageEngine;
+    }
+
+    static String getSegmentName(String table, int segment) {
+        return segment == 0 ? table : table + SEGMENT_SEPARATOR + segment;
+    }
+
+    private static boolean isSegmentName(String name) {
+        int separator = name.lastIndexOf(SEGMENT_SEPARATOR);
+        if (separator <= 0 || separator == name.length() - 1) {
+            return false;
+        }
+        for (int i = separator + 1; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getFileSuffix() {
+        return storageEngine.getFileSuffix();
+    }
+
+    @Override
+    public File getFile(String table, String path) {
+        return storageEngine.getFile(table, path);
+    }
+
+    @Override
+    public List<File> getFiles(String table, String path) {
+        List<File> files = new ArrayList<>();
+        files.add(storageEngine.getFile(table, path));
+        for (int segment = 1; ; segment++) {
+            File file = storageEngine.getFile(getSegmentName(table, segment), path);
+            if (!file.exists()) {
+                return files;
+            }
+            files.add(file);
+        }
+    }
+
+    @Override
+    public List<String> listTables(String path) {
+        List<String> tables = new ArrayList<>();
+        for (String table : storageEngine.listTables(path)) {
+            if (!isSegmentName(table)) {
+                tables.add(table);
+            }
+        }
+        return tables;
+    }
+
+    @Override
+    public Table load(String table, String path) throws IOException {
+        List<File> files = getFiles(table, path);
+        Table result = storageEngine.load(table, path);
+        List<Segment> segments = new ArrayList<>(files.size());
+        segments.add(Segment.of(result, 0, result.getRowCount()));
+        for (int segment = 1; segment < files.size(); segment++) {
+            int firstPosition = result.getRowCount();
+            storageEngine.scan(getSegmentName(table, segment), path, null, (columnNames, values) -> {
+                result.addRow(values);
+                return true;
+            });
+            segments.add(Segment.of(result, firstPosition, result.getRowCount()));
+        }
+        remember(files, segments);
+        return result;
+    }
+
+    @Override
+    public List<String> readColumnNames(String table, String path) throws IOException {
+        return storageEngine.readColumnNames(table, path);
+    }
+
+    @Override
+    public void scan(String table, String path, List<String> columns, RowHandler rowHandler) throws IOException {
+        int segmentCount = getFiles(table, path).size();
+        for (int segment = 0; segment < segmentCount; segment++) {
+            if (!scanSegment(getSegmentName(table, segment), path, columns, rowHandler)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void scanMatching(String table, String path, RowFilter rowFilter, RowHandler rowHandler) throws IOException {
+        List<Segment> segments = getSegments(table, path);
+        for (int segment = 0; segment < segments.size(); segment++) {
+            if (segments.get(segment).mayMatch(rowFilter)
+                    && !scanSegment(getSegmentName(table, segment), path, null, rowHandler)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Looks the key up only in the segments whose bounds of the column hold it.
+     */
+    @Override
+    public String[] findRow(String table, String path, String column, int key) throws IOException {
+        List<Segment> segments = getSegments(table, path);
+        int columnIndex = storageEngine.readColumnNames(table, path).indexOf(column);
+        for (int segment = 0; segment < segments.size(); segment++) {
+            if (segments.get(segment).mayContain(columnIndex, key)) {
+                String[] row = storageEngine.findRow(getSegmentName(table, segment), path, column, key);
+                if (row != null) {
+                    return row;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return false if the handler stopped the scan
+     */
+    private boolean scanSegment(String segmentName, String path, List<String> columns, RowHandler rowHandler) throws IOException {
+        final boolean[] stopped = {false};
+        storageEngine.scan(segmentName, path, columns, (columnNames, values) -> {
+            stopped[0] = !rowHandler.handleRow(columnNames, values);
+            return !stopped[0];
+        });
+        return !stopped[0];
+    }
+
+    /**
+     * Fills the newest segment up to the maximum number of rows and writes the remaining rows into new segments.
+     * Only the new rows are handed to the engine of the segments, so the cost does not grow with the table.
+     */
+    @Override
+    public void append(String name, Table table, int fromPosition, int toPosition, String path) throws IOException {
+        List<Segment> segments = new ArrayList<>(getSegments(name, path));
+        int rowCount = 0;
+        for (Segment segment : segments) {
+            rowCount += segment.rowCount;
+        }
+        if (rowCount != fromPosition) {
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append("Segments of the table ")
+                    .append(name)
+                    .append(" hold ")
+                    .append(rowCount)
+                    .append(" rows instead of ")
+                    .append(fromPosition)
+                    .append(", they were changed outside of the server");
+            throw new IOException(stringBuilder.toString());
+        }
+
+        int position = fromPosition;
+        while (position < toPosition) {
+            int segment = segments.size() - 1;
+            Segment last = segments.get(segment);
+            if (last.rowCount >= maxRows) {
+                segment++;
+                last = new Segment(table.getColumnNames().size());
+                segments.add(last);
+            }
+            int end = Math.min(toPosition, position - last.rowCount + maxRows);
+            String segmentName = getSegmentName(name, segment);
+            if (last.rowCount == 0 && segment > 0) {
+                storageEngine.write(copyRows(table, segmentName, position, end), path);
+            } else {
+                storageEngine.append(segmentName, table, position, end, path);
+            }
+            segments.set(segment, Segment.of(last, table, position, end));
+            position = end;
+        }
+        remember(getFiles(name, path), segments);
+    }
+
+    /**
+     * Writes the table as segments of the maximum number of rows and deletes the segments it does not fill anymore.
+     */
+    @Override
+    public void write(Table table, String path) throws IOException {
+        String name = table.getName();
+        int previousSegmentCount = getFiles(name, path).size();
+        List<Segment> segments = new ArrayList<>();
+        int position = 0;
+        do {
+            int end = Math.min(table.getRowCount(), position + maxRows);
+            Table segmentTable = position == 0 && end == table.getRowCount() ? table
+                    : copyRows(table, getSegmentName(name, segments.size()), position, end);
+            storageEngine.write(segmentTable, path);
+            segments.add(Segment.of(table, position, end));
+            position = end;
+        } while (position < table.getRowCount());
+        // from the last one, so that the remaining segments are numbered without gaps
+        for (int segment = previousSegmentCount - 1; segment >= segments.size(); segment--) {
+            Files.delete(storageEngine.getFile(getSegmentName(name, segment), path).toPath());
+        }
+        remember(getFiles(name, path), segments);
+    }
+
+    private static Table copyRows(Table table, String segmentName, int fromPosition, int toPosition) {
+        Table segmentTable = new Table(new TableSchema(segmentName, table.getColumnNames(), table.getColumnTypes(), null));
+        for (int position = fromPosition; position < toPosition; position++) {
+            segmentTable.addRow(table.getRow(position));
+        }
+        return segmentTable;
+    }
+
+    private List<Segment> getSegments(String table, String path) throws IOException {
+        List<File> files = getFiles(table, path);
+        synchronized (this) {
+            Segments segments = segmentsByFile.get(files.get(0).getPath());
+            if (segments != null && segments.isUpToDate(files)) {
+                return segments.segments;
+            }
+        }
+        List<Segment> segments = new ArrayList<>(files.size());
+        for (int segment = 0; segment < files.size(); segment++) {
+            String segmentName = getSegmentName(table, segment);
+            Segment current = new Segment(storageEngine.readColumnNames(segmentName, path).size());
+            storageEngine.scan(segmentName, path, null, (columnNames, values) -> {
+                current.add(values);
+                return true;
+            });
+            segments.add(current);
+        }
+        remember(files, segments);
+        return segments;
+    }
+
+    private synchronized void remember(List<File> files, List<Segment> segments) {
+        segmentsByFile.put(files.get(0).getPath(), new Segments(Collections.unmodifiableList(segments), files));
+    }
+
+    private static class Segments {
+        private final List<Segment> segments;
+        private final int fileCount;
+        private final long length;
+        private final long lastModified;
+
+        Segments(List<Segment> segments, List<File> files) {
+            this.segments = segments;
+            this.fileCount = files.size();
+            this.length = TableCache.getLength(files);
+            this.lastModified = TableCache.getLastModified(files);
+        }
+
+        boolean isUpToDate(List<File> files) {
+            return files.size() == fileCount && TableCache.getLength(files) == length
+                    && TableCache.getLastModified(files) == lastModified;
+        }
+    }
+
+    /**
+     * Row count and bounds of the INT columns of one segment. A column is taken for INT while all of its values
+     * parse as ints; a segment is not changed once it is remembered, appends replace it with a copy.
+     */
+    private static class Segment {
+        private int rowCount;
+        private final boolean[] ints;
+        private final int[] mins;
+        private final int[] maxs;
+
+        Segment(int columnCount) {
+            this.ints = new boolean[columnCount];
+            this.mins = new int[columnCount];
+            this.maxs = new int[columnCount];
+            Arrays.fill(ints, true);
+            Arrays.fill(mins, Integer.MAX_VALUE);
+            Arrays.fill(maxs, Integer.MIN_VALUE);
+        }
+
+        private Segment(Segment previous) {
+            this.rowCount = previous.rowCount;
+            this.ints = previous.ints.clone();
+            this.mins = previous.mins.clone();
+            this.maxs = previous.maxs.clone();
+        }
+
+        static Segment of(Table table, int fromPosition, int toPosition) {
+            return of(new Segment(table.getColumnNames().size()), table, fromPosition, toPosition);
+        }
+
+        /**
+         * @return copy of the segment with the rows of the table added
+         */
+        static Segment of(Segment previous, Table table, int fromPosition, int toPosition) {
+            Segment segment = new Segment(previous);
+            for (int position = fromPosition; position < toPosition; position++) {
+                segment.add(table.getRow(position));
+            }
+            return segment;
+        }
+
+        void add(String[] values) {
+            rowCount++;
+            for (int column = 0; column < ints.length && column < values.length; column++) {
+                if (!ints[column] || values[column] == null) {
+                    continue;
+                }
+                int value;
+                try {
+                    value = Integer.parseInt(values[column]);
+                } catch (NumberFormatException e) {
+                    ints[column] = false;
+                    continue;
+                }
+                mins[column] = Math.min(mins[column], value);
+                maxs[column] = Math.max(maxs[column], value);
+            }
+        }
+
+        /**
+         * @return false if no row of the segment holds the value in the column
+         */
+        boolean mayContain(int column, int value) {
+            return column < 0 || column >= ints.length || !ints[column] || (mins[column] <= value && value <= maxs[column]);
+        }
+
+        /**
+         * @return false if no row of the segment can be in the ranges of the filter, null never is
+         */
+        boolean mayMatch(RowFilter rowFilter) {
+            for (int range = 0; range < rowFilter.getRangeCount(); range++) {
+                int column = rowFilter.getRangeColumn(range);
+                if (column < ints.length && ints[column]
+                        && (maxs[column] < rowFilter.getLow(range) || mins[column] > rowFilter.getHigh(range))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.miskevich.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@code SELECT column, ... FROM table [JOIN table ON column = column] [WHERE condition [AND condition ...]]},
+ * or {@code SELECT *} for all columns. A condition compares a column with {@code =, <, <=, >, >=} or
+ * {@code BETWEEN low AND high}.
+ * <p>
+ * The select list may have aggregates, {@code COUNT(*)} or {@code COUNT, SUM, AVG, MIN, MAX(column)}, followed by
+ * {@code GROUP BY column, ...}; the other columns of such a list have to be grouped by.
+ * <p>
+ * It may end with {@code ORDER BY column [ASC | DESC]}, {@code LIMIT count} and {@code OFFSET count}. A page
+ * after the last row seen is read with a keyset cursor, {@code WHERE p_id > last ORDER BY p_id LIMIT count}.
+ */
+public class SelectStatement extends Statement {
+
+    private final List<String> columns;
+    private final Join join;
+    private final List<Condition> conditions;
+    private final List<Aggregate> aggregates;
+    private final List<String> groupBy;
+    private final String orderBy;
+    private final boolean descending;
+    private final int limitSlot;
+    private final int offsetSlot;
+
+    SelectStatement(String table, List<String> columns, Join join, List<Condition> conditions, String[] values,
+                    int[] parameterSlots) {
+        this(table, columns, join, conditions, Collections.<Aggregate>emptyList(), Collections.<String>emptyList(),
+                null, false, -1, -1, values, parameterSlots);
+    }
+
+    /**
+     * @param limitSlot slot of the LIMIT value, -1 without LIMIT
+     * @param offsetSlot slot of the OFFSET value, -1 without OFFSET
+     */
+    SelectStatement(String table, List<String> columns, Join join, List<Condition> conditions,
+                    List<Aggregate> aggregates, List<String> groupBy, String orderBy, boolean descending,
+                    int limitSlot, int offsetSlot, String[] values, int[] parameterSlots) {
+        super(table, values, parameterSlots);
+        this.columns = columns;
+        this.join = join;
+        this.conditions = conditions;
+        this.aggregates = aggregates;
+        this.groupBy = groupBy;
+        this.orderBy = orderBy;
+        this.descending = descending;
+        this.limitSlot = limitSlot;
+        this.offsetSlot = offsetSlot;
+    }
+
+    @Override
+    public Type getType() {
+        return Type.SELECT;
+    }
+
+    /**
+     * @return selected columns, null for {@code SELECT *}; an aggregate is listed by its name, see {@link #getAggregate}
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public boolean isAllColumns() {
+        return columns == null;
+    }
+
+    /**
+     * @return the joined table, or null for a select from one table
+     */
+    public Join getJoin() {
+        return join;
+    }
+
+    /**
+     * @return true for a select with aggregates or GROUP BY, which returns one row per group
+     */
+    public boolean isAggregated() {
+        return !aggregates.isEmpty() || !groupBy.isEmpty();
+    }
+
+    public List<Aggregate> getAggregates() {
+        return aggregates;
+    }
+
+    /**
+     * @return aggregate of the selected column, or null for a plain column
+     */
+    public Aggregate getAggregate(String column) {
+        for (Aggregate aggregate : aggregates) {
+            if (aggregate.getName().equals(column)) {
+                return aggregate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return columns of GROUP BY, empty without it
+     */
+    public List<String> getGroupBy() {
+        return groupBy;
+    }
+
+    /**
+     * @return column of ORDER BY, or null for rows in table order
+     */
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * @return true if the select has ORDER BY, LIMIT or OFFSET
+     */
+    public boolean isPaged() {
+        return orderBy != null || limitSlot >= 0 || offsetSlot >= 0;
+    }
+
+    /**
+     * @return maximum number of rows to return, {@link Integer#MAX_VALUE} without LIMIT
+     */
+    public int getLimit() {
+        return limitSlot < 0 ? Integer.MAX_VALUE : getCount(limitSlot, "LIMIT");
+    }
+
+    /**
+     * @return number of leading rows to skip, 0 without OFFSET
+     */
+    public int getOffset() {
+        return offsetSlot < 0 ? 0 : getCount(offsetSlot, "OFFSET");
+    }
+
+    private int getCount(int slot, String clause) {
+        String value = getValue(slot);
+        int count;
+        try {
+            count = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            count = -1;
+        }
+        if (count < 0) {
+            throw new ServerException(clause + " value '" + value + "' is not a count of rows");
+        }
+        return count;
+    }
+
+    public boolean hasWhere() {
+        return !conditions.isEmpty();
+    }
+
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    public List<String> getConditionColumns() {
+        List<String> conditionColumns = new ArrayList<>(conditions.size());
+        for (Condition condition : conditions) {
+            conditionColumns.add(condition.getColumn());
+        }
+        return conditionColumns;
+    }
+
+    public String getValue(Condition condition) {
+        return getValue(condition.getSlot());
+    }
+
+    /**
+     * @return upper bound of a BETWEEN condition
+     */
+    public String getHighValue(Condition condition) {
+        return getValue(condition.getHighSlot());
+    }
+
+    /**
+     * @return column of the first condition
+     */
+    public String getWhereColumn() {
+        return conditions.isEmpty() ? null : conditions.get(0).getColumn();
+    }
+
+    /**
+     * @return value of the first condition
+     */
+    public String getWhereValue() {
+        return conditions.isEmpty() ? null : getValue(conditions.get(0));
+    }
+
+    @Override
+    Statement withValues(String[] values) {
+        return new SelectStatement(getTable(), columns, join, conditions, aggregates, groupBy, orderBy, descending,
+                limitSlot, offsetSlot, values, getParameterSlots());
+    }
+}
@@ -0,0 +1,84 @@
+package com.miskevich.core;
+
+/**
+ * Startup options of the server, given as {@code --name=value} arguments of {@link Session}.
+ */
+public class ServerConfig {
+
+    public enum ExecutorMode {
+        POOL, VIRTUAL
+    }
+
+    public enum Frontend {
+        BLOCKING, NIO
+    }
+
+    private int port = 3000;
+    private Frontend frontend = Frontend.BLOCKING;
+    private ExecutorMode executorMode = ExecutorMode.POOL;
+    private int threads = 64;
+    private int queueCapacity = 1024;
+    private int idleTimeoutMillis = 60000;
+
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Unknown argument " + arg + ", expected --name=value");
+            }
+            String name = arg.substring(2, arg.indexOf("="));
+            String value = arg.substring(arg.indexOf("=") + 1);
+            config.set(name, value);
+        }
+        return config;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "port":
+                port = Integer.parseInt(value);
+                break;
+            case "frontend":
+                frontend = Frontend.valueOf(value.toUpperCase());
+                break;
+            case "executor":
+                executorMode = ExecutorMode.valueOf(value.toUpperCase());
+                break;
+            case "threads":
+                threads = Integer.parseInt(value);
+                break;
+            case "queue":
+                queueCapacity = Integer.parseInt(value);
+                break;
+            case "idleTimeout":
+                idleTimeoutMillis = Integer.parseInt(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option --" + name);
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Frontend getFrontend() {
+        return frontend;
+    }
+
+    public ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+}
@@ -7,13 +7,21 @@ import java.net.ServerSocket;
 public class Session {
 
     public static void main(String[] args) throws IOException {
+        ServerConfig config = ServerConfig.fromArgs(args);
+        DataBaseService.startStorage();
         System.out.println("Server started...");
-        ServerSocket serverSocket = new ServerSocket(3000);
 
+        if (config.getFrontend() == ServerConfig.Frontend.NIO) {
+            new NioServer(config).run();
+            return;
+        }
+
+        ConnectionExecutor connectionExecutor = ConnectionExecutor.create(config);
+        DataBaseService.METRICS.setConnectionExecutor(connectionExecutor);
+        ServerSocket serverSocket = new ServerSocket(config.getPort());
         while (true){
             Socket socket = serverSocket.accept();
-            Thread thread = new Thread(new MyServerSocket(socket));
-            thread.start();
+            connectionExecutor.execute(socket);
         }
     }
 }
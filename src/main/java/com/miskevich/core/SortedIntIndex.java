@@ -0,0 +1,144 @@
+package com.miskevich.core;
+
+import java.util.Arrays;
+
+/**
+ * Sorted secondary index from a primitive int key to row positions, answering range lookups with two binary
+ * searches. Every entry is one long, the key in the high half and the position in the low half, so the whole
+ * index is a single sorted primitive array without boxing or per-entry objects. Duplicate keys are allowed.
+ * <p>
+ * An index does not change once it is built, so it can be read without locking while rows are inserted:
+ * {@link #add} returns a new index. An append in key order shares the array and is O(1), because readers of the
+ * older index never look past its size; other inserts copy the array.
+ */
+public class SortedIntIndex {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final long[] entries;
+    private final int size;
+
+    public SortedIntIndex() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SortedIntIndex(int expectedSize) {
+        this(new long[Math.max(expectedSize, DEFAULT_CAPACITY)], 0);
+    }
+
+    private SortedIntIndex(long[] entries, int size) {
+        this.entries = entries;
+        this.size = size;
+    }
+
+    /**
+     * Builds the index from unsorted keys with one sort instead of one insert per key.
+     */
+    static SortedIntIndex build(int[] keys, int[] positions, int count) {
+        long[] entries = new long[Math.max(count, DEFAULT_CAPACITY)];
+        for (int i = 0; i < count; i++) {
+            entries[i] = entry(keys[i], positions[i]);
+        }
+        Arrays.sort(entries, 0, count);
+        return new SortedIntIndex(entries, count);
+    }
+
+    /**
+     * Must only be called on the newest index, since appends write into the array it shares with older ones.
+     *
+     * @return index with the entry added, this index is left unchanged
+     */
+    public SortedIntIndex add(int key, int position) {
+        long entry = entry(key, position);
+        if (size < entries.length && (size == 0 || entries[size - 1] <= entry)) {
+            entries[size] = entry;
+            return new SortedIntIndex(entries, size + 1);
+        }
+        long[] copy = new long[size == entries.length ? size << 1 : entries.length];
+        int insertAt = lowerBound(entry);
+        System.arraycopy(entries, 0, copy, 0, insertAt);
+        copy[insertAt] = entry;
+        System.arraycopy(entries, insertAt, copy, insertAt + 1, size - insertAt);
+        return new SortedIntIndex(copy, size + 1);
+    }
+
+    /**
+     * @return number of entries with a key from low to high, both inclusive
+     */
+    public int count(int low, int high) {
+        if (low > high) {
+            return 0;
+        }
+        return upperBound(high) - lowerBound(entry(low, 0));
+    }
+
+    /**
+     * @return positions of the rows with a key from low to high, both inclusive, ordered by key
+     */
+    public int[] find(int low, int high) {
+        if (low > high) {
+            return new int[0];
+        }
+        int from = lowerBound(entry(low, 0));
+        int to = upperBound(high);
+        int[] positions = new int[to - from];
+        for (int i = from; i < to; i++) {
+            positions[i - from] = (int) entries[i];
+        }
+        return positions;
+    }
+
+    /**
+     * @return index of the first entry with a key of at least low; with {@link #end} and {@link #getPosition}
+     * the entries of a range are walked in key order without copying them
+     */
+    public int begin(int low) {
+        return lowerBound(entry(low, 0));
+    }
+
+    /**
+     * @return index past the last entry with a key of at most high
+     */
+    public int end(int high) {
+        return upperBound(high);
+    }
+
+    /**
+     * @return row position of the entry at the index
+     */
+    public int getPosition(int index) {
+        return (int) entries[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static long entry(int key, int position) {
+        return ((long) key << 32) | (position & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return index of the first entry not less than the given one
+     */
+    private int lowerBound(long entry) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (entries[middle] < entry) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return index of the first entry with a key greater than the given one
+     */
+    private int upperBound(int key) {
+        return key == Integer.MAX_VALUE ? size : lowerBound(entry(key + 1, 0));
+    }
+}
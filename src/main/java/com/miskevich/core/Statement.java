@@ -0,0 +1,84 @@
+package com.miskevich.core;
+
+import java.util.List;
+
+/**
+ * Parsed query. The values of a statement are kept in slots: a statement parsed from the parameterized form
+ * of a query is a template whose parameter slots are empty, and {@link #bind} gives a copy with the values of
+ * one concrete query. Statements are immutable, so one instance may serve any number of connections.
+ */
+public abstract class Statement {
+
+    public enum Type {
+        SELECT, INSERT, CREATE_INDEX, CREATE_TABLE, STATS
+    }
+
+    private final String table;
+    private final String[] values;
+    private final int[] parameterSlots;
+    private String normalizedQuery;
+
+    Statement(String table, String[] values, int[] parameterSlots) {
+        this.table = table;
+        this.values = values;
+        this.parameterSlots = parameterSlots;
+    }
+
+    public abstract Type getType();
+
+    public String getTable() {
+        return table;
+    }
+
+    String getValue(int slot) {
+        String value = values[slot];
+        if (value == null) {
+            throw new ServerException("No value for the parameter of the query");
+        }
+        return value;
+    }
+
+    int getParameterCount() {
+        return parameterSlots.length;
+    }
+
+    /**
+     * @param key parameterized form of the query, see {@link QueryTokenizer#getKey}
+     */
+    Statement bind(String key, List<String> parameters) {
+        if (parameters.size() != parameterSlots.length) {
+            throw new IllegalArgumentException("Statement has " + parameterSlots.length + " parameters, got " + parameters.size());
+        }
+        String[] boundValues = values.clone();
+        StringBuilder stringBuilder = new StringBuilder(key);
+        for (int i = 0; i < parameterSlots.length; i++) {
+            boundValues[parameterSlots[i]] = parameters.get(i);
+            // the length keeps values apart that contain the separator
+            stringBuilder.append('\n')
+                    .append(parameters.get(i).length())
+                    .append(':')
+                    .append(parameters.get(i));
+        }
+        Statement statement = withValues(boundValues);
+        statement.normalizedQuery = stringBuilder.toString();
+        return statement;
+    }
+
+    /**
+     * @return the parameterized form of the query followed by its values, the same for all queries that differ
+     * only in whitespace; null for a statement that was not bound
+     */
+    String getNormalizedQuery() {
+        return normalizedQuery;
+    }
+
+    String[] getValues() {
+        return values;
+    }
+
+    int[] getParameterSlots() {
+        return parameterSlots;
+    }
+
+    abstract Statement withValues(String[] values);
+}
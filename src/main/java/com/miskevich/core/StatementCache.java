@@ -0,0 +1,96 @@
+package com.miskevich.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parses queries and keeps the results. A query seen before is answered from the cache by its exact text.
+ * Otherwise it is tokenized, and its parameterized form - {@code SELECT ... WHERE p_id = ?} - is looked up,
+ * so queries that differ only in their values are parsed once and merely bound afterwards.
+ * Both maps are bounded and evict the least recently used entries.
+ */
+public class StatementCache {
+
+    private static final String SIZE_PROPERTY = "rmdb.statementCache.size";
+    private static final int DEFAULT_SIZE = 1024;
+
+    private final Map<String, Statement> statements;
+    private final Map<String, Statement> templates;
+    private long hitCount;
+    private long templateHitCount;
+    private long missCount;
+
+    public StatementCache(int size) {
+        this.statements = new LruMap<>(size);
+        this.templates = new LruMap<>(size);
+    }
+
+    public static StatementCache fromSystemProperties() {
+        return new StatementCache(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE));
+    }
+
+    public Statement parse(String query) {
+        synchronized (this) {
+            Statement statement = statements.get(query);
+            if (statement != null) {
+                hitCount++;
+                return statement;
+            }
+        }
+
+        QueryTokenizer tokenizer = QueryTokenizer.tokenize(query);
+        String key = tokenizer.getKey();
+        Statement template;
+        synchronized (this) {
+            template = templates.get(key);
+            if (template != null) {
+                templateHitCount++;
+            } else {
+                missCount++;
+            }
+        }
+        if (template == null) {
+            template = QueryParser.parse(tokenizer);
+            synchronized (this) {
+                templates.put(key, template);
+            }
+        }
+
+        Statement statement = template.bind(key, tokenizer.getParameters());
+        if (statement.getType() != Statement.Type.INSERT) {
+            // the text of an insert is rarely sent twice, keeping it would only evict the selects
+            synchronized (this) {
+                statements.put(query, statement);
+            }
+        }
+        return statement;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getTemplateHitCount() {
+        return templateHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
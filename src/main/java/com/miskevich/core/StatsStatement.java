@@ -0,0 +1,21 @@
+package com.miskevich.core;
+
+/**
+ * {@code STATS}, answered with one row holding the metrics of the server.
+ */
+public class StatsStatement extends Statement {
+
+    StatsStatement(String[] values, int[] parameterSlots) {
+        super(null, values, parameterSlots);
+    }
+
+    @Override
+    public Type getType() {
+        return Type.STATS;
+    }
+
+    @Override
+    Statement withValues(String[] values) {
+        return new StatsStatement(values, getParameterSlots());
+    }
+}
@@ -0,0 +1,32 @@
+package com.miskevich.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Converts the table files of the data directory from one storage engine to another, for example
+ * {@code StorageConverter xlsx binary persons phones}. Without table names all tables are converted.
+ * Run it while the server is stopped, after the write-ahead log was checkpointed.
+ */
+public class StorageConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: StorageConverter <xlsx|binary> <xlsx|binary> [table...]");
+            return;
+        }
+        StorageEngine from = StorageEngine.forName(args[0]);
+        StorageEngine to = StorageEngine.forName(args[1]);
+        List<String> tables = args.length > 2 ? Arrays.asList(args).subList(2, args.length)
+                : from.listTables(DataBaseService.PATH);
+        for (String table : tables) {
+            convert(table, from, to, DataBaseService.PATH);
+            System.out.println("Table " + table + " was converted to " + to.getFile(table, DataBaseService.PATH));
+        }
+    }
+
+    static void convert(String table, StorageEngine from, StorageEngine to, String path) throws IOException {
+        to.write(from.load(table, path), path);
+    }
+}
@@ -0,0 +1,113 @@
+package com.miskevich.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * On-disk format of the tables. Every table is one file named after the table with the suffix of the engine,
+ * or a few of them once {@link SegmentedStorageEngine} splits it into segments.
+ * Rows are only ever appended, which lets the checkpointer write just the rows added since the last checkpoint.
+ */
+public interface StorageEngine {
+
+    String STORAGE_PROPERTY = "rmdb.storage";
+
+    /**
+     * @param name xlsx or binary
+     * @return the engine, split into segments as configured by {@link SegmentedStorageEngine#fromSystemProperties}
+     */
+    static StorageEngine forName(String name) {
+        switch (name.toLowerCase()) {
+            case "xlsx":
+                return SegmentedStorageEngine.fromSystemProperties(new XlsxStorageEngine());
+            case "binary":
+                return SegmentedStorageEngine.fromSystemProperties(new BinaryStorageEngine());
+            default:
+                throw new ServerException("Unknown storage engine " + name);
+        }
+    }
+
+    static StorageEngine fromSystemProperties() {
+        return forName(System.getProperty(STORAGE_PROPERTY, "xlsx"));
+    }
+
+    String getFileSuffix();
+
+    /**
+     * @return the file of the table, the first segment of a table split into segments
+     */
+    File getFile(String table, String path);
+
+    /**
+     * @return all files that hold rows of the table, in the order of the rows
+     */
+    default List<File> getFiles(String table, String path) {
+        return Collections.singletonList(getFile(table, path));
+    }
+
+    List<String> listTables(String path);
+
+    Table load(String table, String path) throws IOException;
+
+    List<String> readColumnNames(String table, String path) throws IOException;
+
+    default void scan(String table, String path, RowHandler rowHandler) throws IOException {
+        scan(table, path, null, rowHandler);
+    }
+
+    /**
+     * Hands the rows to the handler while the file is read, without keeping the table in memory.
+     * Only the selected columns are decoded and handed over, in the order of the selection.
+     *
+     * @param columns selected columns, null for all of them
+     */
+    void scan(String table, String path, List<String> columns, RowHandler rowHandler) throws IOException;
+
+    /**
+     * Scans all columns, but may leave out parts of the table that hold no rows in the ranges of the filter.
+     * The handler still gets rows that do not pass the filter and has to check them.
+     */
+    default void scanMatching(String table, String path, RowFilter rowFilter, RowHandler rowHandler) throws IOException {
+        scan(table, path, null, rowHandler);
+    }
+
+    /**
+     * Finds the row whose INT column holds the key, for lookups by the primary key of a table that is not cached.
+     * The default scans the table until the row is found; engines that can locate a record without reading the
+     * others override it.
+     *
+     * @return all columns of the row, null if no row holds the key
+     */
+    default String[] findRow(String table, String path, String column, int key) throws IOException {
+        int columnIndex = readColumnNames(table, path).indexOf(column);
+        String value = String.valueOf(key);
+        final String[][] found = {null};
+        scan(table, path, null, (columnNames, values) -> {
+            if (columnIndex >= 0 && value.equals(values[columnIndex])) {
+                found[0] = values;
+            }
+            return found[0] == null;
+        });
+        return found[0];
+    }
+
+    /**
+     * Adds the rows of the table from the given position up to, not including, the end position to the file.
+     */
+    default void append(Table table, int fromPosition, int toPosition, String path) throws IOException {
+        append(table.getName(), table, fromPosition, toPosition, path);
+    }
+
+    /**
+     * Adds the rows of the table from the given position up to, not including, the end position to the file of
+     * the named table, e.g. of a segment that holds part of the rows.
+     */
+    void append(String name, Table table, int fromPosition, int toPosition, String path) throws IOException;
+
+    /**
+     * Writes the whole table into a new file, replacing an existing one.
+     */
+    void write(Table table, String path) throws IOException;
+}
@@ -0,0 +1,435 @@
+package com.miskevich.core;
+
+import java.util.*;
+
+/**
+ * In-memory rows of a table together with its schema, primary key and secondary indexes.
+ * <p>
+ * A table that is shared between queries is a read-only version: an insert creates the next version with
+ * {@link #withRows} instead of changing it, so a query that holds a version sees the same rows from start to end
+ * without taking a lock. Versions share the row chunks and the primary key index, which only grow: new rows go
+ * past the row count of every older version, and lookups of an older version ignore positions past its count.
+ * The index publishes its entries with ordered writes, see {@link IntHashIndex}, so a reader of an older version
+ * never sees an entry half written while the next version is filled.
+ * <p>
+ * The values of INT columns are also kept parsed, in chunks of ints parallel to the row chunks, so aggregates and
+ * range filters read them without parsing a string per row.
+ */
+public class Table {
+
+    private static final int OBJECT_OVERHEAD = 16;
+    private static final int STRING_OVERHEAD = 40;
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final int SORTED_INDEX_ENTRY_SIZE = 8;
+    private static final int INT_VALUE_SIZE = 4;
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private TableSchema schema;
+    private final Shared shared;
+    private String[][][] chunks;
+    private int[][][] intChunks;
+    private long[][][] nullChunks;
+    private int rowCount;
+    private long estimatedSize;
+    private int primaryKeyColumnIndex = -1;
+    private IntHashIndex primaryKeyIndex;
+    private final SortedIntIndex[] indexes;
+
+    /**
+     * Table of string columns without a primary key, see {@link #setSchema}.
+     */
+    public Table(String name, List<String> columnNames) {
+        this(TableSchema.untyped(name, columnNames));
+    }
+
+    public Table(TableSchema schema) {
+        this.schema = schema;
+        this.shared = new Shared();
+        this.chunks = new String[1][][];
+        this.indexes = new SortedIntIndex[schema.getColumnNames().size()];
+        this.estimatedSize = OBJECT_OVERHEAD;
+        for (String columnName : schema.getColumnNames()) {
+            estimatedSize += estimateSize(columnName);
+        }
+        buildIntColumns();
+        setPrimaryKey(schema.getPrimaryKey());
+    }
+
+    private Table(Table previous) {
+        this.schema = previous.schema;
+        this.shared = previous.shared;
+        this.chunks = previous.chunks;
+        this.intChunks = previous.intChunks.clone();
+        this.nullChunks = previous.nullChunks.clone();
+        this.rowCount = previous.rowCount;
+        this.estimatedSize = previous.estimatedSize;
+        this.primaryKeyColumnIndex = previous.primaryKeyColumnIndex;
+        this.primaryKeyIndex = previous.primaryKeyIndex;
+        this.indexes = previous.indexes.clone();
+    }
+
+    public String getName() {
+        return schema.getName();
+    }
+
+    public TableSchema getSchema() {
+        return schema;
+    }
+
+    public List<String> getColumnNames() {
+        return schema.getColumnNames();
+    }
+
+    public List<TableSchema.ColumnType> getColumnTypes() {
+        return schema.getColumnTypes();
+    }
+
+    public boolean isNumericColumn(int column) {
+        return schema.isNumericColumn(column);
+    }
+
+    /**
+     * Gives the columns the types of the schema and indexes its primary key. Like {@link #addRow} it is only
+     * allowed while the table is not shared yet.
+     */
+    public void setSchema(TableSchema schema) {
+        if (!schema.getColumnNames().equals(getColumnNames())) {
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append("Columns ")
+                    .append(getColumnNames())
+                    .append(" of the table ")
+                    .append(getName())
+                    .append(" do not match the catalog: ")
+                    .append(schema);
+            throw new ServerException(stringBuilder.toString());
+        }
+        this.schema = schema;
+        buildIntColumns();
+        setPrimaryKey(schema.getPrimaryKey());
+    }
+
+    public int getColumnIndex(String columnName) {
+        List<String> columnNames = getColumnNames();
+        for (int i = 0; i < columnNames.size(); i++) {
+            if (columnNames.get(i).equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public String[] getRow(int position) {
+        if (position < 0 || position >= rowCount) {
+            throw new IndexOutOfBoundsException("Position: " + position + ", row count: " + rowCount);
+        }
+        return chunks[position >>> CHUNK_BITS][position & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * @return value of an INT column at the position, 0 for null, see {@link #isNull}
+     */
+    public int getInt(int column, int position) {
+        return intChunks[column][position >>> CHUNK_BITS][position & (CHUNK_SIZE - 1)];
+    }
+
+    public boolean isNull(int column, int position) {
+        if (intChunks[column] == null) {
+            return getRow(position)[column] == null;
+        }
+        int offset = position & (CHUNK_SIZE - 1);
+        return (nullChunks[column][position >>> CHUNK_BITS][offset >>> 6] & (1L << offset)) != 0;
+    }
+
+    /**
+     * Appends the row to this table in place, which is only allowed while the table is not shared yet,
+     * e.g. while it is loaded. Shared tables get new rows through {@link #withRows}.
+     */
+    public void addRow(String[] row) {
+        int position = rowCount;
+        int chunk = position >>> CHUNK_BITS;
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length << 1);
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new String[CHUNK_SIZE][];
+        }
+        chunks[chunk][position & (CHUNK_SIZE - 1)] = row;
+        for (int column = 0; column < intChunks.length; column++) {
+            if (intChunks[column] != null) {
+                addInt(column, position, row[column]);
+            }
+        }
+        rowCount++;
+        if (primaryKeyIndex != null) {
+            if (primaryKeyIndex.isFull()) {
+                primaryKeyIndex = primaryKeyIndex.grow();
+            }
+            indexRow(row, position);
+        }
+        for (int column = 0; column < indexes.length; column++) {
+            if (indexes[column] != null && row[column] != null) {
+                indexes[column] = indexes[column].add(toInt(row[column]), position);
+                estimatedSize += SORTED_INDEX_ENTRY_SIZE;
+            }
+        }
+        estimatedSize += OBJECT_OVERHEAD + 4 * row.length + INDEX_ENTRY_SIZE;
+        for (String value : row) {
+            estimatedSize += estimateSize(value);
+        }
+    }
+
+    private void buildIntColumns() {
+        int columnCount = getColumnNames().size();
+        intChunks = new int[columnCount][][];
+        nullChunks = new long[columnCount][][];
+        for (int column = 0; column < columnCount; column++) {
+            if (isNumericColumn(column)) {
+                intChunks[column] = new int[chunks.length][];
+                nullChunks[column] = new long[chunks.length][];
+                for (int position = 0; position < rowCount; position++) {
+                    addInt(column, position, getRow(position)[column]);
+                }
+            }
+        }
+    }
+
+    private void addInt(int column, int position, String value) {
+        int chunk = position >>> CHUNK_BITS;
+        if (chunk == intChunks[column].length) {
+            intChunks[column] = Arrays.copyOf(intChunks[column], chunks.length);
+            nullChunks[column] = Arrays.copyOf(nullChunks[column], chunks.length);
+        }
+        if (intChunks[column][chunk] == null) {
+            intChunks[column][chunk] = new int[CHUNK_SIZE];
+            nullChunks[column][chunk] = new long[CHUNK_SIZE >>> 6];
+        }
+        int offset = position & (CHUNK_SIZE - 1);
+        if (value == null) {
+            nullChunks[column][chunk][offset >>> 6] |= 1L << offset;
+        } else {
+            intChunks[column][chunk][offset] = toInt(value);
+        }
+        estimatedSize += INT_VALUE_SIZE;
+    }
+
+    /**
+     * Next version of the table with the rows appended; this version stays unchanged. It must be called on the
+     * newest version only and by one writer at a time, as the versions share the storage the rows are added to.
+     */
+    public Table withRows(List<String[]> rows) {
+        Table next = new Table(this);
+        for (String[] row : rows) {
+            next.addRow(row);
+        }
+        return next;
+    }
+
+    /**
+     * Next version of the table with a sorted index over the column, see {@link #createIndex}.
+     */
+    public Table withIndex(String columnName) {
+        Table next = new Table(this);
+        next.createIndex(columnName);
+        return next;
+    }
+
+    /**
+     * @return true if both tables are versions of the same loaded table
+     */
+    public boolean isVersionOf(Table other) {
+        return shared == other.shared;
+    }
+
+    /**
+     * Builds the primary key index over the given column, and a sorted index that serves ranges and ORDER BY
+     * on it; rows added afterwards are indexed as they come.
+     */
+    public void setPrimaryKey(String columnName) {
+        primaryKeyColumnIndex = getColumnIndex(columnName);
+        if (primaryKeyColumnIndex < 0) {
+            primaryKeyIndex = null;
+            return;
+        }
+        primaryKeyIndex = new IntHashIndex(rowCount);
+        for (int position = 0; position < rowCount; position++) {
+            indexRow(getRow(position), position);
+        }
+        createIndex(columnName);
+    }
+
+    /**
+     * Builds a sorted index over the int values of the column; rows added afterwards are indexed as they come.
+     */
+    public void createIndex(String columnName) {
+        int column = getColumnIndex(columnName);
+        if (column < 0 || indexes[column] != null) {
+            return;
+        }
+        int[] keys = new int[rowCount];
+        int[] positions = new int[rowCount];
+        int count = 0;
+        for (int position = 0; position < rowCount; position++) {
+            String value = getRow(position)[column];
+            if (value != null) {
+                keys[count] = toInt(value);
+                positions[count++] = position;
+            }
+        }
+        indexes[column] = SortedIntIndex.build(keys, positions, count);
+        estimatedSize += (long) SORTED_INDEX_ENTRY_SIZE * count;
+    }
+
+    /**
+     * @return sorted index over the column, or null if the column is not indexed
+     */
+    public SortedIntIndex getIndex(int column) {
+        return indexes[column];
+    }
+
+    public String getPrimaryKeyColumnName() {
+        return primaryKeyColumnIndex < 0 ? null : getColumnNames().get(primaryKeyColumnIndex);
+    }
+
+    public boolean isPrimaryKey(String columnName) {
+        return primaryKeyIndex != null && getColumnNames().get(primaryKeyColumnIndex).equalsIgnoreCase(columnName);
+    }
+
+    /**
+     * Returns the position of the row with the given primary key, or {@link IntHashIndex#NOT_FOUND}.
+     */
+    public int findRowByPrimaryKey(int key) {
+        if (primaryKeyIndex == null) {
+            return IntHashIndex.NOT_FOUND;
+        }
+        int position = primaryKeyIndex.get(key);
+        return position < rowCount ? position : IntHashIndex.NOT_FOUND;
+    }
+
+    public boolean containsPrimaryKey(int key) {
+        return findRowByPrimaryKey(key) != IntHashIndex.NOT_FOUND;
+    }
+
+    /**
+     * Number of leading rows that are already stored in the table file; rows after it live only in the log.
+     * The count is common to all versions of the table.
+     */
+    public int getPersistedRowCount() {
+        return shared.persistedRowCount;
+    }
+
+    public void setPersistedRowCount(int persistedRowCount) {
+        shared.persistedRowCount = persistedRowCount;
+    }
+
+    public Map<String, String> getRowAsMap(int position) {
+        String[] row = getRow(position);
+        Map<String, String> columnNameToColumnValue = new HashMap<>();
+        for (int i = 0; i < row.length; i++) {
+            if (row[i] != null) {
+                columnNameToColumnValue.put(getColumnNames().get(i), row[i]);
+            }
+        }
+        return columnNameToColumnValue;
+    }
+
+    /**
+     * Only the given columns of the row, in the given order.
+     *
+     * @param columns column indexes as returned by {@link #getColumnIndexes}
+     */
+    public Map<String, String> getRowAsMap(int position, int[] columns) {
+        String[] row = getRow(position);
+        Map<String, String> columnNameToColumnValue = new LinkedHashMap<>();
+        for (int column : columns) {
+            if (column >= 0 && row[column] != null) {
+                columnNameToColumnValue.put(getColumnNames().get(column), row[column]);
+            }
+        }
+        return columnNameToColumnValue;
+    }
+
+    public int[] getColumnIndexes(List<String> selectedColumns) {
+        return getColumnIndexes(getColumnNames(), selectedColumns);
+    }
+
+    /**
+     * Maps the selected columns to their indexes in the column list, -1 for an unknown column.
+     * Without a selection all columns are returned. In a list of qualified names, {@code table.column},
+     * a plain name selects the column of that name if exactly one table has it.
+     */
+    static int[] getColumnIndexes(List<String> columnNames, List<String> selectedColumns) {
+        if (selectedColumns == null) {
+            int[] columns = new int[columnNames.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = i;
+            }
+            return columns;
+        }
+        int[] columns = new int[selectedColumns.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = getColumnIndex(columnNames, selectedColumns.get(i));
+        }
+        return columns;
+    }
+
+    private static int getColumnIndex(List<String> columnNames, String selectedColumn) {
+        for (int j = 0; j < columnNames.size(); j++) {
+            if (columnNames.get(j).equalsIgnoreCase(selectedColumn)) {
+                return j;
+            }
+        }
+        if (selectedColumn.indexOf('.') >= 0) {
+            return -1;
+        }
+        int found = -1;
+        for (int j = 0; j < columnNames.size(); j++) {
+            String columnName = columnNames.get(j);
+            int dot = columnName.lastIndexOf('.');
+            if (dot >= 0 && columnName.substring(dot + 1).equalsIgnoreCase(selectedColumn)) {
+                if (found >= 0) {
+                    throw new ServerException("Column '" + selectedColumn + "' is ambiguous");
+                }
+                found = j;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Rough heap footprint of the table, used by {@link TableCache} to keep the cache under its memory cap.
+     */
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    private void indexRow(String[] row, int position) {
+        String key = row[primaryKeyColumnIndex];
+        if (key != null) {
+            primaryKeyIndex.put(toInt(key), position);
+        }
+    }
+
+    static int toInt(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return (int) Double.parseDouble(value);
+        }
+    }
+
+    private static long estimateSize(String value) {
+        return value == null ? 0 : STRING_OVERHEAD + 2 * value.length();
+    }
+
+    /**
+     * State common to all versions of one loaded table.
+     */
+    private static class Shared {
+        private volatile int persistedRowCount;
+    }
+}
@@ -0,0 +1,532 @@
+package com.miskevich.core;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps parsed tables in memory so that queries do not open the workbook again.
+ * An entry is reloaded when its file was changed outside of the server, and the least recently used
+ * tables are evicted once the estimated size of all entries exceeds the configured cap.
+ * Tables with inserts that are not checkpointed yet are dirty: they are never reloaded or evicted.
+ * Secondary indexes are kept with the cache and rebuilt whenever their table is loaded again.
+ * <p>
+ * Inserts and index builds replace the cached {@link Table} with its next version, so a query reads the version
+ * it got from {@link #get} without blocking writers and without seeing their rows. Writers of one table are
+ * serialized by the lock of {@link #getWriteLock}. An insert is first staged: the next writer sees its rows, but
+ * queries do not until it is {@link #publish published} once its log records are durable.
+ * <p>
+ * A cached table is read without a lock and without touching its files; whether the files were changed is checked
+ * at most once per {@code rmdb.cache.checkIntervalMillis}. Loads, inserts and index builds lock only their own
+ * entry, so a table that is parsed does not hold up queries of the others.
+ * <p>
+ * Every table has a version number that grows whenever queries may see different rows: when an insert is published,
+ * an index is built or the table is loaded from its file. {@link ResultCache} keys results by it.
+ */
+public class TableCache {
+
+    private static final String MAX_BYTES_PROPERTY = "rmdb.cache.maxBytes";
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final String STREAM_MIN_FILE_BYTES_PROPERTY = "rmdb.stream.minFileBytes";
+    private static final long DEFAULT_STREAM_MIN_FILE_BYTES = 4L * 1024 * 1024;
+    private static final String CHECK_INTERVAL_PROPERTY = "rmdb.cache.checkIntervalMillis";
+    private static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1000;
+
+    private final StorageEngine storageEngine;
+    private final Catalog catalog;
+    private final long maxBytes;
+    private final long streamMinFileBytes;
+    private final long checkIntervalNanos;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> indexedColumns = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Object> writeLocks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> versions = new ConcurrentHashMap<>();
+    private final AtomicLong currentBytes = new AtomicLong();
+    private final Object evictionLock = new Object();
+
+    public TableCache(long maxBytes) {
+        this(new XlsxStorageEngine(), maxBytes, DEFAULT_STREAM_MIN_FILE_BYTES);
+    }
+
+    public TableCache(StorageEngine storageEngine, long maxBytes, long streamMinFileBytes) {
+        this(storageEngine, maxBytes, streamMinFileBytes, DEFAULT_CHECK_INTERVAL_MILLIS);
+    }
+
+    public TableCache(StorageEngine storageEngine, long maxBytes, long streamMinFileBytes, long checkIntervalMillis) {
+        this(storageEngine, null, maxBytes, streamMinFileBytes, checkIntervalMillis);
+    }
+
+    /**
+     * @param catalog             schemas of the tables of the directory the cache reads, null to open the catalog
+     *                            of the directory of every table
+     * @param checkIntervalMillis how long a cached table is read without checking its files, 0 checks on every read
+     */
+    public TableCache(StorageEngine storageEngine, Catalog catalog, long maxBytes, long streamMinFileBytes,
+                      long checkIntervalMillis) {
+        this.storageEngine = storageEngine;
+        this.catalog = catalog;
+        this.maxBytes = maxBytes;
+        this.streamMinFileBytes = streamMinFileBytes;
+        this.checkIntervalNanos = TimeUnit.MILLISECONDS.toNanos(checkIntervalMillis);
+    }
+
+    public static TableCache fromSystemProperties(StorageEngine storageEngine, Catalog catalog) {
+        return new TableCache(storageEngine, catalog, Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES),
+                Long.getLong(STREAM_MIN_FILE_BYTES_PROPERTY, DEFAULT_STREAM_MIN_FILE_BYTES),
+                Long.getLong(CHECK_INTERVAL_PROPERTY, DEFAULT_CHECK_INTERVAL_MILLIS));
+    }
+
+    public StorageEngine getStorageEngine() {
+        return storageEngine;
+    }
+
+    public Table get(String table, String path) {
+        return getEntry(table, path, false).committed;
+    }
+
+    /**
+     * Newest version of the table including staged inserts, for a writer that holds the write lock of the table.
+     */
+    public Table getLatest(String table, String path) {
+        return getEntry(table, path, false).table;
+    }
+
+    /**
+     * Lock that an insert holds from its checks until its rows are applied, so that concurrent inserts into
+     * one table neither interleave nor miss each other's keys. Inserts into different tables do not wait for it.
+     */
+    public Object getWriteLock(String table, String path) {
+        return writeLocks.computeIfAbsent(getKey(table, path), key -> new Object());
+    }
+
+    /**
+     * Full scans of a large table that is not in the cache read the file with {@link StorageEngine#scan}
+     * instead of loading the whole table into memory.
+     */
+    public boolean shouldStream(String table, String path) {
+        Entry entry = entries.get(getKey(table, path));
+        if (entry != null && entry.isCurrent(checkIntervalNanos)) {
+            return false;
+        }
+        List<File> files = storageEngine.getFiles(table, path);
+        if (entry != null && entry.isLoaded() && entry.isUpToDate(files)) {
+            return false;
+        }
+        return getLength(files) >= streamMinFileBytes;
+    }
+
+    public int applyInsert(String table, String path, String[] row) {
+        return applyInsert(table, path, Collections.singletonList(row));
+    }
+
+    /**
+     * Stages and publishes the inserted rows at once, for callers whose rows are durable already.
+     *
+     * @return position of the first new row in the table
+     */
+    public int applyInsert(String table, String path, List<String[]> rows) {
+        Table staged = stageInsert(table, path, rows);
+        publish(table, path, staged);
+        return staged.getRowCount() - rows.size();
+    }
+
+    /**
+     * Appends the inserted rows to the cached table as one new version and marks it dirty until the next
+     * checkpoint. Queries see either all of the rows or none of them, and only after {@link #publish}.
+     *
+     * @return the staged version
+     */
+    public Table stageInsert(String table, String path, List<String[]> rows) {
+        String key = getKey(table, path);
+        Table staged;
+        while (true) {
+            Entry entry = getEntry(table, path, true);
+            synchronized (entry) {
+                // evicted since it was looked up: the rows must go to the entry that stays in the cache
+                if (entries.get(key) != entry) {
+                    continue;
+                }
+                Table previous = entry.table;
+                entry.table = previous.withRows(rows);
+                currentBytes.addAndGet(entry.table.getEstimatedSize() - previous.getEstimatedSize());
+                staged = entry.table;
+                break;
+            }
+        }
+        evictIfNeeded();
+        return staged;
+    }
+
+    /**
+     * Makes the staged version visible to queries, together with all versions staged before it.
+     */
+    public void publish(String table, String path, Table staged) {
+        String key = getKey(table, path);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.isLoaded() && entry.committed.isVersionOf(staged) && staged.getRowCount() > entry.committed.getRowCount()) {
+                entry.committed = staged;
+                nextVersion(key);
+                entry.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Drops the rows staged after the previous version, for inserts whose log records could not be written.
+     * Rows staged before it stay, also if an insert that failed later dropped its rows already.
+     */
+    public void discardStaged(String table, String path, Table previous) {
+        Entry entry = entries.get(getKey(table, path));
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.isLoaded() && entry.table.isVersionOf(previous) && previous.getRowCount() < entry.table.getRowCount()) {
+                currentBytes.addAndGet(previous.getEstimatedSize() - entry.table.getEstimatedSize());
+                entry.table = previous;
+            }
+        }
+    }
+
+    /**
+     * @return version of the table as queries see it, 0 before it was first loaded
+     */
+    public long getVersion(String table, String path) {
+        Long version = versions.get(getKey(table, path));
+        return version == null ? 0 : version;
+    }
+
+    private void nextVersion(String key) {
+        versions.merge(key, 1L, Long::sum);
+    }
+
+    /**
+     * Lists the tables with published rows that are not in the table file yet, together with their row count as
+     * queries see it. Staged rows are left out, their log records may still fail. The tables stay dirty, and so
+     * stay in the cache, until {@link #afterCheckpoint} records that the rows reached the table file.
+     */
+    public List<DirtyTable> getDirtyTables() {
+        List<DirtyTable> dirtyTables = new ArrayList<>();
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            Table table = mapEntry.getValue().committed;
+            if (table != null && table.getRowCount() > table.getPersistedRowCount()) {
+                dirtyTables.add(new DirtyTable(new File(mapEntry.getKey()), table, table.getRowCount()));
+            }
+        }
+        return dirtyTables;
+    }
+
+    /**
+     * @return true if a table has staged rows that are not published yet
+     */
+    public boolean hasStagedInserts() {
+        for (Entry entry : entries.values()) {
+            if (entry.committed != entry.table) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void afterCheckpoint(DirtyTable dirtyTable) {
+        dirtyTable.getTable().setPersistedRowCount(dirtyTable.getRowCount());
+        Entry entry = entries.get(dirtyTable.getFile().getPath());
+        if (entry != null) {
+            synchronized (entry) {
+                if (entry.isLoaded() && entry.table.isVersionOf(dirtyTable.getTable())) {
+                    entry.refreshStamp(storageEngine.getFiles(entry.table.getName(), entry.path));
+                }
+            }
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * Builds a sorted index over the column of the table and keeps it up to date from now on. The caller holds
+     * the write lock of the table; inserts staged before are published first, so the index covers their rows.
+     */
+    public void createIndex(String table, String path, String column) throws InterruptedException {
+        String key = getKey(table, path);
+        indexedColumns.computeIfAbsent(key, k -> new CopyOnWriteArraySet<>()).add(column);
+
+        // a load that started before the column was added finishes before the lock is taken
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            while (entry.isLoaded() && entry.committed != entry.table) {
+                entry.wait();
+            }
+            if (entry.isLoaded() && entries.get(key) == entry) {
+                Table previous = entry.table;
+                entry.table = previous.withIndex(column);
+                entry.committed = entry.table;
+                nextVersion(key);
+                currentBytes.addAndGet(entry.table.getEstimatedSize() - previous.getEstimatedSize());
+            }
+        }
+        evictIfNeeded();
+    }
+
+    public void invalidate(String table, String path) {
+        String key = getKey(table, path);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            synchronized (entry) {
+                if (!entry.isDirty()) {
+                    remove(key, entry);
+                }
+            }
+        }
+    }
+
+    public long getCurrentBytes() {
+        return currentBytes.get();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.isLoaded()) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private String getKey(String table, String path) {
+        return storageEngine.getFile(table, path).getPath();
+    }
+
+    /**
+     * Returns a cached entry without a lock as long as it is dirty or its files were checked recently. Otherwise
+     * the entry is loaded, or checked and reloaded, under its own lock, so that concurrent readers of one table
+     * parse it once.
+     */
+    private Entry getEntry(String table, String path, boolean pin) {
+        String key = getKey(table, path);
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = entries.computeIfAbsent(key, k -> new Entry(path));
+            }
+            if (entry.isCurrent(checkIntervalNanos)) {
+                entry.lastUsed = System.nanoTime();
+                return entry;
+            }
+            Entry loaded = load(key, entry, table, path, pin);
+            if (loaded != null) {
+                evictIfNeeded();
+                return loaded;
+            }
+        }
+    }
+
+    /**
+     * @return the entry, an entry that is not cached if the table is larger than the cache, or null if the entry
+     * was removed from the cache meanwhile
+     */
+    private Entry load(String key, Entry entry, String table, String path, boolean pin) {
+        synchronized (entry) {
+            if (entries.get(key) != entry) {
+                return null;
+            }
+            if (entry.isCurrent(checkIntervalNanos)) {
+                return entry;
+            }
+            List<File> files = storageEngine.getFiles(table, path);
+            if (entry.isLoaded() && entry.isUpToDate(files)) {
+                entry.checkedAt = System.nanoTime();
+                return entry;
+            }
+
+            Table loadedTable = loadTable(table, path);
+            Set<String> columns = indexedColumns.get(key);
+            if (columns != null) {
+                for (String column : columns) {
+                    loadedTable.createIndex(column);
+                }
+            }
+            nextVersion(key);
+            files = storageEngine.getFiles(table, path);
+            long size = loadedTable.getEstimatedSize();
+            if (size > maxBytes && !pin) {
+                System.out.println("Table " + loadedTable.getName() + " is larger than the cache, it will not be cached");
+                remove(key, entry);
+                Entry uncached = new Entry(path);
+                uncached.load(loadedTable, files);
+                return uncached;
+            }
+            long previousSize = entry.isLoaded() ? entry.table.getEstimatedSize() : 0;
+            entry.load(loadedTable, files);
+            entry.lastUsed = System.nanoTime();
+            currentBytes.addAndGet(size - previousSize);
+            return entry;
+        }
+    }
+
+    /**
+     * The caller holds the lock of the entry.
+     */
+    private void remove(String key, Entry entry) {
+        if (entries.remove(key, entry) && entry.isLoaded()) {
+            currentBytes.addAndGet(-entry.table.getEstimatedSize());
+        }
+    }
+
+    /**
+     * Evicts the least recently used clean tables. It is called without the lock of any entry, since it takes
+     * the locks of the entries it evicts.
+     */
+    private void evictIfNeeded() {
+        if (currentBytes.get() <= maxBytes) {
+            return;
+        }
+        synchronized (evictionLock) {
+            // the times are copied, a sort by values that readers change meanwhile may fail
+            Map<Entry, Long> lastUsed = new IdentityHashMap<>();
+            List<Map.Entry<String, Entry>> candidates = new ArrayList<>(entries.entrySet());
+            for (Map.Entry<String, Entry> candidate : candidates) {
+                lastUsed.put(candidate.getValue(), candidate.getValue().lastUsed);
+            }
+            candidates.sort(Comparator.comparingLong(candidate -> lastUsed.get(candidate.getValue())));
+            for (Map.Entry<String, Entry> candidate : candidates) {
+                if (currentBytes.get() <= maxBytes) {
+                    return;
+                }
+                Entry eldest = candidate.getValue();
+                if (!eldest.isLoaded()) {
+                    continue;
+                }
+                synchronized (eldest) {
+                    if (eldest.isDirty() || entries.get(candidate.getKey()) != eldest) {
+                        continue;
+                    }
+                    remove(candidate.getKey(), eldest);
+                }
+                System.out.println("Table " + eldest.table.getName() + " was evicted from the cache");
+            }
+        }
+    }
+
+    private Table loadTable(String table, String path) {
+        Table result;
+        try {
+            result = storageEngine.load(table, path);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+        TableSchema schema = (catalog != null ? catalog : Catalog.open(path, storageEngine)).getTable(table);
+        if (schema != null) {
+            result.setSchema(schema);
+        }
+        result.setPersistedRowCount(result.getRowCount());
+        return result;
+    }
+
+    /**
+     * @return total length of the files
+     */
+    static long getLength(List<File> files) {
+        long length = 0;
+        for (File file : files) {
+            length += file.length();
+        }
+        return length;
+    }
+
+    /**
+     * @return time the newest of the files was modified
+     */
+    static long getLastModified(List<File> files) {
+        long lastModified = 0;
+        for (File file : files) {
+            lastModified = Math.max(lastModified, file.lastModified());
+        }
+        return lastModified;
+    }
+
+    public static class DirtyTable {
+        private final File file;
+        private final Table table;
+        private final int rowCount;
+
+        DirtyTable(File file, Table table, int rowCount) {
+            this.file = file;
+            this.table = table;
+            this.rowCount = rowCount;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public Table getTable() {
+            return table;
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+    }
+
+    /**
+     * The stamp of an entry covers all files of its table, so that a change to any segment reloads it. The tables
+     * are null until the entry is loaded; they are replaced under the lock of the entry and read without it.
+     */
+    private static class Entry {
+        private final String path;
+        private volatile Table table;
+        private volatile Table committed;
+        private volatile long lastModified;
+        private volatile long length;
+        private volatile long checkedAt;
+        private volatile long lastUsed;
+
+        Entry(String path) {
+            this.path = path;
+        }
+
+        void load(Table loadedTable, List<File> files) {
+            table = loadedTable;
+            committed = loadedTable;
+            refreshStamp(files);
+        }
+
+        boolean isLoaded() {
+            return committed != null;
+        }
+
+        boolean isDirty() {
+            Table current = table;
+            return current != null && current.getRowCount() > current.getPersistedRowCount();
+        }
+
+        /**
+         * @return true if the entry may be read without looking at its files
+         */
+        boolean isCurrent(long checkIntervalNanos) {
+            return isLoaded() && (isDirty() || System.nanoTime() - checkedAt < checkIntervalNanos);
+        }
+
+        boolean isUpToDate(List<File> files) {
+            return getLastModified(files) == lastModified && getLength(files) == length;
+        }
+
+        void refreshStamp(List<File> files) {
+            lastModified = getLastModified(files);
+            length = getLength(files);
+            checkedAt = System.nanoTime();
+        }
+    }
+}
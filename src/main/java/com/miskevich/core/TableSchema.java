@@ -0,0 +1,120 @@
+package com.miskevich.core;
+
+import java.util.*;
+
+/**
+ * Name, typed columns and primary key of a table, as kept by the {@link Catalog}. A schema is immutable.
+ */
+public class TableSchema {
+
+    public enum ColumnType {
+        INT, STRING;
+
+        /**
+         * @return type of a type name of CREATE TABLE, or null for an unknown name
+         */
+        static ColumnType forName(String name) {
+            switch (name.toUpperCase()) {
+                case "INT":
+                case "INTEGER":
+                    return INT;
+                case "STRING":
+                case "VARCHAR":
+                case "TEXT":
+                    return STRING;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private final String name;
+    private final List<String> columnNames;
+    private final List<ColumnType> columnTypes;
+    private final Map<String, Integer> columnIndexes;
+    private final String primaryKey;
+
+    /**
+     * @param primaryKey name of the primary key column, null for a table without one
+     */
+    public TableSchema(String name, List<String> columnNames, List<ColumnType> columnTypes, String primaryKey) {
+        if (columnNames.size() != columnTypes.size()) {
+            throw new IllegalArgumentException(columnNames.size() + " columns, but " + columnTypes.size() + " types");
+        }
+        this.name = name;
+        this.columnNames = Collections.unmodifiableList(new ArrayList<>(columnNames));
+        this.columnTypes = Collections.unmodifiableList(new ArrayList<>(columnTypes));
+        this.primaryKey = primaryKey;
+        Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < columnNames.size(); i++) {
+            indexes.put(columnNames.get(i), i);
+        }
+        this.columnIndexes = indexes;
+    }
+
+    /**
+     * Schema of a table known only by its column names: every column is a string and there is no primary key.
+     */
+    static TableSchema untyped(String name, List<String> columnNames) {
+        return new TableSchema(name, columnNames, Collections.nCopies(columnNames.size(), ColumnType.STRING), null);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    public List<ColumnType> getColumnTypes() {
+        return columnTypes;
+    }
+
+    public boolean hasColumn(String columnName) {
+        return columnIndexes.containsKey(columnName);
+    }
+
+    /**
+     * @return index of the column with exactly this name, or -1
+     */
+    public int getColumnIndex(String columnName) {
+        Integer index = columnIndexes.get(columnName);
+        return index == null ? -1 : index;
+    }
+
+    public boolean isNumericColumn(int column) {
+        return columnTypes.get(column) == ColumnType.INT;
+    }
+
+    public String getPrimaryKey() {
+        return primaryKey;
+    }
+
+    /**
+     * @return the CREATE TABLE statement of the schema, in the form the {@link Catalog} file keeps it
+     */
+    public String toCreateStatement() {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("CREATE TABLE ")
+                .append(name)
+                .append(" (");
+        for (int i = 0; i < columnNames.size(); i++) {
+            if (i > 0) {
+                stringBuilder.append(", ");
+            }
+            stringBuilder.append(columnNames.get(i))
+                    .append(' ')
+                    .append(columnTypes.get(i));
+            if (columnNames.get(i).equals(primaryKey)) {
+                stringBuilder.append(" PRIMARY KEY");
+            }
+        }
+        return stringBuilder.append(')').toString();
+    }
+
+    @Override
+    public String toString() {
+        return toCreateStatement();
+    }
+}
@@ -0,0 +1,69 @@
+package com.miskevich.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The line protocol: one {@code column=value} line per value, a message or {@code Exception: message} line,
+ * and on a persistent connection an empty line after every response.
+ */
+public class TextResponseWriter extends ResponseWriter {
+
+    private static final byte NEW_LINE = '\n';
+    private static final String ERROR_PREFIX = "Exception: ";
+
+    private final boolean keepAlive;
+
+    public TextResponseWriter(OutputStream outputStream, boolean keepAlive) {
+        super(outputStream);
+        this.keepAlive = keepAlive;
+    }
+
+    @Override
+    public void writeRow(List<String> columnNames, int[] columns, String[] values) throws IOException {
+        for (int column : columns) {
+            if (column >= 0 && values[column] != null) {
+                writeValue(columnNames.get(column), values[column]);
+            }
+        }
+        countRow();
+        flushIfFull();
+    }
+
+    @Override
+    public void writeRow(Map<String, String> values) throws IOException {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            writeValue(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        countRow();
+        flushIfFull();
+    }
+
+    @Override
+    public void writeMessage(String message) throws IOException {
+        putUtf8(message);
+        putByte(NEW_LINE);
+    }
+
+    @Override
+    public void writeError(String message) throws IOException {
+        putUtf8(ERROR_PREFIX);
+        writeMessage(message);
+    }
+
+    @Override
+    protected void writeEnd() {
+        if (keepAlive) {
+            putUtf8(Protocol.RESPONSE_TERMINATOR);
+        }
+    }
+
+    private void writeValue(String columnName, String value) {
+        putUtf8(columnName);
+        putByte('=');
+        putUtf8(value);
+        putByte(NEW_LINE);
+    }
+}
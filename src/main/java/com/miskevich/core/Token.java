@@ -0,0 +1,57 @@
+package com.miskevich.core;
+
+/**
+ * One token of a query. Literals - numbers, quoted strings and the values of an INSERT - carry
+ * the index of the parameter they are bound to, every other token has the index -1.
+ */
+final class Token {
+
+    enum Type {
+        WORD, NUMBER, STRING, SYMBOL, END
+    }
+
+    private final Type type;
+    private final String text;
+    private final int position;
+    private final int parameterIndex;
+
+    Token(Type type, String text, int position, int parameterIndex) {
+        this.type = type;
+        this.text = text;
+        this.position = position;
+        this.parameterIndex = parameterIndex;
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    String getText() {
+        return text;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    int getParameterIndex() {
+        return parameterIndex;
+    }
+
+    boolean isLiteral() {
+        return parameterIndex >= 0;
+    }
+
+    boolean isKeyword(String keyword) {
+        return type == Type.WORD && text.equalsIgnoreCase(keyword);
+    }
+
+    boolean isSymbol(String symbol) {
+        return type == Type.SYMBOL && text.equals(symbol);
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.END ? "end of the query" : "'" + text + "'";
+    }
+}
@@ -0,0 +1,372 @@
+package com.miskevich.core;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of inserted rows. Every record is framed with its length and a CRC32 so that a record torn
+ * by a crash is detected on replay. The log is split into numbered segments: the checkpointer rotates to a new
+ * segment, folds everything before it into the table files and then deletes the old segments.
+ * <p>
+ * Concurrent appends are group committed: records are queued into the open batch, and the first appender that
+ * finds no write in progress becomes the leader. It waits up to the configured delay for more records, then
+ * writes the whole batch with one write and one sync while the next batch fills up. Every appender returns once
+ * the batch holding its records is durable.
+ * <p>
+ * Once a batch could not be written the log is failed: later batches are not written and new records are
+ * refused, so that no insert is acknowledged after one that was lost. The server has to be restarted.
+ */
+public class WriteAheadLog {
+
+    private static final String DIR_PROPERTY = "rmdb.wal.dir";
+    private static final String FSYNC_PROPERTY = "rmdb.wal.fsync";
+    private static final String GROUP_COMMIT_SIZE_PROPERTY = "rmdb.wal.groupCommit.size";
+    private static final String GROUP_COMMIT_DELAY_PROPERTY = "rmdb.wal.groupCommit.maxDelayMicros";
+    private static final int DEFAULT_GROUP_COMMIT_SIZE = 1024;
+    private static final long DEFAULT_GROUP_COMMIT_DELAY_MICROS = 0;
+    private static final String DEFAULT_DIR = "wal";
+    private static final String SEGMENT_PREFIX = "rmdb.";
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    public enum FsyncPolicy {
+        ALWAYS, NEVER
+    }
+
+    private final File dir;
+    private final FsyncPolicy fsyncPolicy;
+    private final int groupCommitSize;
+    private final long groupCommitDelayNanos;
+    private final Object writeLock = new Object();
+    private FileChannel channel;
+    private long segment;
+    private Batch openBatch = new Batch();
+    private boolean writing;
+    private long batchCount;
+    private IOException failure;
+
+    public WriteAheadLog(File dir, FsyncPolicy fsyncPolicy) {
+        this(dir, fsyncPolicy, DEFAULT_GROUP_COMMIT_SIZE, DEFAULT_GROUP_COMMIT_DELAY_MICROS);
+    }
+
+    /**
+     * @param groupCommitSize        number of queued records that ends the wait of the leader early
+     * @param groupCommitDelayMicros longest time the leader waits for more records before it writes the batch
+     */
+    public WriteAheadLog(File dir, FsyncPolicy fsyncPolicy, int groupCommitSize, long groupCommitDelayMicros) {
+        this.dir = dir;
+        this.fsyncPolicy = fsyncPolicy;
+        this.groupCommitSize = groupCommitSize;
+        this.groupCommitDelayNanos = groupCommitDelayMicros * 1000;
+    }
+
+    public static WriteAheadLog fromSystemProperties() {
+        File dir = new File(System.getProperty(DIR_PROPERTY, DEFAULT_DIR));
+        FsyncPolicy fsyncPolicy = FsyncPolicy.valueOf(System.getProperty(FSYNC_PROPERTY, FsyncPolicy.ALWAYS.name()).toUpperCase());
+        return new WriteAheadLog(dir, fsyncPolicy, Integer.getInteger(GROUP_COMMIT_SIZE_PROPERTY, DEFAULT_GROUP_COMMIT_SIZE),
+                Long.getLong(GROUP_COMMIT_DELAY_PROPERTY, DEFAULT_GROUP_COMMIT_DELAY_MICROS));
+    }
+
+    public void append(Record record) throws IOException {
+        append(Collections.singletonList(record));
+    }
+
+    /**
+     * Appends the records and returns once they are durable, see {@link #enqueue} and {@link #await}.
+     */
+    public void append(List<Record> records) throws IOException {
+        await(enqueue(records));
+    }
+
+    /**
+     * Queues the records into the open batch without waiting. Records queued one after another are written
+     * in that order.
+     *
+     * @return batch to pass to {@link #await}
+     */
+    public synchronized Batch enqueue(List<Record> records) throws IOException {
+        if (failure != null) {
+            throw new IOException("The log failed before, inserts are refused until the server is restarted", failure);
+        }
+        for (Record record : records) {
+            openBatch.buffers.add(record.encode());
+        }
+        if (openBatch.buffers.size() >= groupCommitSize) {
+            notifyAll();
+        }
+        return openBatch;
+    }
+
+    /**
+     * Waits until the batch is written and, depending on the policy, synced. If no write is in progress the
+     * caller writes the open batch itself.
+     */
+    public void await(Batch batch) throws IOException {
+        while (true) {
+            Batch toWrite;
+            synchronized (this) {
+                while (!batch.done && writing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the log");
+                    }
+                }
+                if (batch.done) {
+                    if (batch.failure != null) {
+                        throw new IOException("Could not write the log", batch.failure);
+                    }
+                    return;
+                }
+                writing = true;
+                long deadline = System.nanoTime() + groupCommitDelayNanos;
+                long remaining;
+                while (openBatch.buffers.size() < groupCommitSize && (remaining = deadline - System.nanoTime()) > 0) {
+                    try {
+                        wait(remaining / 1000000, (int) (remaining % 1000000));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                toWrite = openBatch;
+                openBatch = new Batch();
+            }
+
+            IOException writeFailure;
+            synchronized (this) {
+                writeFailure = failure;
+            }
+            if (writeFailure == null) {
+                try {
+                    write(toWrite);
+                } catch (IOException e) {
+                    writeFailure = e;
+                }
+            }
+            synchronized (this) {
+                toWrite.done = true;
+                toWrite.failure = writeFailure;
+                if (failure == null) {
+                    failure = writeFailure;
+                }
+                writing = false;
+                batchCount++;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return number of batches written so far, each with one write and at most one sync
+     */
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Closes the current segment and starts a new one. Records queued but not written yet go to the new segment.
+     *
+     * @return number of the new segment, all segments below it may be deleted once they are checkpointed
+     */
+    public synchronized long rotate() throws IOException {
+        synchronized (writeLock) {
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+                channel = null;
+            }
+            segment = Math.max(segment, lastSegmentOnDisk()) + 1;
+            return segment;
+        }
+    }
+
+    public synchronized void deleteSegmentsBefore(long segmentNumber) {
+        for (long number : listSegments()) {
+            if (number < segmentNumber && !segmentFile(number).delete()) {
+                System.out.println("Could not delete the log segment " + segmentFile(number));
+            }
+        }
+    }
+
+    /**
+     * Reads all complete records from the segments on disk, oldest first. Reading stops at the first torn record.
+     */
+    public synchronized List<Record> readAll() throws IOException {
+        List<Record> records = new ArrayList<>();
+        for (long number : listSegments()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile(number))))) {
+                Record record;
+                while ((record = Record.decode(in)) != null) {
+                    records.add(record);
+                }
+            }
+        }
+        return records;
+    }
+
+    public synchronized void close() throws IOException {
+        synchronized (writeLock) {
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Runs without the monitor of the log, so that appenders keep queueing into the next batch meanwhile.
+     */
+    private void write(Batch batch) throws IOException {
+        if (batch.buffers.isEmpty()) {
+            return;
+        }
+        synchronized (writeLock) {
+            FileChannel fileChannel = getChannel();
+            ByteBuffer[] buffers = batch.buffers.toArray(new ByteBuffer[batch.buffers.size()]);
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= fileChannel.write(buffers);
+            }
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                fileChannel.force(false);
+            }
+        }
+    }
+
+    private FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Could not create the log directory " + dir);
+            }
+            if (segment == 0) {
+                segment = lastSegmentOnDisk() + 1;
+            }
+            channel = FileChannel.open(segmentFile(segment).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    private long lastSegmentOnDisk() {
+        List<Long> segments = listSegments();
+        return segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+    }
+
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private File segmentFile(long number) {
+        return new File(dir, SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Records that are written to the log together.
+     */
+    public static class Batch {
+        private final List<ByteBuffer> buffers = new ArrayList<>();
+        private boolean done;
+        private IOException failure;
+    }
+
+    /**
+     * One inserted row. The position is the index the row got in the table, which makes replay idempotent:
+     * a record whose position is already present in the table file was checkpointed before the crash.
+     */
+    public static class Record {
+        private final String table;
+        private final int position;
+        private final String[] row;
+
+        public Record(String table, int position, String[] row) {
+            this.table = table;
+            this.position = position;
+            this.row = row;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        public String[] getRow() {
+            return row;
+        }
+
+        ByteBuffer encode() throws IOException {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(payload);
+            out.writeUTF(table);
+            out.writeInt(position);
+            out.writeShort(row.length);
+            for (String value : row) {
+                out.writeBoolean(value != null);
+                if (value != null) {
+                    out.writeUTF(value);
+                }
+            }
+            out.flush();
+
+            byte[] bytes = payload.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            ByteBuffer buffer = ByteBuffer.allocate(8 + bytes.length);
+            buffer.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes);
+            buffer.flip();
+            return buffer;
+        }
+
+        static Record decode(DataInputStream in) throws IOException {
+            byte[] bytes;
+            try {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 0) {
+                    return null;
+                }
+                bytes = new byte[length];
+                in.readFully(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if ((int) crc.getValue() != checksum) {
+                    System.out.println("Log record is corrupted, the rest of the segment is skipped");
+                    return null;
+                }
+            } catch (EOFException e) {
+                return null;
+            }
+
+            DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+            String table = payload.readUTF();
+            int position = payload.readInt();
+            String[] row = new String[payload.readShort()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = payload.readBoolean() ? payload.readUTF() : null;
+            }
+            return new Record(table, position, row);
+        }
+    }
+}
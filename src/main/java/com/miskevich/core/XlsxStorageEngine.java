@@ -0,0 +1,162 @@
+package com.miskevich.core;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Tables stored as Excel workbooks: the first row of the first sheet holds the column names.
+ * A file is replaced through a synced temporary file and an atomic rename, so a crash while
+ * writing leaves the previous file intact.
+ */
+public class XlsxStorageEngine implements StorageEngine {
+
+    static final String FILE_SUFFIX = ".xlsx";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    @Override
+    public String getFileSuffix() {
+        return FILE_SUFFIX;
+    }
+
+    @Override
+    public File getFile(String table, String path) {
+        return new File(path + table + FILE_SUFFIX);
+    }
+
+    @Override
+    public List<String> listTables(String path) {
+        return listTables(path, FILE_SUFFIX);
+    }
+
+    static List<String> listTables(String path, String suffix) {
+        File[] files = new File(path).listFiles();
+        List<String> tableList = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                String fileName = file.getName();
+                if (fileName.endsWith(suffix)) {
+                    tableList.add(fileName.substring(0, fileName.length() - suffix.length()));
+                }
+            }
+        }
+        return tableList;
+    }
+
+    @Override
+    public Table load(String table, String path) throws IOException {
+        XSSFWorkbook workbook;
+        try (FileInputStream fi = new FileInputStream(getFile(table, path))) {
+            workbook = new XSSFWorkbook(fi);
+        }
+        XSSFSheet sheet = workbook.getSheetAt(0);
+
+        List<String> columnNames = new ArrayList<>();
+        Row firstRow = sheet.getRow(0);
+        Iterator<Cell> cellIterator = firstRow.cellIterator();
+        while (cellIterator.hasNext()) {
+            columnNames.add(cellIterator.next().getStringCellValue());
+        }
+
+        Table result = new Table(table, columnNames);
+        int rowCount = sheet.getLastRowNum();
+        for (int rowNum = 1; rowNum <= rowCount; rowNum++) {
+            Row row = sheet.getRow(rowNum);
+            if (row == null) {
+                continue;
+            }
+            String[] values = new String[columnNames.size()];
+            for (int cellNum = 0; cellNum < values.length; cellNum++) {
+                values[cellNum] = getCellValue(row.getCell(cellNum));
+            }
+            result.addRow(values);
+        }
+        return result;
+    }
+
+    static String getCellValue(Cell cell) {
+        if (cell == null) {
+            return null;
+        }
+        switch (cell.getCellType()) {
+            case Cell.CELL_TYPE_STRING:
+                return cell.getStringCellValue();
+            case Cell.CELL_TYPE_NUMERIC:
+                return String.valueOf((int) cell.getNumericCellValue());
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public List<String> readColumnNames(String table, String path) throws IOException {
+        return XlsxStreamReader.readColumnNames(getFile(table, path));
+    }
+
+    @Override
+    public void scan(String table, String path, List<String> columns, RowHandler rowHandler) throws IOException {
+        XlsxStreamReader.read(getFile(table, path), columns, rowHandler);
+    }
+
+    @Override
+    public void append(String name, Table table, int fromPosition, int toPosition, String path) throws IOException {
+        File file = getFile(name, path);
+        XSSFWorkbook workbook;
+        try (FileInputStream fi = new FileInputStream(file)) {
+            workbook = new XSSFWorkbook(fi);
+        }
+        addRows(workbook.getSheetAt(0), table, fromPosition, toPosition);
+        replace(workbook, file);
+    }
+
+    @Override
+    public void write(Table table, String path) throws IOException {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet(table.getName());
+        Row firstRow = sheet.createRow(0);
+        List<String> columnNames = table.getColumnNames();
+        for (int cellNum = 0; cellNum < columnNames.size(); cellNum++) {
+            firstRow.createCell(cellNum).setCellValue(columnNames.get(cellNum));
+        }
+        addRows(sheet, table, 0, table.getRowCount());
+        replace(workbook, getFile(table.getName(), path));
+    }
+
+    private static void addRows(XSSFSheet sheet, Table table, int fromPosition, int toPosition) {
+        int rowNum = sheet.getLastRowNum();
+        for (int position = fromPosition; position < toPosition; position++) {
+            String[] values = table.getRow(position);
+            Row row = sheet.createRow(++rowNum);
+            for (int cellNum = 0; cellNum < values.length; cellNum++) {
+                if (values[cellNum] == null) {
+                    continue;
+                }
+                Cell cell = row.createCell(cellNum);
+                if (table.isNumericColumn(cellNum)) {
+                    cell.setCellValue(Double.parseDouble(values[cellNum]));
+                } else {
+                    cell.setCellValue(values[cellNum]);
+                }
+            }
+        }
+    }
+
+    private static void replace(XSSFWorkbook workbook, File file) throws IOException {
+        File tempFile = new File(file.getPath() + TEMP_FILE_SUFFIX);
+        try (FileOutputStream fo = new FileOutputStream(tempFile)) {
+            workbook.write(fo);
+        }
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
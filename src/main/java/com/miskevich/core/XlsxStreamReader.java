@@ -0,0 +1,239 @@
+package com.miskevich.core;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Reads the first sheet of a table file with the XSSF event model: rows are handed over one by one while the
+ * sheet XML is parsed, so no workbook is built and memory use does not depend on the number of rows.
+ * Cell values are converted the same way as {@link XlsxStorageEngine#getCellValue}.
+ */
+public class XlsxStreamReader {
+
+    public static List<String> read(File file, RowHandler rowHandler) throws IOException {
+        return read(file, null, rowHandler);
+    }
+
+    /**
+     * Streams the data rows of the table to the handler. Without a handler only the header row is read.
+     * Only the selected columns are decoded and handed over, in the order of the selection; cells of other
+     * columns are skipped while parsing.
+     *
+     * @param columns selected columns, null for all of them
+     * @return column names from the header row
+     */
+    public static List<String> read(File file, List<String> columns, RowHandler rowHandler) throws IOException {
+        OPCPackage opcPackage;
+        try {
+            opcPackage = OPCPackage.open(file, PackageAccess.READ);
+        } catch (OpenXML4JException e) {
+            throw new IOException(e);
+        }
+
+        SheetHandler sheetHandler;
+        try (InputStream sheet = new XSSFReader(opcPackage).getSheetsData().next()) {
+            sheetHandler = new SheetHandler(new ReadOnlySharedStringsTable(opcPackage), columns, rowHandler);
+            XMLReader xmlReader = newXmlReader();
+            xmlReader.setContentHandler(sheetHandler);
+            xmlReader.parse(new InputSource(sheet));
+        } catch (StopReading e) {
+            return e.columnNames;
+        } catch (SAXException e) {
+            if (e.getException() instanceof IOException) {
+                throw (IOException) e.getException();
+            }
+            throw new IOException(e);
+        } catch (OpenXML4JException e) {
+            throw new IOException(e);
+        } finally {
+            opcPackage.revert();
+        }
+        return sheetHandler.columnNames;
+    }
+
+    public static List<String> readColumnNames(File file) throws IOException {
+        return read(file, null);
+    }
+
+    private static XMLReader newXmlReader() throws SAXException {
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            return factory.newSAXParser().getXMLReader();
+        } catch (ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    static int getColumnIndex(String cellReference) {
+        int columnIndex = 0;
+        for (int i = 0; i < cellReference.length(); i++) {
+            char c = cellReference.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            columnIndex = columnIndex * 26 + (c - 'A' + 1);
+        }
+        return columnIndex - 1;
+    }
+
+    private static class StopReading extends SAXException {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> columnNames;
+
+        StopReading(List<String> columnNames) {
+            this.columnNames = columnNames;
+        }
+    }
+
+    private static class SheetHandler extends DefaultHandler {
+        private final ReadOnlySharedStringsTable sharedStrings;
+        private final List<String> selectedColumns;
+        private final RowHandler rowHandler;
+        private final StringBuilder text = new StringBuilder();
+        private List<String> columnNames;
+        private List<String> projectedColumnNames;
+        private int[] outputIndexes;
+        private List<String> header;
+        private String[] values;
+        private int columnIndex;
+        private int outputIndex;
+        private String cellType;
+        private boolean readingText;
+
+        SheetHandler(ReadOnlySharedStringsTable sharedStrings, List<String> selectedColumns, RowHandler rowHandler) {
+            this.sharedStrings = sharedStrings;
+            this.selectedColumns = selectedColumns;
+            this.rowHandler = rowHandler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "row":
+                    if (columnNames == null) {
+                        header = new ArrayList<>();
+                    } else {
+                        values = new String[projectedColumnNames.size()];
+                    }
+                    break;
+                case "c":
+                    String reference = attributes.getValue("r");
+                    columnIndex = reference == null ? columnIndex + 1 : getColumnIndex(reference);
+                    cellType = attributes.getValue("t");
+                    outputIndex = header != null ? columnIndex
+                            : columnIndex >= 0 && columnIndex < outputIndexes.length ? outputIndexes[columnIndex] : -1;
+                    break;
+                case "v":
+                case "t":
+                    readingText = outputIndex >= 0;
+                    text.setLength(0);
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (readingText) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "v":
+                case "t":
+                    if (readingText) {
+                        readingText = false;
+                        setValue(convert(text.toString()));
+                    }
+                    break;
+                case "row":
+                    endRow();
+                    break;
+            }
+        }
+
+        private String convert(String value) {
+            if (cellType == null || "n".equals(cellType)) {
+                return String.valueOf((int) Double.parseDouble(value));
+            }
+            switch (cellType) {
+                case "s":
+                    return sharedStrings.getEntryAt(Integer.parseInt(value));
+                case "inlineStr":
+                case "str":
+                    return value;
+                default:
+                    return null;
+            }
+        }
+
+        private void setValue(String value) {
+            if (header != null) {
+                while (header.size() <= columnIndex) {
+                    header.add(null);
+                }
+                header.set(columnIndex, value);
+            } else if (values != null) {
+                values[outputIndex] = value;
+            }
+        }
+
+        private void endRow() throws SAXException {
+            if (header != null) {
+                columnNames = Collections.unmodifiableList(header);
+                header = null;
+                project();
+                if (rowHandler == null) {
+                    throw new StopReading(columnNames);
+                }
+                return;
+            }
+            boolean proceed;
+            try {
+                proceed = rowHandler.handleRow(projectedColumnNames, values);
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+            values = null;
+            if (!proceed) {
+                throw new StopReading(columnNames);
+            }
+        }
+
+        /**
+         * Maps every column of the sheet to its place in the handed over values, -1 for a column not selected.
+         */
+        private void project() {
+            int[] selected = Table.getColumnIndexes(columnNames, selectedColumns);
+            outputIndexes = new int[columnNames.size()];
+            Arrays.fill(outputIndexes, -1);
+            List<String> projected = new ArrayList<>(selected.length);
+            for (int i = 0; i < selected.length; i++) {
+                if (selected[i] >= 0) {
+                    outputIndexes[selected[i]] = projected.size();
+                    projected.add(columnNames.get(selected[i]));
+                }
+            }
+            projectedColumnNames = Collections.unmodifiableList(projected);
+        }
+    }
+}
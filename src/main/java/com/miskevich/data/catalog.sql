@@ -0,0 +1,2 @@
+CREATE TABLE persons (p_id INT PRIMARY KEY, p_name STRING, age INT)
+CREATE TABLE phones (id INT PRIMARY KEY, code INT, number INT)
@@ -0,0 +1,83 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+import static com.miskevich.core.TestTables.row;
+import static org.testng.Assert.*;
+
+public class AggregatorTest {
+
+    private static Table createPersons() {
+        return TestTables.createPersons(new String[]{"1", "ann", "30"}, new String[]{"2", "bob", "40"},
+                new String[]{"3", "ann", null}, new String[]{"4", null, "30"});
+    }
+
+    private static List<Map<String, String>> aggregate(String query) {
+        SelectStatement statement = (SelectStatement) new StatementCache(16).parse(query);
+        Table table = createPersons();
+        Aggregator aggregator = new Aggregator(statement, table.getColumnNames(), table.getColumnTypes());
+        for (int position = 0; position < table.getRowCount(); position++) {
+            aggregator.add(table, position);
+        }
+        return aggregator.getRows();
+    }
+
+    @Test
+    public void testGroupByIntColumn() {
+        assertEquals(aggregate("SELECT age, COUNT(*), MAX(p_id) FROM persons GROUP BY age"), Arrays.asList(
+                row("age", "30", "COUNT(*)", "2", "MAX(p_id)", "4"),
+                row("age", "40", "COUNT(*)", "1", "MAX(p_id)", "2"),
+                row("COUNT(*)", "1", "MAX(p_id)", "3")));
+    }
+
+    @Test
+    public void testGroupByStringColumnCountsValues() {
+        assertEquals(aggregate("SELECT p_name, COUNT(age), SUM(age) FROM persons GROUP BY p_name"), Arrays.asList(
+                row("p_name", "ann", "COUNT(age)", "1", "SUM(age)", "30"),
+                row("p_name", "bob", "COUNT(age)", "1", "SUM(age)", "40"),
+                row("COUNT(age)", "1", "SUM(age)", "30")));
+    }
+
+    @Test
+    public void testStringRowsGiveSameResult() {
+        SelectStatement statement = (SelectStatement) new StatementCache(16)
+                .parse("SELECT age, AVG(p_id) FROM persons GROUP BY age");
+        Table table = createPersons();
+        Aggregator aggregator = new Aggregator(statement, table.getColumnNames(), table.getColumnTypes());
+        for (int position = 0; position < table.getRowCount(); position++) {
+            aggregator.add(table.getRow(position));
+        }
+        assertEquals(aggregator.getRows(), aggregate("SELECT age, AVG(p_id) FROM persons GROUP BY age"));
+        assertEquals(aggregator.getRows().get(0), row("age", "30", "AVG(p_id)", "2.5"));
+    }
+
+    @Test
+    public void testMergedRangesGiveSameResult() {
+        for (String query : Arrays.asList("SELECT age, COUNT(*), MIN(p_id), MAX(p_id) FROM persons GROUP BY age",
+                "SELECT p_name, AVG(age) FROM persons GROUP BY p_name", "SELECT COUNT(age), SUM(age) FROM persons")) {
+            SelectStatement statement = (SelectStatement) new StatementCache(16).parse(query);
+            Table table = createPersons();
+            Aggregator aggregator = new Aggregator(statement, table.getColumnNames(), table.getColumnTypes());
+            for (int position = 0; position < table.getRowCount(); position++) {
+                Aggregator rangeAggregator = new Aggregator(statement, table.getColumnNames(), table.getColumnTypes());
+                rangeAggregator.add(table, position);
+                aggregator.merge(rangeAggregator);
+            }
+            assertEquals(aggregator.getRows(), aggregate(query), query);
+        }
+    }
+
+    @Test(expectedExceptions = ServerException.class,
+            expectedExceptionsMessageRegExp = "Column 'p_name' must be in GROUP BY or in an aggregate")
+    public void testUngroupedColumn() {
+        aggregate("SELECT p_name, COUNT(*) FROM persons GROUP BY age");
+    }
+
+    @Test(expectedExceptions = ServerException.class,
+            expectedExceptionsMessageRegExp = "SUM needs an INT column, 'p_name' is not")
+    public void testSumOfStringColumn() {
+        aggregate("SELECT SUM(p_name) FROM persons");
+    }
+}
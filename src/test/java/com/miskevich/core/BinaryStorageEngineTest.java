@@ -0,0 +1,76 @@
+package com.miskevich.core;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class BinaryStorageEngineTest {
+
+    private static final String DATA_PATH = "src" + File.separator + "main" + File.separator + "java" + File.separator
+            + "com" + File.separator + "miskevich" + File.separator + "data" + File.separator;
+    private final BinaryStorageEngine storageEngine = new BinaryStorageEngine();
+    private String path;
+
+    @BeforeMethod
+    public void createDir() throws IOException {
+        File dir = Files.createTempDirectory("tables").toFile();
+        dir.deleteOnExit();
+        path = dir.getPath() + File.separator;
+    }
+
+    @Test
+    public void testWrittenTableMatchesWorkbook() throws IOException {
+        Table phones = new XlsxStorageEngine().load("phones", DATA_PATH);
+        storageEngine.write(phones, path);
+
+        Table table = storageEngine.load("phones", path);
+        assertEquals(table.getColumnNames(), phones.getColumnNames());
+        assertEquals(table.getRowCount(), phones.getRowCount());
+        for (int position = 0; position < phones.getRowCount(); position++) {
+            assertEquals(table.getRow(position), phones.getRow(position));
+        }
+        assertEquals(storageEngine.listTables(path), Arrays.asList("phones"));
+    }
+
+    @Test
+    public void testAppendAndScan() throws IOException {
+        Table persons = new Table("persons", Arrays.asList("p_id", "name", "age"));
+        persons.addRow(new String[]{"1", "name_1", "11"});
+        storageEngine.write(persons, path);
+        persons.addRow(new String[]{"2", null, "22"});
+        storageEngine.append(persons, 1, 2, path);
+        persons.addRow(new String[]{"3", "a name that is longer than thirty two bytes", null});
+        storageEngine.append(persons, 2, 3, path);
+
+        final List<String[]> rows = new ArrayList<>();
+        storageEngine.scan("persons", path, (columnNames, values) -> rows.add(values));
+        assertEquals(rows.size(), 3);
+        assertEquals(rows.get(0), new String[]{"1", "name_1", "11"});
+        assertEquals(rows.get(1), new String[]{"2", null, "22"});
+        assertEquals(rows.get(2), new String[]{"3", "a name that is longer than thirty two bytes", null});
+        assertEquals(storageEngine.readColumnNames("persons", path), Arrays.asList("p_id", "name", "age"));
+    }
+
+    @Test
+    public void testFindRowByKey() throws IOException {
+        Table persons = new Table(new TableSchema("persons", Arrays.asList("p_id", "name", "age"), Arrays.asList(
+                TableSchema.ColumnType.INT, TableSchema.ColumnType.STRING, TableSchema.ColumnType.INT), "p_id"));
+        for (int id = 1; id <= 100; id++) {
+            persons.addRow(new String[]{String.valueOf(id * 2), "name_" + id, null});
+        }
+        persons.addRow(new String[]{"7", "out of order", "77"});
+        storageEngine.write(persons, path);
+
+        assertEquals(storageEngine.findRow("persons", path, "p_id", 150), new String[]{"150", "name_75", null});
+        assertEquals(storageEngine.findRow("persons", path, "p_id", 7), new String[]{"7", "out of order", "77"});
+        assertNull(storageEngine.findRow("persons", path, "p_id", 9));
+    }
+}
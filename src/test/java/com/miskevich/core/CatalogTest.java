@@ -0,0 +1,56 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.testng.Assert.*;
+
+public class CatalogTest {
+
+    private static final String DATA_PATH = "src" + File.separator + "main" + File.separator + "java" + File.separator
+            + "com" + File.separator + "miskevich" + File.separator + "data" + File.separator;
+
+    @Test
+    public void testSchemaIsInferredFromValues() throws IOException {
+        TableSchema phones = Catalog.inferSchema(new XlsxStorageEngine().load("phones", DATA_PATH));
+        assertEquals(phones.toCreateStatement(), "CREATE TABLE phones (id INT PRIMARY KEY, code INT, number INT)");
+
+        Table table = new Table("visits", Arrays.asList("person", "city"));
+        table.addRow(new String[]{"1", "Kyiv"});
+        table.addRow(new String[]{"1", null});
+        TableSchema visits = Catalog.inferSchema(table);
+        assertEquals(visits.getColumnTypes(), Arrays.asList(TableSchema.ColumnType.INT, TableSchema.ColumnType.STRING));
+        assertNull(visits.getPrimaryKey());
+    }
+
+    @Test
+    public void testCreateTableWritesTableAndCatalog() throws IOException {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        String path = dir.getPath() + File.separator;
+        BinaryStorageEngine storageEngine = new BinaryStorageEngine();
+        Catalog catalog = Catalog.open(path, storageEngine);
+        assertEquals(catalog.getTableNames(), Collections.emptyList());
+
+        TableSchema cities = new TableSchema("cities", Arrays.asList("c_id", "c_name"),
+                Arrays.asList(TableSchema.ColumnType.INT, TableSchema.ColumnType.STRING), "c_id");
+        catalog.createTable(cities);
+
+        assertSame(catalog.getTable("cities"), cities);
+        assertEquals(storageEngine.load("cities", path).getRowCount(), 0);
+        assertEquals(Files.readAllLines(new File(dir, Catalog.FILE_NAME).toPath(), StandardCharsets.UTF_8),
+                Collections.singletonList("CREATE TABLE cities (c_id INT PRIMARY KEY, c_name STRING)"));
+        try {
+            catalog.createTable(cities);
+            fail("Table was created twice");
+        } catch (ServerException e) {
+            assertEquals(e.getMessage(), "Table 'cities' already exists");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.miskevich.core;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class CheckpointerTest {
+
+    private static final TableSchema CITIES = new TableSchema("cities", Arrays.asList("c_id", "c_name"),
+            Arrays.asList(TableSchema.ColumnType.INT, TableSchema.ColumnType.STRING), "c_id");
+    private final StorageEngine storageEngine = new BinaryStorageEngine();
+    private File dir;
+    private String path;
+
+    @BeforeMethod
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("checkpoint").toFile();
+        dir.deleteOnExit();
+        path = dir.getPath() + File.separator;
+        Table cities = new Table(CITIES);
+        cities.addRow(new String[]{"1", "city_1"});
+        storageEngine.write(cities, path);
+    }
+
+    @Test
+    public void testRowsOfFailedLogWriteAreNotCheckpointed() throws IOException {
+        File blocker = new File(dir, "blocker");
+        assertTrue(blocker.createNewFile());
+        WriteAheadLog writeAheadLog = new WriteAheadLog(new File(blocker, "wal"), WriteAheadLog.FsyncPolicy.NEVER);
+        TableCache tableCache = new TableCache(storageEngine, Long.MAX_VALUE, Long.MAX_VALUE);
+        Checkpointer checkpointer = new Checkpointer(tableCache, writeAheadLog, path);
+        List<String[]> rows = Collections.singletonList(new String[]{"2", "city_2"});
+
+        WriteAheadLog.Batch batch = writeAheadLog.enqueue(Collections.singletonList(new WriteAheadLog.Record("cities", 1, rows.get(0))));
+        Table previous = tableCache.getLatest("cities", path);
+        tableCache.stageInsert("cities", path, rows);
+        checkpointer.checkpoint();
+        try {
+            writeAheadLog.await(batch);
+            fail("the log directory cannot be created");
+        } catch (IOException e) {
+            tableCache.discardStaged("cities", path, previous);
+        }
+
+        assertEquals(storageEngine.load("cities", path).getRowCount(), 1);
+        assertEquals(tableCache.get("cities", path).getPersistedRowCount(), 1);
+        assertTrue(tableCache.getDirtyTables().isEmpty());
+    }
+
+    @Test
+    public void testPublishedRowsAreCheckpointed() throws IOException {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(new File(dir, "wal"), WriteAheadLog.FsyncPolicy.NEVER);
+        TableCache tableCache = new TableCache(storageEngine, Long.MAX_VALUE, Long.MAX_VALUE);
+        Checkpointer checkpointer = new Checkpointer(tableCache, writeAheadLog, path);
+        List<String[]> rows = Collections.singletonList(new String[]{"2", "city_2"});
+
+        writeAheadLog.append(new WriteAheadLog.Record("cities", 1, rows.get(0)));
+        Table staged = tableCache.stageInsert("cities", path, rows);
+        tableCache.stageInsert("cities", path, Collections.singletonList(new String[]{"3", "city_3"}));
+        tableCache.publish("cities", path, staged);
+        checkpointer.checkpoint();
+
+        assertEquals(storageEngine.load("cities", path).getRowCount(), 2);
+        assertEquals(writeAheadLog.readAll().size(), 1);
+    }
+}
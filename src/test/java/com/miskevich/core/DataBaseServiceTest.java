@@ -16,6 +16,7 @@ import static org.testng.Assert.*;
 public class DataBaseServiceTest {
 
     private final String QUERY_INSERT = "INSERT INTO persons(p_id, p_name, age) VALUES (1, name_1, 11)";
+    private final String QUERY_INSERT_BATCH = "INSERT INTO persons(p_id, p_name, age) VALUES (1, name_1, 11), (2, name_2, 22)";
     private final String QUERY_BY_ID = "SELECT p_id, p_name, age FROM persons WHERE p_id = 1";
     private final String QUERY_ALL = "SELECT p_id, p_name, age FROM persons";
     private final List<String> TABLE_LIST = new ArrayList<String>(){{add("persons"); add("phones");}};
@@ -131,6 +132,21 @@ public class DataBaseServiceTest {
         assertEquals(actual, COLUMN_VALUE_LIST);
     }
 
+    @Test
+    public void testGetRowsFromInsertQuery(){
+        List<List<String>> actual = DataBaseService.getRowsFromInsertQuery(QUERY_INSERT_BATCH);
+        assertEquals(actual.size(), 2);
+        assertEquals(actual.get(0), COLUMN_VALUE_LIST);
+        assertEquals(actual.get(1), new ArrayList<String>(){{add("2"); add("name_2"); add("22");}});
+    }
+
+    @Test
+    public void testGetRowsFromInsertQuerySingleRow(){
+        List<List<String>> actual = DataBaseService.getRowsFromInsertQuery(QUERY_INSERT);
+        assertEquals(actual.size(), 1);
+        assertEquals(actual.get(0), COLUMN_VALUE_LIST);
+    }
+
     @Test
     public void testCreateMapFromQueryColNameToColValue(){
         Map<String, String> actual = DataBaseService.createMapFromQueryColNameToColValue(COLUMN_NAME_LIST, COLUMN_VALUE_LIST);
@@ -160,6 +176,35 @@ public class DataBaseServiceTest {
         assertEquals(actual, COLUMN_NAME_TO_COLUMN_VALUE);
     }
 
+    @Test
+    public void testReadDataFromTableByIdProjectsColumns(){
+        Map<String, String> actual = DataBaseService.readDataFromTableById(TABLE_NAME, PATH, ID_VALUE_FROM_QUERY,
+                ID_NAME_FROM_QUERY, Collections.singletonList("age"));
+        assertEquals(actual, Collections.singletonMap("age", "11"));
+    }
+
+    @Test
+    public void testReadDataFromTableByCondition(){
+        SelectStatement statement = DataBaseService.parseSelect("SELECT p_id, age FROM persons WHERE age BETWEEN 10 AND 30 AND p_id > 1");
+        List<Map<String, String>> actual = DataBaseService.readDataFromTableByCondition(statement, PATH);
+        assertEquals(actual, Collections.singletonList(new HashMap<String, String>(){{put("p_id", "2"); put("age", "22");}}));
+    }
+
+    @Test
+    public void testReadAggregatedFromTable(){
+        SelectStatement statement = DataBaseService.parseSelect("SELECT COUNT(*), SUM(age), AVG(age), MIN(p_id), MAX(p_id) FROM persons");
+        List<Map<String, String>> actual = DataBaseService.readAggregatedFromTable(statement, PATH);
+        assertEquals(actual, Collections.singletonList(new LinkedHashMap<String, String>(){{put("COUNT(*)", "2");
+            put("SUM(age)", "33"); put("AVG(age)", "16.5"); put("MIN(p_id)", "1"); put("MAX(p_id)", "2");}}));
+    }
+
+    @Test
+    public void testReadPageFromTable(){
+        SelectStatement statement = DataBaseService.parseSelect("SELECT p_id FROM persons ORDER BY age DESC LIMIT 1 OFFSET 1");
+        List<Map<String, String>> actual = DataBaseService.readPageFromTable(statement, PATH);
+        assertEquals(actual, Collections.singletonList(Collections.singletonMap("p_id", "1")));
+    }
+
     @Test
     public void testReadAllDataFromTable(){
         List<Map<String, String>> actual = DataBaseService.readAllDataFromTable(TABLE_NAME, PATH);
@@ -182,6 +227,30 @@ public class DataBaseServiceTest {
         DataBaseService.uniqueConstraintCheck(TABLE_NAME, COLUMN_NAME_TO_COLUMN_VALUE);
     }
 
+    @Test(expectedExceptions = ServerException.class, expectedExceptionsMessageRegExp = "Unique constraint \\(PERSONS.P_ID\\) violated")
+    public void testUniqueConstraintCheckDuplicateInBatch(){
+        List<Map<String, String>> rows = new ArrayList<>();
+        rows.add(COLUMN_NAME_TO_COLUMN_VALUE_UNIQUE_CHECK_FALSE);
+        rows.add(COLUMN_NAME_TO_COLUMN_VALUE_UNIQUE_CHECK_FALSE);
+        DataBaseService.uniqueConstraintCheck(TABLE_NAME, rows);
+    }
+
+    @Test(expectedExceptions = ServerException.class, expectedExceptionsMessageRegExp = "Value 'abc' of the column age in the table persons is not an INT")
+    public void testAreValuesValidNotAnInt(){
+        List<Map<String, String>> rows = new ArrayList<>();
+        rows.add(COLUMN_NAME_TO_COLUMN_VALUE_UNIQUE_CHECK_FALSE);
+        rows.add(new HashMap<String, String>(){{put("p_id", "101"); put("p_name", "name_101"); put("age", "abc");}});
+        DataBaseService.areValuesValid(rows, DataBaseService.getSchema(TABLE_NAME));
+    }
+
+    @Test
+    public void testInsertWithValueNotAnIntIsRejected() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DataBaseService(out).execute("INSERT INTO persons(p_id, p_name, age) VALUES (abc, bob, 3)");
+        assertEquals(out.toString("UTF-8"), "Exception: Value 'abc' of the column p_id in the table persons is not an INT\n");
+        assertEquals(DataBaseService.readAllDataFromTable(TABLE_NAME, PATH), ALL_DATA_FROM_TABLE);
+    }
+
     @Test
     public void testGetIdValuesListFromTable(){
         List<String> actual = DataBaseService.getIdValuesListFromTable(TABLE_NAME, ID_NAME_FROM_QUERY);
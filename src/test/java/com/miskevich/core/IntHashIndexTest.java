@@ -0,0 +1,38 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class IntHashIndexTest {
+
+    @Test
+    public void testPutAndGet(){
+        IntHashIndex index = new IntHashIndex();
+        for (int key = -500; key < 500; key++) {
+            index.put(key, key + 500);
+        }
+        assertEquals(index.size(), 1000);
+        for (int key = -500; key < 500; key++) {
+            assertEquals(index.get(key), key + 500);
+        }
+    }
+
+    @Test
+    public void testGetMissingKey(){
+        IntHashIndex index = new IntHashIndex();
+        index.put(1, 0);
+        assertEquals(index.get(2), IntHashIndex.NOT_FOUND);
+        assertFalse(index.contains(2));
+        assertTrue(index.contains(1));
+    }
+
+    @Test
+    public void testPutReplacesPosition(){
+        IntHashIndex index = new IntHashIndex();
+        index.put(7, 1);
+        index.put(7, 3);
+        assertEquals(index.get(7), 3);
+        assertEquals(index.size(), 1);
+    }
+}
@@ -0,0 +1,91 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static com.miskevich.core.TestTables.row;
+import static org.testng.Assert.*;
+
+public class JoinExecutorTest {
+
+    private static final String QUERY = "SELECT persons.p_name, number FROM persons JOIN phones ON persons.p_id = phones.p_id";
+
+    private Table persons() {
+        Table persons = new Table("persons", Arrays.asList("p_id", "p_name", "age"));
+        persons.addRow(new String[]{"1", "name_1", "11"});
+        persons.addRow(new String[]{"2", "name_2", "22"});
+        persons.addRow(new String[]{"3", "name_3", "33"});
+        return persons;
+    }
+
+    private Table phones() {
+        Table phones = new Table("phones", Arrays.asList("id", "p_id", "number"));
+        phones.addRow(new String[]{"1", "2", "2222222"});
+        phones.addRow(new String[]{"2", "1", "1111111"});
+        phones.addRow(new String[]{"3", "2", "2222223"});
+        phones.addRow(new String[]{"4", "9", "9999999"});
+        return phones;
+    }
+
+    private List<Map<String, String>> expected() {
+        return Arrays.<Map<String, String>>asList(
+                row("persons.p_name", "name_1", "number", "1111111"),
+                row("persons.p_name", "name_2", "number", "2222222"),
+                row("persons.p_name", "name_2", "number", "2222223"));
+    }
+
+    @Test
+    public void testHashJoin() {
+        SelectStatement statement = (SelectStatement) new StatementCache(16).parse(QUERY);
+        assertEquals(JoinExecutor.execute(statement, persons(), phones()), expected());
+    }
+
+    @Test
+    public void testIndexNestedLoopJoin() {
+        SelectStatement statement = (SelectStatement) new StatementCache(16).parse(QUERY);
+        Table persons = persons();
+        persons.setPrimaryKey("p_id");
+        assertEquals(JoinExecutor.execute(statement, persons, phones()), expected());
+    }
+
+    @Test
+    public void testJoinWithCondition() {
+        SelectStatement statement = (SelectStatement) new StatementCache(16)
+                .parse("SELECT id FROM persons JOIN phones ON persons.p_id = phones.p_id WHERE age > 15 AND number < 2222223");
+        assertEquals(JoinExecutor.execute(statement, persons(), phones()),
+                Collections.singletonList(Collections.singletonMap("id", "1")));
+    }
+
+    @Test
+    public void testLimitStopsReadingFromTable() throws IOException {
+        SelectStatement statement = (SelectStatement) new StatementCache(16).parse(QUERY + " LIMIT 1 OFFSET 1");
+        Table persons = persons();
+        List<Integer> read = new ArrayList<>();
+        List<Map<String, String>> joined = JoinExecutor.executeStreamingFrom(statement, persons.getSchema(), rowHandler -> {
+            for (int position = 0; position < persons.getRowCount(); position++) {
+                read.add(position);
+                if (!rowHandler.handleRow(persons.getColumnNames(), persons.getRow(position))) {
+                    return;
+                }
+            }
+        }, phones());
+        assertEquals(joined, Collections.singletonList(expected().get(1)));
+        assertEquals(read, Arrays.asList(0, 1));
+        assertEquals(JoinExecutor.execute(statement, persons, phones()), joined);
+    }
+
+    @Test
+    public void testStreamedJoinedTableKeepsOrderOfFromTable() throws IOException {
+        SelectStatement statement = (SelectStatement) new StatementCache(16).parse(QUERY);
+        Table phones = phones();
+        List<Map<String, String>> joined = JoinExecutor.executeStreamingJoined(statement, persons(), phones.getSchema(),
+                rowHandler -> {
+                    for (int position = 0; position < phones.getRowCount(); position++) {
+                        rowHandler.handleRow(phones.getColumnNames(), phones.getRow(position));
+                    }
+                });
+        assertEquals(joined, expected());
+    }
+}
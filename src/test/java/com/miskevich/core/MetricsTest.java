@@ -0,0 +1,77 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.testng.Assert.*;
+
+public class MetricsTest {
+
+    @Test
+    public void testHistogramPercentilesAreBucketBounds() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(3000);
+        }
+        histogram.record(100000);
+        histogram.record(5000000);
+
+        assertEquals(histogram.getCount(), 100);
+        assertEquals(histogram.percentile(0.5), 4);
+        assertEquals(histogram.percentile(0.99), 128);
+        assertEquals(histogram.percentile(1.0), 8192);
+    }
+
+    @Test
+    public void testSnapshot() {
+        Metrics metrics = new Metrics();
+        metrics.connectionOpened();
+        metrics.connectionOpened();
+        metrics.connectionClosed();
+        metrics.recordStatement(Statement.Type.SELECT, 2000, false);
+        metrics.recordStatement(Statement.Type.SELECT, 2000, true);
+        metrics.recordStatement(null, 1000, true);
+        metrics.recordPhase(Metrics.Phase.STORAGE, 1500);
+        metrics.addRowsScanned(100);
+        metrics.addRowsReturned(3);
+
+        Map<String, String> snapshot = metrics.snapshot();
+        assertEquals(snapshot.get("connections.active"), "1");
+        assertEquals(snapshot.get("connections.accepted"), "2");
+        assertEquals(snapshot.get("select.count"), "2");
+        assertEquals(snapshot.get("select.errors"), "1");
+        assertEquals(snapshot.get("select.latency.meanMicros"), "2");
+        assertEquals(snapshot.get("insert.count"), "0");
+        assertEquals(snapshot.get("invalid.errors"), "1");
+        assertEquals(snapshot.get("phase.storage.p50Micros"), "2");
+        assertEquals(snapshot.get("rows.scanned"), "100");
+        assertEquals(snapshot.get("rows.returned"), "3");
+        assertNull(snapshot.get("executor.poolSize"));
+    }
+
+    @Test
+    public void testSnapshotHasConnectionPool() {
+        Metrics metrics = new Metrics();
+        metrics.setConnectionExecutor(ConnectionExecutor.create(ServerConfig.fromArgs(new String[]{"--threads=4"})));
+
+        Map<String, String> snapshot = metrics.snapshot();
+        assertEquals(snapshot.get("executor.poolSize"), "0");
+        assertEquals(snapshot.get("executor.active"), "0");
+        assertEquals(snapshot.get("executor.queued"), "0");
+    }
+
+    @Test
+    public void testResponseWriterCountsRowsAndBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseWriter responseWriter = new TextResponseWriter(out, false);
+        responseWriter.writeRow(DataBaseService.getStats());
+        responseWriter.endResponse();
+
+        assertEquals(responseWriter.getRowCount(), 1);
+        assertEquals(responseWriter.getBytesWritten(), out.size());
+        assertTrue(out.toString().contains("statementCache.hits="));
+    }
+}
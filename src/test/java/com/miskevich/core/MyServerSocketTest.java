@@ -0,0 +1,50 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.Assert.*;
+
+public class MyServerSocketTest {
+
+    @Test(timeOut = 10000)
+    public void testFailedQueryKeepsConnectionServing() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0);
+             Socket client = new Socket("localhost", serverSocket.getLocalPort())) {
+            Thread server = new Thread(() -> {
+                try {
+                    new MyServerSocket(serverSocket.accept(), 10000, (responseWriter, query) -> {
+                        if (query.equals("FAIL")) {
+                            throw new IllegalStateException("broken");
+                        }
+                        responseWriter.writeMessage("answer " + query);
+                        responseWriter.endResponse();
+                    }).run();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            server.start();
+            client.getOutputStream().write("KEEPALIVE\nfirst\nFAIL\nsecond\nQUIT\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readAll(client.getInputStream()), "OK\n\nanswer first\n\n"
+                    + "Exception: java.lang.IllegalStateException: broken\n\nanswer second\n\n");
+            server.join();
+        }
+    }
+
+    private static String readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,61 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.Assert.*;
+
+public class NioServerTest {
+
+    @Test(timeOut = 10000)
+    public void testFailedQueryIsAnsweredInOrderOfPipelinedQueries() throws Exception {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        ServerConfig config = ServerConfig.fromArgs(new String[]{"--frontend=nio", "--port=" + port, "--threads=2"});
+        Thread server = new Thread(new NioServer(config, (responseWriter, query) -> {
+            if (query.equals("FAIL")) {
+                throw new IllegalStateException("broken");
+            }
+            responseWriter.writeMessage("answer " + query);
+            responseWriter.endResponse();
+        }));
+        server.start();
+        try (Socket socket = connect(port)) {
+            socket.getOutputStream().write("KEEPALIVE\nfirst\nFAIL\nsecond\nQUIT\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readAll(socket.getInputStream()), "OK\n\nanswer first\n\n"
+                    + "Exception: java.lang.IllegalStateException: broken\n\nanswer second\n\n");
+        } finally {
+            server.interrupt();
+            server.join();
+        }
+    }
+
+    private static Socket connect(int port) throws IOException, InterruptedException {
+        while (true) {
+            try {
+                return new Socket("localhost", port);
+            } catch (ConnectException e) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static String readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,49 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+import static com.miskevich.core.TestTables.createPersons;
+import static org.testng.Assert.*;
+
+public class PageReaderTest {
+
+    private static PageReader read(Table table, String query) {
+        SelectStatement statement = (SelectStatement) new StatementCache(16).parse(query);
+        RowFilter rowFilter = RowFilter.create(statement, table.getColumnNames(), table.getColumnTypes());
+        return PageReader.read(statement, table, rowFilter, null);
+    }
+
+    private static List<String> values(PageReader pageReader, String column) {
+        List<String> values = new ArrayList<>();
+        for (Map<String, String> row : pageReader.getRows()) {
+            values.add(row.get(column));
+        }
+        return values;
+    }
+
+    @Test
+    public void testKeysetCursorReadsOnlyItsPage() {
+        PageReader pageReader = read(createPersons(1000), "SELECT p_id FROM persons WHERE p_id > 500 ORDER BY p_id LIMIT 3");
+        assertEquals(values(pageReader, "p_id"), Arrays.asList("501", "502", "503"));
+        assertEquals(pageReader.getScannedCount(), 3);
+
+        pageReader = read(createPersons(1000), "SELECT p_id FROM persons WHERE p_id < 500 ORDER BY p_id DESC LIMIT 2");
+        assertEquals(values(pageReader, "p_id"), Arrays.asList("499", "498"));
+    }
+
+    @Test
+    public void testLimitStopsTableOrderScan() {
+        PageReader pageReader = read(createPersons(1000), "SELECT p_id FROM persons LIMIT 2 OFFSET 10");
+        assertEquals(values(pageReader, "p_id"), Arrays.asList("990", "989"));
+        assertEquals(pageReader.getScannedCount(), 12);
+    }
+
+    @Test
+    public void testOrderByColumnWithoutIndexPutsNullsLast() {
+        PageReader pageReader = read(createPersons(10), "SELECT p_id, age FROM persons WHERE p_id > 4 ORDER BY age DESC");
+        assertEquals(values(pageReader, "p_id"), Arrays.asList("8", "7", "10", "5", "9", "6"));
+        assertEquals(values(pageReader, "age"), Arrays.asList("3", "2", "0", "0", null, null));
+    }
+}
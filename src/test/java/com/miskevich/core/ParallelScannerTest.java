@@ -0,0 +1,37 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class ParallelScannerTest {
+
+    @Test
+    public void testRangesAreReturnedInTableOrder() {
+        ParallelScanner parallelScanner = new ParallelScanner(4, 100);
+        List<int[]> ranges = parallelScanner.scan(10000, (from, to) -> new int[]{from, to});
+        assertTrue(ranges.size() > 1);
+        int position = 0;
+        for (int[] range : ranges) {
+            assertEquals(range[0], position);
+            assertTrue(range[1] - range[0] >= 100);
+            position = range[1];
+        }
+        assertEquals(position, 10000);
+    }
+
+    @Test
+    public void testSmallScanRunsOnCallingThread() {
+        ParallelScanner parallelScanner = new ParallelScanner(4, 100);
+        List<String> threads = new ArrayList<>();
+        assertFalse(parallelScanner.isParallel(199));
+        parallelScanner.scan(199, (from, to) -> threads.add(Thread.currentThread().getName()));
+        assertEquals(threads, Collections.singletonList(Thread.currentThread().getName()));
+
+        assertFalse(new ParallelScanner(1, 100).isParallel(1000000));
+    }
+}
@@ -0,0 +1,97 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+public class ResponseWriterTest {
+
+    private static final List<String> COLUMN_NAMES = Arrays.asList("p_id", "name", "age");
+    private static final TableSchema PERSONS = new TableSchema("persons", COLUMN_NAMES, Arrays.asList(
+            TableSchema.ColumnType.INT, TableSchema.ColumnType.STRING, TableSchema.ColumnType.INT), "p_id");
+    private static final TableSchema PHONES = new TableSchema("phones", Arrays.asList("id", "number"), Arrays.asList(
+            TableSchema.ColumnType.INT, TableSchema.ColumnType.INT), "id");
+
+    @Test
+    public void testTextResponse() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseWriter responseWriter = new TextResponseWriter(out, true);
+        responseWriter.writeRow(COLUMN_NAMES, new int[]{1, 0}, new String[]{"1", "name_\u00e4", "11"});
+        Map<String, String> row = new LinkedHashMap<>();
+        row.put("p_id", "2");
+        responseWriter.writeRow(row);
+        responseWriter.writeError("No data");
+        assertEquals(out.size(), 0);
+
+        responseWriter.endResponse();
+        assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8),
+                "name=name_\u00e4\np_id=1\np_id=2\nException: No data\n\n");
+    }
+
+    @Test
+    public void testRecordedResponseIsWrittenAgain() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseWriter responseWriter = new BinaryResponseWriter(out);
+        responseWriter.setTables(Collections.singletonList(PERSONS));
+        responseWriter.startRecording(1024);
+        responseWriter.writeRow(COLUMN_NAMES, new int[]{0, 2}, new String[]{"1", "name_1", "11"});
+        byte[] recorded = responseWriter.stopRecording();
+        responseWriter.endResponse();
+        responseWriter.writeRecorded(recorded, 1);
+        responseWriter.endResponse();
+        assertEquals(responseWriter.getRowCount(), 2);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        List<Map<String, Object>> rows = BinaryClient.readResponse(in).getRows();
+        assertEquals(BinaryClient.readResponse(in).getRows(), rows);
+        assertEquals(rows.get(0).get("age"), 11);
+
+        responseWriter.startRecording(4);
+        responseWriter.writeMessage("longer than the limit");
+        assertNull(responseWriter.stopRecording());
+    }
+
+    @Test
+    public void testBinaryResponseIsReadByClient() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseWriter responseWriter = new BinaryResponseWriter(out);
+        responseWriter.setTables(Arrays.asList(PERSONS, PHONES));
+        responseWriter.writeRow(COLUMN_NAMES, new int[]{0, 1, 2}, new String[]{"1", "name_\u00e4", "11"});
+        responseWriter.writeRow(COLUMN_NAMES, new int[]{0, 1, 2}, new String[]{"2", null, "22"});
+        Map<String, String> row = new LinkedHashMap<>();
+        row.put("id", "7");
+        row.put("number", "7777777");
+        responseWriter.writeRow(row);
+        responseWriter.endResponse();
+        responseWriter.writeRow(row);
+        responseWriter.endResponse();
+        responseWriter.writeMessage("Object was saved in the file persons");
+        responseWriter.endResponse();
+        responseWriter.writeError("No data in the table persons for the condition");
+        responseWriter.endResponse();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        List<Map<String, Object>> rows = BinaryClient.readResponse(in).getRows();
+        assertEquals(rows.size(), 3);
+        assertEquals(rows.get(0).get("p_id"), 1);
+        assertEquals(rows.get(0).get("name"), "name_\u00e4");
+        assertFalse(rows.get(1).containsKey("name"));
+        assertEquals(rows.get(1).get("age"), 22);
+        assertEquals(rows.get(2).get("number"), 7777777);
+        assertEquals(BinaryClient.readResponse(in).getRows(), Collections.singletonList(rows.get(2)));
+        assertEquals(BinaryClient.readResponse(in).getMessage(), "Object was saved in the file persons");
+        try {
+            BinaryClient.readResponse(in);
+            fail("Error frame was not reported");
+        } catch (ServerException e) {
+            assertEquals(e.getMessage(), "No data in the table persons for the condition");
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.testng.Assert.*;
+
+public class ResultCacheTest {
+
+    private static final byte[] RESPONSE = {1, 2, 3};
+
+    @Test
+    public void testEntryIsServedForItsVersionsOnly() {
+        ResultCache resultCache = new ResultCache(16, 1024 * 1024, 1024);
+        resultCache.put("select", Collections.singletonList("persons"), new long[]{3}, RESPONSE, 1);
+
+        assertSame(resultCache.get("select", new long[]{3}).getResponse(), RESPONSE);
+        assertNull(resultCache.get("select", new long[]{4}));
+        assertEquals(resultCache.getHitCount(), 1);
+        assertEquals(resultCache.getMissCount(), 1);
+    }
+
+    @Test
+    public void testInvalidateDropsEntriesOfTheTable() {
+        ResultCache resultCache = new ResultCache(16, 1024 * 1024, 1024);
+        resultCache.put("persons", Collections.singletonList("persons"), new long[]{1}, RESPONSE, 1);
+        resultCache.put("join", Arrays.asList("persons", "phones"), new long[]{1, 1}, RESPONSE, 1);
+        resultCache.put("phones", Collections.singletonList("phones"), new long[]{1}, RESPONSE, 1);
+
+        resultCache.invalidate("persons");
+        assertNull(resultCache.get("persons", new long[]{1}));
+        assertNull(resultCache.get("join", new long[]{1, 1}));
+        assertNotNull(resultCache.get("phones", new long[]{1}));
+        assertEquals(resultCache.getInvalidationCount(), 2);
+        assertEquals(resultCache.size(), 1);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        ResultCache resultCache = new ResultCache(2, 1024 * 1024, 1024);
+        resultCache.put("first", Collections.singletonList("persons"), new long[]{1}, RESPONSE, 1);
+        resultCache.put("second", Collections.singletonList("persons"), new long[]{1}, RESPONSE, 1);
+        resultCache.get("first", new long[]{1});
+        resultCache.put("third", Collections.singletonList("persons"), new long[]{1}, RESPONSE, 1);
+
+        assertNotNull(resultCache.get("first", new long[]{1}));
+        assertNull(resultCache.get("second", new long[]{1}));
+        assertEquals(resultCache.size(), 2);
+
+        resultCache.put("large", Collections.singletonList("persons"), new long[]{1}, new byte[2048], 1);
+        assertNull(resultCache.get("large", new long[]{1}));
+    }
+}
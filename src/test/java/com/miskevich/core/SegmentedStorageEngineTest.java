@@ -0,0 +1,126 @@
+package com.miskevich.core;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class SegmentedStorageEngineTest {
+
+    private static final TableSchema CITIES = new TableSchema("cities", Arrays.asList("c_id", "c_name"),
+            Arrays.asList(TableSchema.ColumnType.INT, TableSchema.ColumnType.STRING), "c_id");
+    private String path;
+
+    @BeforeMethod
+    public void createDir() throws IOException {
+        File dir = Files.createTempDirectory("segments").toFile();
+        dir.deleteOnExit();
+        path = dir.getPath() + File.separator;
+    }
+
+    private static Table createCities(int rows) {
+        Table table = new Table(CITIES);
+        for (int id = 1; id <= rows; id++) {
+            table.addRow(new String[]{String.valueOf(id), "city_" + id});
+        }
+        return table;
+    }
+
+    private static List<String> ids(Table table) {
+        List<String> ids = new ArrayList<>();
+        for (int position = 0; position < table.getRowCount(); position++) {
+            ids.add(table.getRow(position)[0]);
+        }
+        return ids;
+    }
+
+    @Test
+    public void testTableIsWrittenAndLoadedInSegments() throws IOException {
+        SegmentedStorageEngine storageEngine = new SegmentedStorageEngine(new BinaryStorageEngine(), 3);
+        Table cities = createCities(7);
+        storageEngine.write(cities, path);
+
+        assertEquals(storageEngine.getFiles("cities", path).size(), 3);
+        assertEquals(storageEngine.listTables(path), Collections.singletonList("cities"));
+        assertEquals(ids(storageEngine.load("cities", path)), ids(cities));
+        assertEquals(ids(new BinaryStorageEngine().load("cities.2", path)), Collections.singletonList("7"));
+
+        storageEngine.write(createCities(2), path);
+        assertEquals(storageEngine.getFiles("cities", path).size(), 1);
+        assertEquals(ids(storageEngine.load("cities", path)), Arrays.asList("1", "2"));
+    }
+
+    @Test
+    public void testAppendOnlyTouchesNewestSegment() throws IOException {
+        SegmentedStorageEngine storageEngine = new SegmentedStorageEngine(new XlsxStorageEngine(), 3);
+        storageEngine.write(createCities(4), path);
+        Table table = storageEngine.load("cities", path);
+        table.setSchema(CITIES);
+        File first = storageEngine.getFile("cities", path);
+        long length = first.length();
+
+        Table grown = table.withRows(Arrays.asList(new String[]{"5", "city_5"}, new String[]{"6", "city_6"},
+                new String[]{"7", "city_7"}));
+        storageEngine.append(grown, 4, 7, path);
+
+        assertEquals(first.length(), length);
+        assertEquals(storageEngine.getFiles("cities", path).size(), 3);
+        assertEquals(ids(storageEngine.load("cities", path)), ids(createCities(7)));
+    }
+
+    @Test
+    public void testAppendWithWiderValueRewritesOnlyNewestSegment() throws IOException {
+        SegmentedStorageEngine storageEngine = new SegmentedStorageEngine(new BinaryStorageEngine(), 3);
+        storageEngine.write(createCities(4), path);
+        File first = storageEngine.getFile("cities", path);
+        long length = first.length();
+
+        Table grown = createCities(4).withRows(Collections.singletonList(
+                new String[]{"5", "a city whose name is longer than thirty two bytes"}));
+        storageEngine.append(grown, 4, 5, path);
+
+        assertEquals(first.length(), length);
+        assertEquals(ids(storageEngine.load("cities", path)), ids(createCities(5)));
+        assertEquals(storageEngine.findRow("cities", path, "c_id", 5)[1], "a city whose name is longer than thirty two bytes");
+    }
+
+    @Test(expectedExceptions = IOException.class,
+            expectedExceptionsMessageRegExp = "Segments of the table cities hold 4 rows instead of 5, they were changed outside of the server")
+    public void testAppendToChangedSegmentsFails() throws IOException {
+        SegmentedStorageEngine storageEngine = new SegmentedStorageEngine(new BinaryStorageEngine(), 3);
+        storageEngine.write(createCities(4), path);
+        storageEngine.append(createCities(6), 5, 6, path);
+    }
+
+    @Test
+    public void testScanSkipsSegmentsOutsideOfRange() throws IOException {
+        SegmentedStorageEngine storageEngine = new SegmentedStorageEngine(new BinaryStorageEngine(), 3);
+        storageEngine.write(createCities(9), path);
+        SelectStatement statement = (SelectStatement) new StatementCache(16).parse("SELECT * FROM cities WHERE c_id = 5");
+        RowFilter rowFilter = RowFilter.create(statement, CITIES.getColumnNames(), CITIES.getColumnTypes());
+
+        List<String> scanned = new ArrayList<>();
+        storageEngine.scanMatching("cities", path, rowFilter, (columnNames, values) -> {
+            scanned.add(values[0]);
+            return true;
+        });
+        assertEquals(scanned, Arrays.asList("4", "5", "6"));
+    }
+
+    @Test
+    public void testFindRowLooksInSegmentOfKey() throws IOException {
+        SegmentedStorageEngine storageEngine = new SegmentedStorageEngine(new XlsxStorageEngine(), 3);
+        storageEngine.write(createCities(9), path);
+
+        assertEquals(storageEngine.findRow("cities", path, "c_id", 8), new String[]{"8", "city_8"});
+        assertNull(storageEngine.findRow("cities", path, "c_id", 10));
+    }
+}
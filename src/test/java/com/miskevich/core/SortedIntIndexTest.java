@@ -0,0 +1,46 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class SortedIntIndexTest {
+
+    @Test
+    public void testFindRange(){
+        SortedIntIndex index = new SortedIntIndex();
+        int[] ages = {40, 25, 31, 35, 31, 18, 52};
+        for (int position = 0; position < ages.length; position++) {
+            index = index.add(ages[position], position);
+        }
+        assertEquals(index.size(), 7);
+        assertEquals(index.find(30, 40), new int[]{2, 4, 3, 0});
+        assertEquals(index.count(30, 40), 4);
+        assertEquals(index.find(31, 31), new int[]{2, 4});
+        assertEquals(index.find(53, 60), new int[0]);
+        assertEquals(index.count(40, 30), 0);
+    }
+
+    @Test
+    public void testBuildMatchesAdd(){
+        int[] keys = {5, -3, 9, 5, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        int[] positions = {0, 1, 2, 3, 4, 5};
+        SortedIntIndex built = SortedIntIndex.build(keys, positions, keys.length);
+        SortedIntIndex added = new SortedIntIndex(2);
+        for (int i = 0; i < keys.length; i++) {
+            added = added.add(keys[i], positions[i]);
+        }
+        assertEquals(built.find(Integer.MIN_VALUE, Integer.MAX_VALUE), new int[]{5, 1, 0, 3, 2, 4});
+        assertEquals(added.find(Integer.MIN_VALUE, Integer.MAX_VALUE), new int[]{5, 1, 0, 3, 2, 4});
+    }
+
+    @Test
+    public void testAddLeavesIndexUnchanged(){
+        SortedIntIndex index = new SortedIntIndex().add(10, 0).add(20, 1);
+        SortedIntIndex appended = index.add(30, 2);
+        SortedIntIndex inserted = appended.add(15, 3);
+        assertEquals(index.find(0, 100), new int[]{0, 1});
+        assertEquals(appended.find(0, 100), new int[]{0, 1, 2});
+        assertEquals(inserted.find(0, 100), new int[]{0, 3, 1, 2});
+    }
+}
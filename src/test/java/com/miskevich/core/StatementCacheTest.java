@@ -0,0 +1,124 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+import static org.testng.Assert.*;
+
+public class StatementCacheTest {
+
+    @Test
+    public void testParseSelectIgnoresWhitespace() {
+        SelectStatement statement = (SelectStatement) new StatementCache(16)
+                .parse("  select p_id,p_name ,  age\tFROM   persons  where p_id=1 ;");
+        assertEquals(statement.getTable(), "persons");
+        assertEquals(statement.getColumns(), Arrays.asList("p_id", "p_name", "age"));
+        assertEquals(statement.getWhereColumn(), "p_id");
+        assertEquals(statement.getWhereValue(), "1");
+    }
+
+    @Test
+    public void testParseInsertWithQuotedValues() {
+        InsertStatement statement = (InsertStatement) new StatementCache(16)
+                .parse("INSERT INTO persons (p_id, p_name, age) VALUES (1, 'name, ''one''', 11),(2,name_2,22)");
+        assertEquals(statement.getColumns(), Arrays.asList("p_id", "p_name", "age"));
+        assertEquals(statement.getRowCount(), 2);
+        assertEquals(statement.getRow(0), Arrays.asList("1", "name, 'one'", "11"));
+        assertEquals(statement.getRow(1), Arrays.asList("2", "name_2", "22"));
+    }
+
+    @Test
+    public void testParseInsertWithUnquotedValues() {
+        InsertStatement statement = (InsertStatement) new StatementCache(16)
+                .parse("INSERT INTO persons (p_id, p_name, age) VALUES (1, John Smith, 5), ( -2 ,name-2,  22 );");
+        assertEquals(statement.getRow(0), Arrays.asList("1", "John Smith", "5"));
+        assertEquals(statement.getRow(1), Arrays.asList("-2", "name-2", "22"));
+    }
+
+    @Test
+    public void testParseRangeConditions() {
+        SelectStatement statement = (SelectStatement) new StatementCache(16)
+                .parse("SELECT p_name FROM persons WHERE age BETWEEN 30 AND 40 AND p_id > 1");
+        assertEquals(statement.getConditions().size(), 2);
+        Condition between = statement.getConditions().get(0);
+        assertEquals(between.getOperator(), Condition.Operator.BETWEEN);
+        assertEquals(statement.getValue(between), "30");
+        assertEquals(statement.getHighValue(between), "40");
+        Condition greater = statement.getConditions().get(1);
+        assertEquals(greater.getColumn(), "p_id");
+        assertEquals(greater.getOperator(), Condition.Operator.GREATER);
+        assertEquals(statement.getValue(greater), "1");
+    }
+
+    @Test
+    public void testParseCreateIndex() {
+        CreateIndexStatement statement = (CreateIndexStatement) new StatementCache(16)
+                .parse("CREATE INDEX persons_age ON persons (age)");
+        assertEquals(statement.getName(), "persons_age");
+        assertEquals(statement.getTable(), "persons");
+        assertEquals(statement.getColumn(), "age");
+    }
+
+    @Test
+    public void testParseCreateTable() {
+        CreateTableStatement statement = (CreateTableStatement) new StatementCache(16)
+                .parse("create table cities (c_id integer primary key, c_name varchar, population INT)");
+        TableSchema schema = statement.getSchema();
+        assertEquals(schema.getName(), "cities");
+        assertEquals(schema.getColumnNames(), Arrays.asList("c_id", "c_name", "population"));
+        assertEquals(schema.getColumnTypes(), Arrays.asList(TableSchema.ColumnType.INT,
+                TableSchema.ColumnType.STRING, TableSchema.ColumnType.INT));
+        assertEquals(schema.getPrimaryKey(), "c_id");
+        assertEquals(schema.toCreateStatement(),
+                "CREATE TABLE cities (c_id INT PRIMARY KEY, c_name STRING, population INT)");
+    }
+
+    @Test(expectedExceptions = ServerException.class,
+            expectedExceptionsMessageRegExp = "Primary key 'c_name' must be INT")
+    public void testCreateTableWithStringPrimaryKey() {
+        new StatementCache(16).parse("CREATE TABLE cities (c_id INT, c_name STRING PRIMARY KEY)");
+    }
+
+    @Test
+    public void testParseKeysetCursor() {
+        StatementCache statementCache = new StatementCache(16);
+        SelectStatement first = (SelectStatement) statementCache
+                .parse("SELECT p_id, p_name FROM persons WHERE p_id > 50 ORDER BY p_id DESC LIMIT 50");
+        SelectStatement next = (SelectStatement) statementCache
+                .parse("SELECT p_id, p_name FROM persons WHERE p_id > 100 ORDER BY p_id DESC LIMIT 50");
+        assertEquals(next.getWhereValue(), "100");
+        assertEquals(next.getOrderBy(), "p_id");
+        assertTrue(next.isDescending());
+        assertEquals(next.getLimit(), 50);
+        assertEquals(next.getOffset(), 0);
+        assertEquals(first.getLimit(), 50);
+        assertEquals(statementCache.getTemplateHitCount(), 1);
+    }
+
+    @Test
+    public void testParameterizedFormIsParsedOnce() {
+        StatementCache statementCache = new StatementCache(16);
+        SelectStatement first = (SelectStatement) statementCache.parse("SELECT p_id FROM persons WHERE p_id = 1");
+        SelectStatement second = (SelectStatement) statementCache.parse("SELECT p_id  FROM persons WHERE p_id = 2");
+        statementCache.parse("SELECT p_id FROM persons WHERE p_id = 1");
+
+        assertEquals(first.getWhereValue(), "1");
+        assertEquals(second.getWhereValue(), "2");
+        assertEquals(statementCache.getMissCount(), 1);
+        assertEquals(statementCache.getTemplateHitCount(), 1);
+        assertEquals(statementCache.getHitCount(), 1);
+    }
+
+    @Test(expectedExceptions = ServerException.class,
+            expectedExceptionsMessageRegExp = "Syntax error at position 20: expected FROM but found 'persons'")
+    public void testSyntaxError() {
+        new StatementCache(16).parse("SELECT p_id, p_name persons");
+    }
+
+    @Test(expectedExceptions = ServerException.class,
+            expectedExceptionsMessageRegExp = "Parameter markers are not supported at position 35, write the value into the query")
+    public void testParameterMarker() {
+        new StatementCache(16).parse("SELECT * FROM persons WHERE p_id = ?");
+    }
+}
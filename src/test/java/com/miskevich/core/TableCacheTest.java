@@ -0,0 +1,169 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.*;
+
+public class TableCacheTest {
+
+    private static final String PATH = "src" + File.separator + "main" + File.separator + "java" + File.separator
+            + "com" + File.separator + "miskevich" + File.separator + "data" + File.separator;
+
+    @Test
+    public void testGetReturnsSameTableUntilFileChanges(){
+        TableCache tableCache = new TableCache(Long.MAX_VALUE);
+        Table first = tableCache.get("phones", PATH);
+        Table second = tableCache.get("phones", PATH);
+        assertSame(first, second);
+        assertEquals(tableCache.size(), 1);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedTableIsEvicted(){
+        TableCache probe = new TableCache(Long.MAX_VALUE);
+        long phonesSize = probe.get("phones", PATH).getEstimatedSize();
+        long personsSize = probe.get("persons", PATH).getEstimatedSize();
+
+        TableCache tableCache = new TableCache(Math.max(phonesSize, personsSize));
+        tableCache.get("phones", PATH);
+        tableCache.get("persons", PATH);
+        assertEquals(tableCache.size(), 1);
+        assertTrue(tableCache.getCurrentBytes() <= Math.max(phonesSize, personsSize));
+    }
+
+    @Test
+    public void testTableLargerThanCapIsNotCached(){
+        TableCache tableCache = new TableCache(1);
+        Table table = tableCache.get("phones", PATH);
+        assertEquals(table.getColumnNames().size(), 3);
+        assertEquals(tableCache.size(), 0);
+    }
+
+    @Test
+    public void testInsertLeavesEarlierVersionUnchanged(){
+        TableCache tableCache = new TableCache(Long.MAX_VALUE);
+        Table before = tableCache.get("phones", PATH);
+        int rowCount = before.getRowCount();
+        int position = tableCache.applyInsert("phones", PATH, Arrays.asList(
+                new String[]{"1000", "1", "1234567"}, new String[]{"1001", "1", "7654321"}));
+
+        Table after = tableCache.get("phones", PATH);
+        assertEquals(position, rowCount);
+        assertEquals(after.getRowCount(), rowCount + 2);
+        assertEquals(after.findRowByPrimaryKey(1001), rowCount + 1);
+        assertEquals(before.getRowCount(), rowCount);
+        assertEquals(before.findRowByPrimaryKey(1001), IntHashIndex.NOT_FOUND);
+        assertTrue(before.isVersionOf(after));
+    }
+
+    @Test
+    public void testStagedInsertIsVisibleOnlyToWritersUntilPublished(){
+        TableCache tableCache = new TableCache(Long.MAX_VALUE);
+        int rowCount = tableCache.get("phones", PATH).getRowCount();
+        Table staged = tableCache.stageInsert("phones", PATH,
+                Collections.singletonList(new String[]{"1000", "1", "1234567"}));
+
+        assertEquals(tableCache.getLatest("phones", PATH).getRowCount(), rowCount + 1);
+        assertEquals(tableCache.get("phones", PATH).getRowCount(), rowCount);
+        tableCache.publish("phones", PATH, staged);
+        assertSame(tableCache.get("phones", PATH), staged);
+    }
+
+    @Test
+    public void testDiscardedInsertKeepsInsertsStagedBefore(){
+        TableCache tableCache = new TableCache(Long.MAX_VALUE);
+        Table first = tableCache.stageInsert("phones", PATH,
+                Collections.singletonList(new String[]{"1000", "1", "1234567"}));
+        tableCache.stageInsert("phones", PATH, Collections.singletonList(new String[]{"1001", "1", "7654321"}));
+        Table third = tableCache.stageInsert("phones", PATH,
+                Collections.singletonList(new String[]{"1002", "1", "1111111"}));
+
+        tableCache.discardStaged("phones", PATH, first);
+        tableCache.discardStaged("phones", PATH, third);
+        assertSame(tableCache.getLatest("phones", PATH), first);
+        tableCache.publish("phones", PATH, first);
+        assertSame(tableCache.get("phones", PATH), first);
+    }
+
+    @Test
+    public void testFilesAreCheckedOncePerInterval() throws IOException {
+        String path = Files.createTempDirectory("cache").toFile().getPath() + File.separator;
+        StorageEngine storageEngine = new BinaryStorageEngine();
+        TableSchema schema = new TableSchema("cities", Arrays.asList("c_id", "c_name"),
+                Arrays.asList(TableSchema.ColumnType.INT, TableSchema.ColumnType.STRING), "c_id");
+        Table cities = new Table(schema);
+        cities.addRow(new String[]{"1", "city_1"});
+        storageEngine.write(cities, path);
+
+        TableCache checkedOnce = new TableCache(storageEngine, Long.MAX_VALUE, Long.MAX_VALUE, 3600000);
+        TableCache checkedAlways = new TableCache(storageEngine, Long.MAX_VALUE, Long.MAX_VALUE, 0);
+        assertEquals(checkedOnce.get("cities", path).getRowCount(), 1);
+        assertEquals(checkedAlways.get("cities", path).getRowCount(), 1);
+        cities.addRow(new String[]{"2", "city_2"});
+        storageEngine.write(cities, path);
+
+        assertEquals(checkedOnce.get("cities", path).getRowCount(), 1);
+        assertEquals(checkedAlways.get("cities", path).getRowCount(), 2);
+    }
+
+    @Test
+    public void testReadersSeeWholeInsertsWhileWritersRun() throws InterruptedException {
+        TableCache tableCache = new TableCache(Long.MAX_VALUE);
+        int initialRowCount = tableCache.get("phones", PATH).getRowCount();
+        AtomicInteger nextId = new AtomicInteger(100000);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    synchronized (tableCache.getWriteLock("phones", PATH)) {
+                        int id = nextId.getAndAdd(2);
+                        tableCache.applyInsert("phones", PATH, Arrays.asList(
+                                new String[]{String.valueOf(id), "1", "1"}, new String[]{String.valueOf(id + 1), "1", "1"}));
+                    }
+                }
+            }));
+        }
+        Thread reader = new Thread(() -> {
+            try {
+                while (writers.stream().anyMatch(Thread::isAlive)) {
+                    Table table = tableCache.get("phones", PATH);
+                    int inserted = table.getRowCount() - initialRowCount;
+                    assertEquals(inserted % 2, 0);
+                    for (int position = initialRowCount; position < table.getRowCount(); position++) {
+                        int id = Table.toInt(table.getRow(position)[0]);
+                        assertEquals(table.findRowByPrimaryKey(id), position);
+                    }
+                    assertEquals(table.findRowByPrimaryKey(100000 + inserted), IntHashIndex.NOT_FOUND);
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        reader.start();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        reader.join();
+
+        assertNull(failure.get());
+        Table table = tableCache.get("phones", PATH);
+        assertEquals(table.getRowCount(), initialRowCount + 8000);
+        for (int id = 100000; id < 108000; id++) {
+            assertTrue(table.containsPrimaryKey(id));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.miskevich.core;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tables and rows shared by the tests of the query executors.
+ */
+final class TestTables {
+
+    static final TableSchema PERSONS = new TableSchema("persons", Arrays.asList("p_id", "p_name", "age"),
+            Arrays.asList(TableSchema.ColumnType.INT, TableSchema.ColumnType.STRING, TableSchema.ColumnType.INT), "p_id");
+
+    private TestTables() {
+    }
+
+    /**
+     * @return persons table with the rows in the given order
+     */
+    static Table createPersons(String[]... rows) {
+        Table table = new Table(PERSONS);
+        for (String[] row : rows) {
+            table.addRow(row);
+        }
+        return table;
+    }
+
+    /**
+     * @return persons table with the ids from the row count down to 1, named {@code name_<id>}, aged id % 5 and
+     * without an age for every third id
+     */
+    static Table createPersons(int rows) {
+        Table table = new Table(PERSONS);
+        for (int id = rows; id >= 1; id--) {
+            table.addRow(new String[]{String.valueOf(id), "name_" + id, id % 3 == 0 ? null : String.valueOf(id % 5)});
+        }
+        return table;
+    }
+
+    /**
+     * @return result row with the names and values given one after another
+     */
+    static Map<String, String> row(String... namesAndValues) {
+        Map<String, String> row = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            row.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,115 @@
+package com.miskevich.core;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.*;
+
+public class WriteAheadLogTest {
+
+    private File dir;
+
+    @BeforeMethod
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("wal").toFile();
+        dir.deleteOnExit();
+    }
+
+    @Test
+    public void testAppendAndReadAll() throws IOException {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(dir, WriteAheadLog.FsyncPolicy.ALWAYS);
+        writeAheadLog.append(new WriteAheadLog.Record("persons", 2, new String[]{"3", "name_3", null}));
+        writeAheadLog.append(new WriteAheadLog.Record("phones", 3, new String[]{"4", "444", "4444444"}));
+        writeAheadLog.close();
+
+        List<WriteAheadLog.Record> records = new WriteAheadLog(dir, WriteAheadLog.FsyncPolicy.ALWAYS).readAll();
+        assertEquals(records.size(), 2);
+        assertEquals(records.get(0).getTable(), "persons");
+        assertEquals(records.get(0).getPosition(), 2);
+        assertEquals(records.get(0).getRow(), new String[]{"3", "name_3", null});
+        assertEquals(records.get(1).getRow(), new String[]{"4", "444", "4444444"});
+    }
+
+    @Test
+    public void testTornRecordIsSkipped() throws IOException {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(dir, WriteAheadLog.FsyncPolicy.NEVER);
+        writeAheadLog.append(new WriteAheadLog.Record("persons", 2, new String[]{"3", "name_3", "33"}));
+        writeAheadLog.close();
+        File segment = dir.listFiles()[0];
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            out.write(new byte[]{0, 0, 0, 20, 1, 2});
+        }
+
+        assertEquals(new WriteAheadLog(dir, WriteAheadLog.FsyncPolicy.NEVER).readAll().size(), 1);
+    }
+
+    @Test
+    public void testSegmentsBeforeRotationAreDeleted() throws IOException {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(dir, WriteAheadLog.FsyncPolicy.NEVER);
+        writeAheadLog.append(new WriteAheadLog.Record("persons", 2, new String[]{"3", "name_3", "33"}));
+        long segment = writeAheadLog.rotate();
+        writeAheadLog.append(new WriteAheadLog.Record("persons", 3, new String[]{"4", "name_4", "44"}));
+        writeAheadLog.deleteSegmentsBefore(segment);
+
+        List<WriteAheadLog.Record> records = writeAheadLog.readAll();
+        assertEquals(records.size(), 1);
+        assertEquals(records.get(0).getPosition(), 3);
+    }
+
+    @Test
+    public void testRecordsAreRefusedAfterFailedWrite() throws IOException {
+        File blocker = new File(dir, "blocker");
+        assertTrue(blocker.createNewFile());
+        WriteAheadLog writeAheadLog = new WriteAheadLog(new File(blocker, "wal"), WriteAheadLog.FsyncPolicy.NEVER);
+        try {
+            writeAheadLog.append(new WriteAheadLog.Record("persons", 2, new String[]{"3", "name_3", "33"}));
+            fail("the log directory cannot be created");
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), "Could not write the log");
+        }
+
+        assertTrue(blocker.delete());
+        try {
+            writeAheadLog.append(new WriteAheadLog.Record("persons", 3, new String[]{"4", "name_4", "44"}));
+            fail("the log failed before");
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), "The log failed before, inserts are refused until the server is restarted");
+        }
+    }
+
+    @Test
+    public void testConcurrentAppendsShareBatches() throws Exception {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(dir, WriteAheadLog.FsyncPolicy.ALWAYS, 1024, 2000);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        writeAheadLog.append(new WriteAheadLog.Record("persons", thread * 20 + i, new String[]{"1"}));
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writeAheadLog.close();
+
+        assertNull(failure.get());
+        assertTrue(writeAheadLog.getBatchCount() < 160, "batches: " + writeAheadLog.getBatchCount());
+        assertEquals(new WriteAheadLog(dir, WriteAheadLog.FsyncPolicy.ALWAYS).readAll().size(), 160);
+    }
+}
@@ -0,0 +1,73 @@
+package com.miskevich.core;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+public class XlsxStreamReaderTest {
+
+    private static final String PATH = "src" + File.separator + "main" + File.separator + "java" + File.separator
+            + "com" + File.separator + "miskevich" + File.separator + "data" + File.separator;
+    private static final File PHONES = new File(PATH + "phones" + XlsxStorageEngine.FILE_SUFFIX);
+    private final List<String> COLUMN_NAME_LIST = new ArrayList<String>(){{add("id"); add("code"); add("number");}};
+
+    @Test
+    public void testReadStreamsAllRows() throws IOException {
+        final List<String[]> rows = new ArrayList<>();
+        List<String> columnNames = XlsxStreamReader.read(PHONES, (names, values) -> rows.add(values));
+
+        assertEquals(columnNames, COLUMN_NAME_LIST);
+        assertEquals(rows.size(), 3);
+        assertEquals(rows.get(0), new String[]{"1", "111", "1111111"});
+        assertEquals(rows.get(2), new String[]{"3", "333", "3333333"});
+    }
+
+    @Test
+    public void testReadMatchesWorkbookModel() throws IOException {
+        final List<String[]> rows = new ArrayList<>();
+        XlsxStreamReader.read(PHONES, (names, values) -> rows.add(values));
+
+        Table table = new XlsxStorageEngine().load("phones", PATH);
+        assertEquals(rows.size(), table.getRowCount());
+        for (int position = 0; position < rows.size(); position++) {
+            assertEquals(rows.get(position), table.getRow(position));
+        }
+    }
+
+    @Test
+    public void testReadStopsWhenHandlerReturnsFalse() throws IOException {
+        final int[] rowCount = {0};
+        XlsxStreamReader.read(PHONES, (names, values) -> ++rowCount[0] < 2);
+        assertEquals(rowCount[0], 2);
+    }
+
+    @Test
+    public void testReadProjectsSelectedColumns() throws IOException {
+        final List<String[]> rows = new ArrayList<>();
+        final List<List<String>> names = new ArrayList<>();
+        XlsxStreamReader.read(PHONES, Arrays.asList("number", "id"), (columnNames, values) -> {
+            names.add(columnNames);
+            return rows.add(values);
+        });
+
+        assertEquals(names.get(0), Arrays.asList("number", "id"));
+        assertEquals(rows.get(0), new String[]{"1111111", "1"});
+        assertEquals(rows.get(2), new String[]{"3333333", "3"});
+    }
+
+    @Test
+    public void testReadColumnNames() throws IOException {
+        assertEquals(XlsxStreamReader.readColumnNames(PHONES), COLUMN_NAME_LIST);
+    }
+
+    @Test
+    public void testGetColumnIndex(){
+        assertEquals(XlsxStreamReader.getColumnIndex("A1"), 0);
+        assertEquals(XlsxStreamReader.getColumnIndex("C12"), 2);
+        assertEquals(XlsxStreamReader.getColumnIndex("AB3"), 27);
+    }
+}